@@ -0,0 +1,66 @@
+package commoble.autopalette;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures transforming big and tall animated textures in parallel bands of rows, at various split thresholds
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandedTransformBenchmark
+{
+	// the tall sizes are animated strips of square frames
+	@Param({"16x512", "64x2048", "128x8192", "1024x1024"})
+	public String size;
+
+	// 0 never splits, so it measures the serial path
+	@Param({"0", "4096", "65536"})
+	public int splitThreshold;
+
+	private PaletteOverride override;
+	private PixelImage image;
+	private IndexedImage indexedImage;
+	private List<CompiledPalette> palettes;
+	private int frameHeight;
+
+	@Setup
+	public void setup()
+	{
+		int[] size = BenchmarkData.parseSize(this.size);
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		this.image = BenchmarkData.makeImage(size[0], size[1], colors, 1L);
+		this.indexedImage = IndexedImage.of(this.image);
+		this.override = BenchmarkData.makeOverride(BenchmarkData.makePalette(colors, 8));
+		this.palettes = List.of(this.override.getCompiledPalette());
+		this.frameHeight = size[1] > size[0] ? size[0] : 0;
+	}
+
+	@Benchmark
+	public PixelImage transformPixelImage()
+	{
+		return this.override.transformImage(this.image, this.frameHeight, this.splitThreshold);
+	}
+
+	@Benchmark
+	public PixelImage[] recolorIndexedImage()
+	{
+		return this.indexedImage.recolor(this.palettes, this.frameHeight, this.splitThreshold);
+	}
+}
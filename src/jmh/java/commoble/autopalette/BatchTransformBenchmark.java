@@ -0,0 +1,79 @@
+package commoble.autopalette;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures recoloring one parent image with several overrides, one override at a time versus all at once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchTransformBenchmark
+{
+	@Param({"16x16", "256x256", "16x512"})
+	public String size;
+
+	@Param({"1", "4", "16"})
+	public int overrideCount;
+
+	private PixelImage image;
+	private IndexedImage indexedImage;
+	private List<PaletteOverride> overrides;
+	private List<CompiledPalette> palettes;
+
+	@Setup
+	public void setup()
+	{
+		int[] size = BenchmarkData.parseSize(this.size);
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		this.image = BenchmarkData.makeImage(size[0], size[1], colors, 1L);
+		this.indexedImage = IndexedImage.of(this.image);
+		this.overrides = new ArrayList<>();
+		for (int i=0; i<this.overrideCount; i++)
+		{
+			// different palette sizes so every override makes a different image
+			this.overrides.add(BenchmarkData.makeOverride(BenchmarkData.makePalette(colors, 8 + i)));
+		}
+		this.palettes = this.overrides.stream().map(PaletteOverride::getCompiledPalette).toList();
+	}
+
+	@Benchmark
+	public void transformEachOverride(Blackhole blackhole)
+	{
+		for (PaletteOverride override : this.overrides)
+		{
+			blackhole.consume(override.transformImage(this.image));
+		}
+	}
+
+	@Benchmark
+	public PixelImage[] recolorBatch()
+	{
+		return this.indexedImage.recolor(this.palettes);
+	}
+
+	@Benchmark
+	public PixelImage[] indexAndRecolorBatch()
+	{
+		// includes indexing the parent, which generation does once per parent per reload
+		return IndexedImage.of(this.image).recolor(this.palettes);
+	}
+}
@@ -0,0 +1,128 @@
+package commoble.autopalette;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.google.gson.JsonObject;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Builds synthetic textures, palettes, and autotexture jsons for the benchmarks
+ */
+public final class BenchmarkData
+{
+	// typical minecraft textures use somewhere between 8 and 40 distinct colors
+	public static final int PARENT_COLORS = 40;
+
+	private BenchmarkData() {}
+
+	/**
+	 * @param size A size in WIDTHxHEIGHT format, e.g. 16x512
+	 * @return {width, height}
+	 */
+	public static int[] parseSize(String size)
+	{
+		String[] parts = size.split("x");
+		return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+	}
+
+	/**
+	 * @param count How many colors to make
+	 * @param seed Random seed
+	 * @return Distinct opaque colors in ABGR format
+	 */
+	public static int[] makeColors(int count, long seed)
+	{
+		Random random = new Random(seed);
+		Set<Integer> colors = new LinkedHashSet<>();
+		while (colors.size() < count)
+		{
+			colors.add(0xFF000000 | random.nextInt(0x1000000));
+		}
+		return colors.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Makes an image out of short runs of the given colors, roughly like a pixel art texture
+	 * @param width Image width
+	 * @param height Image height
+	 * @param colors Colors to use
+	 * @param seed Random seed
+	 * @return A new image
+	 */
+	public static PixelImage makeImage(int width, int height, int[] colors, long seed)
+	{
+		Random random = new Random(seed);
+		int[] pixels = new int[width * height];
+		int color = colors[0];
+		for (int i=0; i<pixels.length; i++)
+		{
+			if (random.nextInt(3) == 0)
+			{
+				color = colors[random.nextInt(colors.length)];
+			}
+			pixels[i] = color;
+		}
+		return new PixelImage(width, height, pixels);
+	}
+
+	/**
+	 * Makes a palette that cycles the first colors of a parent image (color i becomes color i+1),
+	 * so transforming the same image in place over and over does the same amount of work every time.
+	 * Palettes bigger than the parent's colors are padded with colors that aren't in the parent.
+	 * @param colors The parent image's colors
+	 * @param size How many entries the palette should have
+	 * @return A palette in autotexture json format
+	 */
+	public static Map<String,String> makePalette(int[] colors, int size)
+	{
+		Map<String,String> palette = new LinkedHashMap<>();
+		int cycleSize = Math.min(size, colors.length);
+		for (int i=0; i<cycleSize; i++)
+		{
+			palette.put(toHex(colors[i]), toHex(colors[(i+1) % cycleSize]));
+		}
+		int[] extraColors = makeColors(size, ~size);
+		for (int i=0; palette.size() < size; i++)
+		{
+			palette.putIfAbsent(toHex(extraColors[i]), toHex(extraColors[i]));
+		}
+		return palette;
+	}
+
+	/**
+	 * @param color A color in ABGR format
+	 * @return The color in RRGGBBAA hex format
+	 */
+	public static String toHex(int color)
+	{
+		return String.format("%08X", PaletteOverride.flipRGBA(color));
+	}
+
+	public static PaletteOverride makeOverride(Map<String,String> palette)
+	{
+		return makeOverride(palette, 0);
+	}
+
+	public static PaletteOverride makeOverride(Map<String,String> palette, int tolerance)
+	{
+		return new PaletteOverride(PaletteOverride.DEFAULT_PACKS, false, new ResourceLocation("minecraft", "block/stone"),
+			PaletteOverride.makePaletteMap(palette).result().orElseThrow(), tolerance, List.of());
+	}
+
+	public static JsonObject makeOverrideJson(String pack, ResourceLocation parent, Map<String,String> palette)
+	{
+		JsonObject json = new JsonObject();
+		json.addProperty("pack", pack);
+		json.addProperty("parent", parent.toString());
+		JsonObject paletteJson = new JsonObject();
+		palette.forEach(paletteJson::addProperty);
+		json.add("palette", paletteJson);
+		return json;
+	}
+}
@@ -0,0 +1,155 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.FolderPackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.repository.Pack;
+import net.minecraft.server.packs.repository.PackCompatibility;
+import net.minecraft.server.packs.repository.PackSource;
+import net.minecraft.server.packs.resources.MultiPackResourceManager;
+import net.minecraft.util.profiling.InactiveProfiler;
+
+/**
+ * Measures a whole reload's worth of texture generation, from reading autotexture jsons to encoded textures,
+ * against a folder pack full of synthetic parent textures and overrides.
+ * Doesn't need a running game.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GenerationBenchmark
+{
+	public static final int PARENTS = 64;
+	// every Nth parent is an animated strip instead of a single frame
+	public static final int ANIMATED_PARENT_INTERVAL = 8;
+	public static final int FRAMES = 16;
+	public static final int PALETTE_SIZE = 8;
+
+	@Param({"1000", "4000"})
+	public int overrides;
+
+	@Param({"true", "false"})
+	public boolean parallel;
+
+	// whether parent textures are read from the pack folder with NIO, or through the pack's input streams
+	@Param({"true", "false"})
+	public boolean nioReads;
+
+	private Path packFolder;
+	// the pack looks like it's in a resourcepacks folder, so it can be read with NIO
+	private String packID;
+	private MultiPackResourceManager manager;
+	private Map<String,Pack> selectedPacks;
+	private ForkJoinPool executor;
+	private AutopalettePack pack;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		this.packFolder = Files.createTempDirectory("autopalette_benchmark");
+		this.packID = PackHandles.FILE_PACK_PREFIX + this.packFolder.getFileName();
+		Files.writeString(this.packFolder.resolve("pack.mcmeta"), "{\"pack\":{\"pack_format\":9,\"description\":\"autopalette benchmark\"}}");
+
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		Path textureFolder = this.packFolder.resolve("assets/minecraft/textures/block");
+		Files.createDirectories(textureFolder);
+		for (int i=0; i<PARENTS; i++)
+		{
+			boolean animated = i % ANIMATED_PARENT_INTERVAL == 0;
+			Path texture = textureFolder.resolve("parent_" + i + ".png");
+			try (NativeImage image = BenchmarkData.makeImage(16, animated ? 16*FRAMES : 16, colors, i).toNativeImage())
+			{
+				Files.write(texture, image.asByteArray());
+			}
+			if (animated)
+			{
+				Files.writeString(textureFolder.resolve("parent_" + i + ".png.mcmeta"), "{\"animation\":{\"frametime\":2}}");
+			}
+		}
+
+		Path overrideFolder = this.packFolder.resolve("assets/autopalette/" + AutopalettePack.DIRECTORY + "/bench");
+		Files.createDirectories(overrideFolder);
+		for (int i=0; i<this.overrides; i++)
+		{
+			// rotate the parent's colors so overrides of the same parent get different palettes
+			int[] rotatedColors = new int[colors.length];
+			for (int c=0; c<colors.length; c++)
+			{
+				rotatedColors[c] = colors[(c + i) % colors.length];
+			}
+			ResourceLocation parent = new ResourceLocation("minecraft", "block/parent_" + (i % PARENTS));
+			Files.writeString(overrideFolder.resolve("override_" + i + ".json"),
+				BenchmarkData.makeOverrideJson(this.packID, parent, BenchmarkData.makePalette(rotatedColors, PALETTE_SIZE)).toString(),
+				StandardCharsets.UTF_8);
+		}
+
+		Pack info = new Pack(
+			this.packID,
+			false,
+			() -> new FolderPackResources(this.packFolder.toFile()),
+			Component.literal(this.packID),
+			Component.literal("autopalette benchmark"),
+			PackCompatibility.COMPATIBLE,
+			Pack.Position.TOP,
+			false,
+			PackSource.DEFAULT,
+			false);
+		this.selectedPacks = Map.of(this.packID, info);
+		this.manager = new MultiPackResourceManager(PackType.CLIENT_RESOURCES, List.of(new FolderPackResources(this.packFolder.toFile())));
+		this.executor = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		this.pack = new AutopalettePack();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		this.manager.close();
+		this.executor.shutdown();
+		try (Stream<Path> paths = Files.walk(this.packFolder))
+		{
+			for (Path path : paths.sorted(Comparator.reverseOrder()).toList())
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public ResourceSnapshot generate()
+	{
+		// no disk cache, no override index, and no previous overrides, so every texture is generated from scratch
+		GenerationContext context = new GenerationContext(this.selectedPacks, Map.of(), new ResourceStore(PngEncoder.Mode.VANILLA), null, Map.of(), OverrideIndex.inMemory(),
+			new GenerationMetrics(0, null), new MemoryBudget(0L), RowBands.DEFAULT_SPLIT_THRESHOLD, this.nioReads ? this.packFolder.getParent() : null);
+		return this.pack.gatherTextureData(this.manager, InactiveProfiler.INSTANCE, context, this.executor, this.parallel).join();
+	}
+}
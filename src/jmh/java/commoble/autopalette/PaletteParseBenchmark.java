@@ -0,0 +1,89 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.JsonOps;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Measures parsing autotexture jsons into palette overrides, and loading the same overrides from the override index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteParseBenchmark
+{
+	@Param({"1", "16", "256"})
+	public int paletteSize;
+
+	private Map<String,String> palette;
+	private JsonObject json;
+	private Int2IntMap paletteMap;
+	private byte[] index;
+
+	@Setup
+	public void setup()
+	{
+		int[] colors = BenchmarkData.makeColors(this.paletteSize, 0L);
+		this.palette = BenchmarkData.makePalette(colors, this.paletteSize);
+		this.json = BenchmarkData.makeOverrideJson("vanilla", new ResourceLocation("minecraft", "block/stone"), this.palette);
+		this.paletteMap = PaletteOverride.makePaletteMap(this.palette).result().orElseThrow();
+		PaletteOverride override = PaletteOverride.CODEC.parse(JsonOps.INSTANCE, this.json).result().orElseThrow();
+		try
+		{
+			this.index = OverrideIndex.write(Map.of(OverrideIndex.hashJson(this.json.toString().getBytes(StandardCharsets.UTF_8)), override));
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Benchmark
+	public DataResult<Int2IntMap> makePaletteMap()
+	{
+		return PaletteOverride.makePaletteMap(this.palette);
+	}
+
+	@Benchmark
+	public DataResult<PaletteOverride> parseCodec()
+	{
+		return PaletteOverride.CODEC.parse(JsonOps.INSTANCE, this.json);
+	}
+
+	@Benchmark
+	public Map<String, PaletteOverride> readIndex() throws IOException
+	{
+		// an index with one override, to compare against parsing one json
+		return OverrideIndex.read(ByteBuffer.wrap(this.index));
+	}
+
+	@Benchmark
+	public CompiledPalette compilePalette()
+	{
+		return CompiledPalette.compile(this.paletteMap);
+	}
+}
@@ -0,0 +1,74 @@
+package commoble.autopalette;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+/**
+ * Measures applying palette overrides to images of various sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteTransformBenchmark
+{
+	// the tall sizes are animated strips of square frames
+	@Param({"16x16", "64x64", "256x256", "1024x1024", "16x512", "64x2048"})
+	public String size;
+
+	@Param({"1", "8", "40", "256"})
+	public int paletteSize;
+
+	// with a tolerance, colors that aren't palette keys are matched to the nearest key
+	@Param({"0", "32"})
+	public int tolerance;
+
+	private PaletteOverride override;
+	private PixelImage image;
+	private NativeImage nativeImage;
+
+	@Setup
+	public void setup()
+	{
+		int[] size = BenchmarkData.parseSize(this.size);
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		this.image = BenchmarkData.makeImage(size[0], size[1], colors, 1L);
+		this.nativeImage = this.image.toNativeImage();
+		this.override = BenchmarkData.makeOverride(BenchmarkData.makePalette(colors, this.paletteSize), this.tolerance);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this.nativeImage.close();
+	}
+
+	@Benchmark
+	public PixelImage transformPixelImage()
+	{
+		return this.override.transformImage(this.image);
+	}
+
+	@Benchmark
+	public NativeImage transformNativeImageInPlace()
+	{
+		// the palette cycles the parent's colors, so every run changes the same pixels
+		return this.override.transformImage(this.nativeImage);
+	}
+}
@@ -0,0 +1,57 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding generated textures as pngs with each encoder mode, and at the disk cache's compression level
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PngEncodeBenchmark
+{
+	@Param({"16x16", "256x256", "16x512"})
+	public String size;
+
+	@Param({"VANILLA", "FAST", "STORED"})
+	public PngEncoder.Mode mode;
+
+	private PixelImage image;
+
+	@Setup
+	public void setup()
+	{
+		int[] size = BenchmarkData.parseSize(this.size);
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		this.image = BenchmarkData.makeImage(size[0], size[1], colors, 1L);
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException
+	{
+		return PngEncoder.encode(this.image, this.mode);
+	}
+
+	@Benchmark
+	public byte[] encodeForDiskCache()
+	{
+		// the same for every mode, as a baseline for what the disk cache pays on a miss
+		return PngEncoder.encode(this.image, 9);
+	}
+}
@@ -0,0 +1,77 @@
+package commoble.autopalette;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackType;
+
+/**
+ * Compares serving generated textures from the virtual pack's encoded bytes
+ * against encoding the image again on every request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceServingBenchmark
+{
+	public static final ResourceLocation TEXTURE_ID = new ResourceLocation("autopalette", "textures/block/benchmark.png");
+
+	@Param({"16x16", "256x256", "16x512"})
+	public String size;
+
+	private AutopalettePack pack;
+	private NativeImage nativeImage;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		int[] size = BenchmarkData.parseSize(this.size);
+		int[] colors = BenchmarkData.makeColors(BenchmarkData.PARENT_COLORS, 0L);
+		PixelImage image = BenchmarkData.makeImage(size[0], size[1], colors, 1L);
+		this.nativeImage = image.toNativeImage();
+		ResourceStore store = new ResourceStore(PngEncoder.Mode.VANILLA);
+		store.put(TEXTURE_ID, PngEncoder.encode(image, PngEncoder.Mode.VANILLA));
+		this.pack = new AutopalettePack();
+		this.pack.setResources(store.snapshot());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this.nativeImage.close();
+	}
+
+	@Benchmark
+	public InputStream getCachedResource() throws IOException
+	{
+		return this.pack.getResource(PackType.CLIENT_RESOURCES, TEXTURE_ID);
+	}
+
+	@Benchmark
+	public InputStream getReencodedResource() throws IOException
+	{
+		// what the pack used to do on every request
+		return new ByteArrayInputStream(this.nativeImage.asByteArray());
+	}
+}
@@ -1,18 +1,23 @@
 package commoble.autopalette;
 
+import java.nio.file.Path;
+
 import net.minecraft.client.Minecraft;
+import net.minecraft.data.DataGenerator;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.packs.repository.Pack;
 import net.minecraft.server.packs.repository.PackCompatibility;
 import net.minecraft.server.packs.repository.PackSource;
 import net.minecraft.server.packs.resources.ReloadableResourceManager;
 import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.data.event.GatherDataEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.IExtensionPoint;
 import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 import net.minecraftforge.fml.common.Mod.EventBusSubscriber.Bus;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.event.lifecycle.FMLConstructModEvent;
 
 @Mod(Autopalette.MODID)
@@ -26,6 +31,9 @@ public class Autopalette
 		ModLoadingContext modLoader = ModLoadingContext.get();
 		modLoader.registerExtensionPoint(IExtensionPoint.DisplayTest.class,
 			() -> new IExtensionPoint.DisplayTest(() -> "ANY", (remote, isServer) -> true));
+		
+		// client configs don't get loaded on servers, so this is safe to register on both sides
+		modLoader.registerConfig(ModConfig.Type.CLIENT, AutopaletteConfig.SPEC);
 	}
 
 	// we need to use EBS/SubscribeEvent to enqueue mainthread work to the mod construct event
@@ -47,10 +55,18 @@ public class Autopalette
 		{
 			Minecraft minecraft = Minecraft.getInstance();
 			
+			// the resource manager asks which namespaces our pack has before we've generated anything, so we remember them between sessions
+			VIRTUAL_PACK.loadNamespaceIndex(minecraft.gameDirectory.toPath()
+				.resolve(AutopalettePack.CACHE_DIRECTORY)
+				.resolve(AutopalettePack.NAMESPACE_INDEX_FILE));
+			VIRTUAL_PACK.loadOverrideIndex(minecraft.gameDirectory.toPath()
+				.resolve(AutopalettePack.CACHE_DIRECTORY)
+				.resolve(AutopalettePack.OVERRIDE_INDEX_FILE));
+			
 			// register our fake resource pack
 			minecraft.getResourcePackRepository().addPackFinder((infoConsumer, packFactory) ->
 				infoConsumer.accept(new Pack(
-					"autopalette_textures",	// id
+					AutopalettePack.PACK_ID,	// id
 					true,	// required -- this MAY need to be true for the pack to be enabled by default
 					() -> VIRTUAL_PACK, // pack supplier
 					Component.translatable("autopalette.pack_title"), // title
@@ -68,4 +84,24 @@ public class Autopalette
 			
 		}
 	}
+	
+	// only fires in data runs, which bake autotextures into a regular resource pack
+	@EventBusSubscriber(modid=Autopalette.MODID, bus=Bus.MOD)
+	public static class DataGenProxy
+	{
+		// a folder of resource packs to read parent textures from, in addition to vanilla's and mods' assets
+		public static final String SOURCE_PACKS_PROPERTY = "autopalette.source_packs";
+		
+		@SubscribeEvent
+		public static void onGatherData(GatherDataEvent event)
+		{
+			DataGenerator generator = event.getGenerator();
+			String sourcePacks = System.getProperty(SOURCE_PACKS_PROPERTY);
+			generator.addProvider(event.includeClient(), new AutotextureProvider(
+				generator,
+				generator.getInputFolders(),
+				sourcePacks == null ? null : Path.of(sourcePacks),
+				event.getExistingFileHelper()));
+		}
+	}
 }
@@ -0,0 +1,104 @@
+package commoble.autopalette;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+import net.minecraftforge.common.ForgeConfigSpec.BooleanValue;
+import net.minecraftforge.common.ForgeConfigSpec.EnumValue;
+import net.minecraftforge.common.ForgeConfigSpec.IntValue;
+
+public class AutopaletteConfig
+{
+	public static final ForgeConfigSpec SPEC;
+	public static final AutopaletteConfig INSTANCE;
+	static
+	{
+		Pair<AutopaletteConfig, ForgeConfigSpec> pair = new ForgeConfigSpec.Builder().configure(AutopaletteConfig::new);
+		INSTANCE = pair.getLeft();
+		SPEC = pair.getRight();
+	}
+
+	public final BooleanValue parallelGeneration;
+	public final IntValue memoryBudgetMegabytes;
+	public final BooleanValue lazyGeneration;
+	public final IntValue parallelTransformThreshold;
+	public final EnumValue<PngEncoder.Mode> pngEncoder;
+	public final BooleanValue diskCache;
+	public final IntValue diskCacheMaxMegabytes;
+	public final IntValue diskCacheCompressionLevel;
+	public final BooleanValue overrideIndex;
+	public final IntValue slowestOverrides;
+	public final BooleanValue writeReport;
+	public final BooleanValue hotReload;
+	public final IntValue hotReloadDebounceMillis;
+
+	public AutopaletteConfig(ForgeConfigSpec.Builder builder)
+	{
+		builder.push("generation");
+		this.parallelGeneration = builder
+			.comment("If true, autotextures are generated in parallel across the resource reload worker threads.",
+				"If false, autotextures are generated one at a time on a single worker thread.",
+				"Generation phases only show up as sections in vanilla's resource reload profiler when this is false.")
+			.define("parallel_generation", true);
+		this.memoryBudgetMegabytes = builder
+			.comment("The most memory that autotextures being decoded, transformed, and encoded can take up at once, in megabytes.",
+				"Autotextures wait for others to finish when this is used up. The files of parent textures read so far count towards this too. 0 for no limit.")
+			.defineInRange("memory_budget_megabytes", 256, 0, 65536);
+		this.lazyGeneration = builder
+			.comment("If true, reloads only find which autotextures exist, and each autotexture is generated the first time something asks for it.",
+				"Saves time and memory when resource packs have many autotextures that nothing uses.",
+				"Autotextures with broken jsons or missing parent textures show up as missing textures instead of being left out of the pack.")
+			.define("lazy_generation", false);
+		this.parallelTransformThreshold = builder
+			.comment("Textures with at least this many pixels are split into bands of rows that are transformed in parallel.",
+				"Animated textures are split between their frames. 0 to never split textures.")
+			.defineInRange("parallel_transform_threshold", RowBands.DEFAULT_SPLIT_THRESHOLD, 0, Integer.MAX_VALUE);
+		this.pngEncoder = builder
+			.comment("How generated autotextures are encoded as pngs for the virtual resource pack.",
+				"VANILLA uses the same encoder as vanilla screenshots. FAST uses the fastest compression level,",
+				"and STORED doesn't compress at all; both are faster to encode but use more memory until the textures are stitched.")
+			.defineEnum("png_encoder", PngEncoder.Mode.VANILLA);
+		builder.pop();
+		
+		builder.push("cache");
+		this.diskCache = builder
+			.comment("If true, generated autotextures are saved in the autopalette_cache folder in the game directory",
+				"and reused on later reloads if their autotexture json and parent texture haven't changed.")
+			.define("disk_cache", true);
+		this.diskCacheMaxMegabytes = builder
+			.comment("The maximum size of the autotexture disk cache, in megabytes.",
+				"The least recently used textures are removed from the cache when it grows beyond this size.")
+			.defineInRange("disk_cache_max_megabytes", 256, 0, 65536);
+		this.diskCacheCompressionLevel = builder
+			.comment("The compression level, from 0 to 9, that autotextures are encoded with before they're saved in the disk cache",
+				"when png_encoder is FAST or STORED. Cache entries are read on every later reload, so they're worth compressing more.")
+			.defineInRange("disk_cache_compression_level", 9, 0, 9);
+		this.overrideIndex = builder
+			.comment("If true, autotexture jsons are saved in a compact binary index in the autopalette_cache folder after they're parsed,",
+				"and later reloads load unchanged jsons from the index instead of parsing them again.")
+			.define("override_index", true);
+		builder.pop();
+		
+		builder.push("profiling");
+		this.slowestOverrides = builder
+			.comment("How many of the slowest autotextures to list in the log and the generation report after each reload.")
+			.defineInRange("slowest_overrides", 5, 0, 1000);
+		this.writeReport = builder
+			.comment("If true, a json report of how long each phase of autotexture generation took, and which autotextures were slowest,",
+				"is written to debug/autopalette_generation.json in the game directory after each reload.")
+			.define("write_report", false);
+		builder.pop();
+		
+		builder.push("development");
+		this.hotReload = builder
+			.comment("If true, folder resource packs in the resourcepacks folder are watched for changes to autotexture jsons and textures,",
+				"and the autotextures that use them are regenerated and uploaded again without reloading every resource.",
+				"Meant for making resource packs. New and removed autotextures, animated autotextures, and autotextures whose size changes",
+				"still need resources to be reloaded. Doesn't work with lazy_generation. Takes effect after resources are reloaded.")
+			.define("hot_reload", false);
+		this.hotReloadDebounceMillis = builder
+			.comment("How long, in milliseconds, watched files must stop changing for before the autotextures that use them are regenerated.")
+			.defineInRange("hot_reload_debounce_ms", 250, 0, 10000);
+		builder.pop();
+	}
+}
@@ -1,42 +1,57 @@
 package commoble.autopalette;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.mojang.blaze3d.platform.NativeImage;
-import com.mojang.datafixers.util.Pair;
+import com.google.gson.JsonParseException;
+import com.mojang.serialization.DataResult;
 import com.mojang.serialization.JsonOps;
 
+import commoble.autopalette.ParentTextureCache.ParentTexture;
+
+import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.AbstractPackResources;
-import net.minecraft.server.packs.PackResources;
 import net.minecraft.server.packs.PackType;
 import net.minecraft.server.packs.ResourcePackFileNotFoundException;
 import net.minecraft.server.packs.metadata.MetadataSectionSerializer;
@@ -45,8 +60,8 @@ import net.minecraft.server.packs.metadata.pack.PackMetadataSectionSerializer;
 import net.minecraft.server.packs.repository.Pack;
 import net.minecraft.server.packs.repository.PackRepository;
 import net.minecraft.server.packs.resources.PreparableReloadListener;
+import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
-import net.minecraft.server.packs.resources.SimpleJsonResourceReloadListener;
 import net.minecraft.util.GsonHelper;
 import net.minecraft.util.profiling.ProfilerFiller;
 
@@ -54,21 +69,35 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 {
 	public static final Logger LOGGER = LogManager.getLogger();
 	public static final Gson GSON = new Gson();
+	// the ID of the pack that serves our generated textures
+	public static final String PACK_ID = "autopalette_textures";
 	public static final String DIRECTORY = "autotextures";
+	public static final String JSON_EXTENSION = ".json";
 	public static final String TEXTURE_DIRECTORY = "textures/";
+	public static final String CACHE_DIRECTORY = "autopalette_cache";
+	public static final String NAMESPACE_INDEX_FILE = "namespaces.json";
+	public static final String OVERRIDE_INDEX_FILE = "overrides.bin";
+	public static final String REPORT_FILE = "debug/autopalette_generation.json";
 	public static final Set<String> NAMESPACES = ImmutableSet.of(Autopalette.MODID);
 	public static final List<ResourceLocation> NO_RESOURCES = Collections.emptyList();
-	// reuse a JRL to parse jsons, hehehe
-	public static final SimpleJsonResourceReloadListener JSON_HELPER = new SimpleJsonResourceReloadListener(GSON, DIRECTORY)
-	{
-		// noop, we just use the JRL to prepare jsonelements for us
-		@Override
-		protected void apply(Map<ResourceLocation, JsonElement> jsons, ResourceManager manager, ProfilerFiller profiler)
-		{}
-	};
+	public static final long MEGABYTE = 1024L * 1024L;
+	// big enough that each extra override in a batch is nearly free, small enough that a parent with many overrides still spreads across threads
+	public static final int MAX_BATCH_SIZE = 16;
 	
 	private final PackMetadataSection packInfo;
-	private Map<ResourceLocation, Callable<InputStream>> resources = new HashMap<>();
+	// the most recent reload's resources, which are swapped out whole when a reload starts
+	private final AtomicReference<PublishedResources> published = new AtomicReference<>(new PublishedResources(0L, CompletableFuture.completedFuture(ResourceSnapshot.EMPTY)));
+	// the overrides generated by the most recent reload, so the next reload can reuse textures whose inputs haven't changed
+	private volatile Map<ResourceLocation, GeneratedOverride> generatedOverrides = Collections.emptyMap();
+	// the namespaces of the textures generated by the most recent reload
+	private volatile Set<String> namespaces = NAMESPACES;
+	private @Nullable Path namespaceIndexFile = null;
+	// the overrides parsed by the most recent reload, so later reloads (and game sessions) don't have to parse unchanged jsons again
+	private volatile OverrideIndex overrideIndex = OverrideIndex.inMemory();
+	// the packs that the most recent reload generated textures from, which hot reloads generate textures from too
+	private volatile ReloadPacks reloadPacks = new ReloadPacks(Collections.emptyMap(), Collections.emptyMap());
+	// watches folder packs for changes in development mode, or null if hot reloading is off
+	private @Nullable AutotextureWatcher watcher = null;
 
 	public AutopalettePack()
 	{
@@ -84,58 +113,875 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 		Executor workerExecutor, Executor mainExecutor)
 	{
 		// we need to ensure generated textures are ready before the texture stitchers load them
-		// unfortunately, the texture stitchers run during the worker thread phase
-		// so we need to generate our textures on the main thread, before the worker phase starts
-		// (we are here)
+		// unfortunately, the texture stitchers run during the worker thread phase, alongside our own generation
+		// so we generate our textures on the worker threads and publish a future for them;
+		// hasResource and getResource wait for that future, so anything that asks for our textures early
+		// will block until the full set of textures is ready
 
-		this.gatherTextureData(manager, mainProfiler);
+		// the pack repository isn't threadsafe, so we need to look up the available packs here on the main thread
+		// get all available packs (even unselected ones)
+		long startTime = System.nanoTime();
+		Minecraft minecraft = Minecraft.getInstance();
+		PackRepository packList = minecraft.getResourcePackRepository();
+		// the selected packs stay in order, so overrides can find the highest selected pack with their parent texture
+		Map<String, Pack> selectedPacks = packList.getSelectedPacks()
+			.stream()
+			.collect(Collectors.toMap(Pack::getId, info->info, (first, second) -> first, LinkedHashMap::new));
+		Map<String, Pack> unselectedPacks = packList
+			.getAvailablePacks()
+			.stream()
+			.filter(info -> !selectedPacks.containsKey(info.getId()))
+			.collect(Collectors.toMap(Pack::getId, info->info));
+		AutopaletteConfig config = AutopaletteConfig.INSTANCE;
+		boolean parallel = config.parallelGeneration.get();
+		boolean lazy = config.lazyGeneration.get();
+		OverrideIndex overrideIndex = OverrideIndex.inMemory();
+		if (config.overrideIndex.get())
+		{
+			overrideIndex = this.overrideIndex.next();
+			this.overrideIndex = overrideIndex;
+		}
+		GenerationContext context = new GenerationContext(selectedPacks, unselectedPacks, new ResourceStore(config.pngEncoder.get()), makeTextureCache(minecraft), this.generatedOverrides,
+			overrideIndex, makeMetrics(minecraft), new MemoryBudget(config.memoryBudgetMegabytes.get() * MEGABYTE), config.parallelTransformThreshold.get(),
+			minecraft.getResourcePackDirectory().toPath());
+		
+		CompletableFuture<? extends GeneratedResources> generation = lazy
+			? this.indexTextureData(manager, workerProfiler, context, workerExecutor)
+			: this.gatherTextureData(manager, workerProfiler, context, workerExecutor, parallel);
+		// readers see either the previous reload's resources or this one's, never a mix of both
+		PublishedResources previous = this.published.getAndUpdate(published -> new PublishedResources(published.version() + 1L, generation));
 		
 			// prepare = worker thread stuff
-		return CompletableFuture.supplyAsync(() -> null, workerExecutor)
+		return generation
 			// wait for off-thread phase to conclude
 			.thenCompose(stage::wait)
 			// then do stuff on main thread again
-			.thenAcceptAsync((noResult) -> {}, mainExecutor);
+			.thenAcceptAsync(resources ->
+			{
+				// nothing new asks the previous reload's resources for textures anymore, so lazy ones can let go of their packs
+				// once anything still generating a texture from them has finished
+				previous.resources().thenAccept(previousResources ->
+				{
+					if (previousResources instanceof LazyResources lazyResources)
+					{
+						lazyResources.close();
+					}
+				});
+				// the texture stitchers have all finished by now, so we know which textures they asked for
+				if (resources instanceof LazyResources lazyResources)
+				{
+					reportLazyGeneration(lazyResources, System.nanoTime() - startTime);
+				}
+				this.updateNamespaces(resources.getNamespaces());
+				this.reloadPacks = new ReloadPacks(selectedPacks, unselectedPacks);
+				this.updateWatcher(minecraft, List.copyOf(packList.getAvailablePacks()), lazy);
+			}, mainExecutor);
 	}
 	
 	// resource loading helpers
 	
-	protected void gatherTextureData(ResourceManager manager, ProfilerFiller profiler)
+	/**
+	 * Loads the namespaces that the last reload generated textures in, which may have been in a previous game session,
+	 * so that the resource manager knows to look for our textures in them before the next reload has generated anything
+	 * @param file The namespace index file, which the namespaces of future reloads are saved to as well
+	 */
+	public void loadNamespaceIndex(Path file)
 	{
-		LOGGER.info("Starting autopalette texture generation");
-		// get all available packs (even unselected ones)
+		this.namespaceIndexFile = file;
+		if (!Files.isRegularFile(file))
+		{
+			return;
+		}
+		try (Reader reader = Files.newBufferedReader(file))
+		{
+			Set<String> namespaces = new HashSet<>(NAMESPACES);
+			JsonArray namespaceArray = GsonHelper.fromJson(GSON, reader, JsonArray.class);
+			if (namespaceArray != null)
+			{
+				namespaceArray.forEach(namespace -> namespaces.add(namespace.getAsString()));
+			}
+			namespaces.removeIf(namespace -> !ResourceLocation.isValidNamespace(namespace));
+			this.namespaces = ImmutableSet.copyOf(namespaces);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			LOGGER.error("Failed to read autopalette namespace index {}, autotextures outside the autopalette namespace may not be found until resources are reloaded", file);
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Sets the file that overrides parsed by reloads are saved to, so the first reload of the next game session can skip parsing them.
+	 * The file isn't read until the first reload needs it.
+	 * @param file The override index file
+	 */
+	public void loadOverrideIndex(Path file)
+	{
+		this.overrideIndex = OverrideIndex.load(file);
+	}
+	
+	protected void updateNamespaces(Set<String> textureNamespaces)
+	{
+		Set<String> namespaces = ImmutableSet.<String>builder().addAll(NAMESPACES).addAll(textureNamespaces).build();
+		Set<String> oldNamespaces = this.namespaces;
+		if (namespaces.equals(oldNamespaces))
+		{
+			return;
+		}
+		// the resource manager asked for our namespaces before we knew about these ones, so it won't look for textures in them until the next reload
+		Set<String> newNamespaces = Sets.difference(namespaces, oldNamespaces);
+		if (!newNamespaces.isEmpty())
+		{
+			LOGGER.warn("Autotextures were generated in new namespaces {}, they will be available after resources are reloaded again", newNamespaces);
+		}
+		this.namespaces = namespaces;
+		if (this.namespaceIndexFile != null)
+		{
+			try
+			{
+				Files.createDirectories(this.namespaceIndexFile.getParent());
+				try (Writer writer = Files.newBufferedWriter(this.namespaceIndexFile))
+				{
+					JsonArray namespaceArray = new JsonArray();
+					namespaces.forEach(namespaceArray::add);
+					GSON.toJson(namespaceArray, writer);
+				}
+			}
+			catch (IOException e)
+			{
+				LOGGER.error("Failed to save autopalette namespace index {}", this.namespaceIndexFile);
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	protected static @Nullable TextureCache makeTextureCache(Minecraft minecraft)
+	{
+		AutopaletteConfig config = AutopaletteConfig.INSTANCE;
+		if (!config.diskCache.get())
+		{
+			return null;
+		}
+		Path directory = minecraft.gameDirectory.toPath().resolve(CACHE_DIRECTORY);
+		try
+		{
+			return new TextureCache(directory, config.diskCacheMaxMegabytes.get() * MEGABYTE, config.diskCacheCompressionLevel.get());
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Failed to create autopalette texture cache at {}, generated textures will not be cached", directory);
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	protected static GenerationMetrics makeMetrics(Minecraft minecraft)
+	{
+		AutopaletteConfig config = AutopaletteConfig.INSTANCE;
+		Path reportFile = config.writeReport.get()
+			? minecraft.gameDirectory.toPath().resolve(REPORT_FILE)
+			: null;
+		return new GenerationMetrics(config.slowestOverrides.get(), reportFile);
+	}
+	
+	/**
+	 * Starts watching the folder packs in the resourcepacks folder for changes if hot reloading is on, and stops watching the old ones
+	 * @param minecraft The minecraft instance
+	 * @param availablePacks Every available pack, selected or not
+	 * @param lazy Whether autotextures were generated lazily by the most recent reload
+	 */
+	protected void updateWatcher(Minecraft minecraft, Collection<Pack> availablePacks, boolean lazy)
+	{
+		// packs may have been added or removed since the last reload, so we start over with the current ones
+		if (this.watcher != null)
+		{
+			this.watcher.close();
+			this.watcher = null;
+		}
+		AutopaletteConfig config = AutopaletteConfig.INSTANCE;
+		if (!config.hotReload.get())
+		{
+			return;
+		}
+		if (lazy)
+		{
+			LOGGER.warn("Autotexture hot reloading doesn't work with lazy_generation, autotextures will only be generated again when resources are reloaded");
+			return;
+		}
+		Path resourcePackDirectory = minecraft.getResourcePackDirectory().toPath();
+		List<Path> packFolders = availablePacks.stream()
+			.map(Pack::getId)
+			.filter(id -> id.startsWith(PackHandles.FILE_PACK_PREFIX))
+			.map(id -> resourcePackDirectory.resolve(id.substring(PackHandles.FILE_PACK_PREFIX.length())).normalize())
+			.filter(path -> resourcePackDirectory.equals(path.getParent()) && Files.isDirectory(path))
+			.toList();
+		try
+		{
+			this.watcher = AutotextureWatcher.start(packFolders, config.hotReloadDebounceMillis.get(), this::hotReload);
+			LOGGER.info("Watching {} folders in {} folder resource packs for autotexture changes", this.watcher.getFolderCount(), packFolders.size());
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Failed to watch folder resource packs for autotexture changes, autotextures will only be generated again when resources are reloaded");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Generates the autotextures affected by changed files again, publishes them in place of their old textures,
+	 * and uploads them to the textures that are already using them, all without reloading any other resources.
+	 * Called on the watcher's thread.
+	 * @param changedFiles The changed autotexture jsons and textures, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * or minecraft:textures/block/cobblestone.png
+	 */
+	protected void hotReload(Set<ResourceLocation> changedFiles)
+	{
+		long startTime = System.nanoTime();
+		PublishedResources published = this.published.get();
+		// if a reload is generating textures right now, it'll see the changed files anyway
+		if (!(published.resources().getNow(null) instanceof ResourceSnapshot snapshot))
+		{
+			return;
+		}
+		Map<ResourceLocation, GeneratedOverride> previousOverrides = this.generatedOverrides;
+		Set<ResourceLocation> overrideIDs = findChangedOverrides(changedFiles, previousOverrides);
+		if (overrideIDs.isEmpty())
+		{
+			return;
+		}
+		
+		// unchanged overrides are reused from the previous reload, so only the ones whose inputs really changed are transformed
+		// hot reloaded textures aren't saved in the disk cache or the override index, the next reload saves them
 		Minecraft minecraft = Minecraft.getInstance();
-		PackRepository packList = minecraft.getResourcePackRepository();
-		Map<String, Pack> selectedPacks = packList.getSelectedPacks()
-			.stream()
-			.collect(Collectors.toMap(Pack::getId, info->info));
-		Map<String, Pack> unselectedPacks = minecraft.getResourcePackRepository()
-			.getAvailablePacks()
-			.stream()
-			.filter(info -> !selectedPacks.containsKey(info.getId()))
-			.collect(Collectors.toMap(Pack::getId, info->info));
+		AutopaletteConfig config = AutopaletteConfig.INSTANCE;
+		ReloadPacks packs = this.reloadPacks;
+		GenerationContext context = new GenerationContext(packs.selected(), packs.unselected(), new ResourceStore(config.pngEncoder.get()), null, previousOverrides,
+			OverrideIndex.inMemory(), new GenerationMetrics(0, null), new MemoryBudget(0L), config.parallelTransformThreshold.get(),
+			minecraft.getResourcePackDirectory().toPath());
+		ResourceManager manager = minecraft.getResourceManager();
+		try
+		{
+			List<QueuedTexture> queuedTextures = new ArrayList<>();
+			for (ResourceLocation overrideID : overrideIDs)
+			{
+				ResourceLocation file = makeOverrideFile(overrideID);
+				manager.getResource(file)
+					.flatMap(resource -> prepareTexture(file, resource, context))
+					.ifPresent(queuedTextures::add);
+			}
+			batchTextures(queuedTextures, context).forEach(batch -> generateTextures(batch, context, Util.backgroundExecutor()).join());
+		}
+		finally
+		{
+			context.getParentTextures().clear();
+			context.getPacks().close();
+		}
+		
+		// overrides whose jsons were removed or broken lose their textures, the same as they would in a reload
+		Map<ResourceLocation, GeneratedOverride> regeneratedOverrides = context.getGeneratedOverrides();
+		Set<ResourceLocation> replacedResources = new HashSet<>();
+		List<ResourceLocation> changedOverrides = new ArrayList<>();
+		List<ResourceLocation> removedOverrides = new ArrayList<>();
+		for (ResourceLocation overrideID : overrideIDs)
+		{
+			ResourceLocation textureID = makeTextureID(overrideID);
+			replacedResources.add(textureID);
+			replacedResources.add(getMetadataLocation(textureID));
+			GeneratedOverride regenerated = regeneratedOverrides.get(overrideID);
+			if (regenerated == null)
+			{
+				if (snapshot.contains(textureID))
+				{
+					removedOverrides.add(overrideID);
+				}
+			}
+			else if (!Arrays.equals(regenerated.texture().image(), snapshot.get(textureID)))
+			{
+				changedOverrides.add(overrideID);
+			}
+		}
+		ResourceSnapshot updatedSnapshot = snapshot.replace(replacedResources, context.getStore().snapshot());
+		Map<ResourceLocation, GeneratedOverride> updatedOverrides = new HashMap<>(previousOverrides);
+		updatedOverrides.keySet().removeAll(overrideIDs);
+		updatedOverrides.putAll(regeneratedOverrides);
 		
+		// a reload that started while we were generating has newer textures than ours
+		PublishedResources updated = new PublishedResources(published.version() + 1L, CompletableFuture.completedFuture(updatedSnapshot));
+		if (!this.published.compareAndSet(published, updated))
+		{
+			return;
+		}
+		this.generatedOverrides = updatedOverrides;
+		long generationNanos = System.nanoTime() - startTime;
+		minecraft.execute(() -> this.uploadHotReloadedTextures(minecraft, updated.version(), updatedSnapshot, changedOverrides, removedOverrides, generationNanos));
+	}
+	
+	/**
+	 * Uploads hot reloaded textures to the textures that are already using them. Called on the main thread.
+	 * @param minecraft The minecraft instance
+	 * @param version The version of the pack's resources that the textures were published in
+	 * @param resources The published resources
+	 * @param changedOverrides The IDs of the autotextures whose textures changed
+	 * @param removedOverrides The IDs of the autotextures that don't have textures anymore
+	 * @param generationNanos How long the textures took to generate
+	 */
+	protected void uploadHotReloadedTextures(Minecraft minecraft, long version, ResourceSnapshot resources,
+		List<ResourceLocation> changedOverrides, List<ResourceLocation> removedOverrides, long generationNanos)
+	{
+		// a reload that's started since then will stitch its own textures
+		if (this.getResourceVersion() != version)
+		{
+			return;
+		}
+		long startTime = System.nanoTime();
+		this.updateNamespaces(resources.getNamespaces());
+		List<ResourceLocation> needReload = new ArrayList<>(removedOverrides);
+		for (ResourceLocation overrideID : changedOverrides)
+		{
+			try
+			{
+				if (!TextureUploader.upload(minecraft, overrideID, resources.get(makeTextureID(overrideID))))
+				{
+					needReload.add(overrideID);
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				LOGGER.error("Failed to upload hot reloaded autotexture {}", overrideID);
+				e.printStackTrace();
+			}
+		}
+		LOGGER.info("Hot reloaded {} changed autotextures in {} ms, uploaded them in {} ms",
+			changedOverrides.size(), generationNanos / 1_000_000L, (System.nanoTime() - startTime) / 1_000_000L);
+		if (!needReload.isEmpty())
+		{
+			LOGGER.warn("Autotextures {} are new, removed, animated, or changed size, resources need to be reloaded for them to show up", needReload);
+		}
+	}
+	
+	/**
+	 * @param changedFiles Changed autotexture jsons and textures
+	 * @param previousOverrides The overrides generated by the most recent reload, keyed by autotexture json ID
+	 * @return The IDs of the autotextures whose jsons changed, or whose parent or mask textures changed
+	 */
+	public static Set<ResourceLocation> findChangedOverrides(Set<ResourceLocation> changedFiles, Map<ResourceLocation, GeneratedOverride> previousOverrides)
+	{
+		Set<ResourceLocation> overrideIDs = new HashSet<>();
+		Set<ResourceLocation> changedTextures = new HashSet<>();
+		for (ResourceLocation file : changedFiles)
+		{
+			if (file.getPath().startsWith(DIRECTORY + "/"))
+			{
+				overrideIDs.add(makeOverrideID(file));
+			}
+			else
+			{
+				changedTextures.add(file);
+			}
+		}
+		if (!changedTextures.isEmpty())
+		{
+			// a texture may have changed in a pack that the override doesn't read from, but then its inputs haven't changed and it's reused
+			previousOverrides.forEach((overrideID, generated) ->
+			{
+				PaletteOverride override = generated.override();
+				if (changedTextures.contains(makeTextureID(override.getParentTextureID()))
+					|| override.getMaskTextureIDs().stream().map(AutopalettePack::makeTextureID).anyMatch(changedTextures::contains))
+				{
+					overrideIDs.add(overrideID);
+				}
+			});
+		}
+		return overrideIDs;
+	}
+	
+	/**
+	 * Finds the autotexture jsons in resource packs, but doesn't read them yet
+	 * @param manager The resource manager to find jsons with
+	 * @param profiler The reload's worker profiler
+	 * @param metrics The metrics to time finding the jsons with
+	 * @param executor The executor to find the jsons on
+	 * @return A future of the autotexture jsons, keyed by file
+	 */
+	protected static CompletableFuture<Map<ResourceLocation, Resource>> listOverrideFiles(ResourceManager manager, ProfilerFiller profiler, GenerationMetrics metrics, Executor executor)
+	{
+		return CompletableFuture.supplyAsync(() ->
+		{
+			LOGGER.info("Starting autopalette texture generation");
+			// only one thread uses the profiler at a time here, so we can give it sections
+			metrics.setSectionProfiler(profiler);
+			try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.LIST_JSONS))
+			{
+				return manager.listResources(DIRECTORY, file -> file.getPath().endsWith(JSON_EXTENSION));
+			}
+			finally
+			{
+				metrics.setSectionProfiler(null);
+			}
+		}, executor);
+	}
+	
+	/**
+	 * Finds the autotexture jsons, but leaves generating their textures until something asks for them
+	 * @param manager The resource manager to find jsons with
+	 * @param profiler The reload's worker profiler
+	 * @param context The generation context, which lazy textures are generated with after the reload
+	 * @param executor The executor to find the jsons on
+	 * @return A future of the indexed autotextures
+	 */
+	protected CompletableFuture<LazyResources> indexTextureData(ResourceManager manager, ProfilerFiller profiler, GenerationContext context, Executor executor)
+	{
+		long startTime = System.nanoTime();
+		return listOverrideFiles(manager, profiler, context.getMetrics(), executor).thenApply(files ->
+		{
+			// lazily generated textures get added to this as they're generated, so the next reload can still reuse them
+			this.generatedOverrides = context.getGeneratedOverrides();
+			LOGGER.info("Indexed {} autotextures in {} ms, they will be generated when they're first requested", files.size(), (System.nanoTime() - startTime) / 1_000_000L);
+			return new LazyResources(context, files);
+		});
+	}
+	
+	/**
+	 * Reports how many lazy autotextures were generated during a reload
+	 * @param resources The reload's lazy resources
+	 * @param totalNanos How long the reload took, up to when its texture stitchers had finished
+	 */
+	protected static void reportLazyGeneration(LazyResources resources, long totalNanos)
+	{
+		GenerationMetrics metrics = resources.getContext().getMetrics();
+		LOGGER.info("Generated {} of {} lazy autotextures during the reload, {}% were never requested",
+			resources.getGeneratedCount(), resources.getTextureCount(), Math.round(resources.getUngeneratedFraction() * 1000D) / 10D);
+		LOGGER.info("Autopalette generation phases: {}", metrics.summarizePhases());
+		if (metrics.getSlowestOverrideCount() > 0)
+		{
+			LOGGER.info("Slowest autotextures: {}", metrics.summarizeSlowestOverrides());
+		}
+		if (metrics.getReportFile() != null)
+		{
+			JsonObject report = metrics.makeReport(totalNanos, "lazy");
+			report.addProperty("lazy_textures", resources.getTextureCount());
+			report.addProperty("lazy_textures_generated", resources.getGeneratedCount());
+			report.addProperty("lazy_textures_never_requested_fraction", resources.getUngeneratedFraction());
+			report.add("memory", resources.getContext().getMemoryBudget().toJson());
+			metrics.writeReport(report);
+		}
+		// autotextures can still be generated after the reload, so the override index is saved once the lazy resources are released
+	}
+	
+	protected CompletableFuture<ResourceSnapshot> gatherTextureData(ResourceManager manager, ProfilerFiller profiler, GenerationContext context, Executor executor, boolean parallel)
+	{
 		// for each palette override, we want to
 			// load the specified texture from the given available pack
 			// if that was successful, use the palette override to generate a new texture
-		Map<ResourceLocation, Callable<InputStream>> resourceStreams = new HashMap<>();
+		// every override is read and its parent found first, then overrides that share a parent are transformed together in batches,
+		// so the parent's pixels are only scanned once per batch instead of once per override
+		// each batch is transformed, encoded, and released on its own, so only the encoded textures stick around,
+		// and the memory budget limits how many batches are being decoded and transformed at once
+		long startTime = System.nanoTime();
+		GenerationMetrics metrics = context.getMetrics();
+		CompletableFuture<Map<ResourceLocation, Resource>> overrideFiles = listOverrideFiles(manager, profiler, metrics, executor);
 		
-		// parse raw jsons from resource packs
-		Map<ResourceLocation, JsonElement> rawJsons = JSON_HELPER.prepare(manager, profiler);
-		rawJsons.forEach((id,json) -> PaletteOverride.CODEC.parse(JsonOps.INSTANCE, json)
-			.resultOrPartial(LOGGER::error) // bad data -> log it
-			.flatMap(result -> generateImage(id,result,selectedPacks,unselectedPacks))
-			.ifPresent(pair->
-			{
-				NativeImage image = pair.getFirst();
-				ResourceLocation textureID = makeTextureID(id);
-				resourceStreams.put(textureID, () -> new ByteArrayInputStream(image.asByteArray()));
-				// if the original texture had metadata, we'll need to provide that later
-				pair.getSecond().ifPresent(metadataGetter -> resourceStreams.put(getMetadataLocation(textureID), metadataGetter));
-			}));
+		CompletableFuture<Void> generation = parallel
+			// one task per override and then one task per batch, spread across the worker pool
+			// vanilla profilers aren't threadsafe, so the per-override phases only go to our own metrics here
+			? overrideFiles.thenCompose(files -> prepareTextures(files, context, executor))
+				.thenCompose(queuedTextures -> CompletableFuture.allOf(batchTextures(queuedTextures, context)
+					.stream()
+					.map(batch -> CompletableFuture.supplyAsync(() -> generateTextures(batch, context, executor), executor)
+						.thenCompose(Function.identity()))
+					.toArray(CompletableFuture[]::new)))
+			// one override and then one batch at a time on the same worker thread
+			// the only batch being generated always gets its memory right away, so this never waits on other threads
+			: overrideFiles.thenAccept(files ->
+			{
+				profiler.push("generate");
+				metrics.setSectionProfiler(profiler);
+				try
+				{
+					List<QueuedTexture> queuedTextures = new ArrayList<>();
+					files.forEach((file, resource) -> prepareTexture(file, resource, context).ifPresent(queuedTextures::add));
+					batchTextures(queuedTextures, context).forEach(batch -> generateTextures(batch, context, executor).join());
+				}
+				finally
+				{
+					metrics.setSectionProfiler(null);
+					profiler.pop();
+				}
+			});
 		
-		this.resources = resourceStreams;
-		LOGGER.info("Concluded autopalette texture generation");
+		return generation.thenApply(noResult ->
+		{
+			long totalNanos = System.nanoTime() - startTime;
+			// overrides whose jsons were removed don't get carried over to the next reload
+			this.generatedOverrides = context.getGeneratedOverrides();
+			ResourceStore store = context.getStore();
+			LOGGER.info("Concluded autopalette texture generation in {} ms: stored {} resources from {} encodes, retaining {} bytes",
+				totalNanos / 1_000_000L, store.size(), store.getEncodeCount(), store.getBytesRetained());
+			LOGGER.info("Reused {} of {} autotextures from the previous reload", context.getReusedOverrideCount(), context.getGeneratedOverrides().size());
+			OverrideIndex overrideIndex = context.getOverrideIndex();
+			LOGGER.info("Found {} parsed autotexture jsons in the override index, parsed {} jsons", overrideIndex.getHits(), overrideIndex.getMisses());
+			overrideIndex.save();
+			LOGGER.info("Encoded {} autotexture images into {} bytes in {} ms with the {} encoder",
+				store.getImageEncodeCount(), store.getEncodedImageBytes(),
+				GenerationMetrics.toMillis(metrics.getPhaseNanos(GenerationMetrics.Phase.ENCODE)), store.getEncoderMode().name().toLowerCase(Locale.ROOT));
+			LOGGER.info("{} generated autotextures were identical to another autotexture and shared its png, {} didn't change their parent's pixels and used the parent's png",
+				store.getDedupeCount(), store.getNoOpCount());
+			ParentTextureCache parentTextures = context.getParentTextures();
+			LOGGER.info("Read {} parent textures for {} overrides, decoded {} parent textures for {} batches of overrides ({} decodes saved)",
+				parentTextures.getReadCount(), parentTextures.getRequestCount(),
+				parentTextures.getDecodeCount(), parentTextures.getDecodeRequestCount(), parentTextures.getDecodesSaved());
+			// we won't be generating anything else from the parent textures, so we can let them go now
+			parentTextures.clear();
+			PackHandles packs = context.getPacks();
+			LOGGER.info("Opened {} packs to read parent textures from", packs.getOpenCount());
+			packs.close();
+			TextureCache cache = context.getCache();
+			if (cache != null)
+			{
+				cache.trim();
+				LOGGER.info("Autopalette texture cache: {} hits, {} misses, {} entries written, {} entries evicted",
+					cache.getHits(), cache.getMisses(), cache.getWrites(), cache.getEvictions());
+			}
+			MemoryBudget memoryBudget = context.getMemoryBudget();
+			LOGGER.info("Peak autopalette working memory: {} MB reserved of a {} budget ({} autotextures waited for memory), {} MB heap in use",
+				memoryBudget.getPeakReservedBytes() / MEGABYTE,
+				memoryBudget.getMaxBytes() > 0L ? (memoryBudget.getMaxBytes() / MEGABYTE) + " MB" : "unlimited",
+				memoryBudget.getWaitCount(),
+				memoryBudget.getPeakHeapBytes() / MEGABYTE);
+			// phase times are summed across threads, so in parallel mode they can add up to more than the total time
+			LOGGER.info("Autopalette generation phases: {}", metrics.summarizePhases());
+			if (metrics.getSlowestOverrideCount() > 0)
+			{
+				LOGGER.info("Slowest autotextures: {}", metrics.summarizeSlowestOverrides());
+			}
+			JsonObject report = metrics.makeReport(totalNanos, parallel ? "parallel" : "serial");
+			report.addProperty("deduplicated", store.getDedupeCount());
+			report.addProperty("no_ops", store.getNoOpCount());
+			report.addProperty("override_index_hits", overrideIndex.getHits());
+			report.addProperty("override_index_misses", overrideIndex.getMisses());
+			JsonObject encoder = new JsonObject();
+			encoder.addProperty("mode", store.getEncoderMode().name().toLowerCase(Locale.ROOT));
+			encoder.addProperty("images", store.getImageEncodeCount());
+			encoder.addProperty("bytes", store.getEncodedImageBytes());
+			encoder.addProperty("encode_ms", GenerationMetrics.toMillis(metrics.getPhaseNanos(GenerationMetrics.Phase.ENCODE)));
+			report.add("encoder", encoder);
+			report.add("memory", memoryBudget.toJson());
+			metrics.writeReport(report);
+			// nothing writes to the store after this, but readers get their own immutable copy so they never have to wonder
+			return store.snapshot();
+		});
+	}
+	
+	/**
+	 * Reads an autotexture json and generates its texture on its own, storing the texture in the context's resource store
+	 * @param file The autotexture json's file, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * @param resource The autotexture json's resource
+	 * @param context The generation context
+	 * @param executor The executor to continue on if the texture has to wait for memory
+	 * @return A future that completes once the texture has been stored or failed to generate. Never completes exceptionally.
+	 */
+	protected static CompletableFuture<Void> generateResources(ResourceLocation file, Resource resource, GenerationContext context, Executor executor)
+	{
+		return prepareTexture(file, resource, context)
+			.map(queuedTexture -> generateTextures(List.of(queuedTexture), context, executor))
+			.orElseGet(() -> CompletableFuture.completedFuture(null));
+	}
+	
+	/**
+	 * Reads autotexture jsons and finds their parent textures, spread across the worker pool
+	 * @param files The autotexture jsons, keyed by file
+	 * @param context The generation context
+	 * @param executor The executor to read the jsons on
+	 * @return A future of the textures that still need to be transformed. Never completes exceptionally.
+	 */
+	protected static CompletableFuture<List<QueuedTexture>> prepareTextures(Map<ResourceLocation, Resource> files, GenerationContext context, Executor executor)
+	{
+		List<CompletableFuture<Optional<QueuedTexture>>> futures = files.entrySet()
+			.stream()
+			.map(entry -> CompletableFuture.supplyAsync(() -> prepareTexture(entry.getKey(), entry.getValue(), context), executor))
+			.toList();
+		return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+			.thenApply(noResult -> futures.stream()
+				.map(CompletableFuture::join)
+				.flatMap(Optional::stream)
+				.toList());
+	}
+	
+	/**
+	 * Reads an autotexture json and finds its parent texture.
+	 * If the texture doesn't need to be transformed because it was reused or cached, it's stored in the context's resource store right away.
+	 * @param file The autotexture json's file, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * @param resource The autotexture json's resource
+	 * @param context The generation context
+	 * @return The texture if it still needs to be transformed, or empty if it was stored or failed to generate
+	 */
+	protected static Optional<QueuedTexture> prepareTexture(ResourceLocation file, Resource resource, GenerationContext context)
+	{
+		ResourceLocation id = makeOverrideID(file);
+		GenerationMetrics metrics = context.getMetrics();
+		GenerationMetrics.OverrideTimings timings = metrics.startOverride(id);
+		Optional<PendingTexture> pending;
+		try
+		{
+			pending = readOverride(id, file, resource, metrics)
+				.flatMap(json ->
+				{
+					String jsonHash;
+					try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.INPUT_HASH))
+					{
+						jsonHash = OverrideIndex.hashJson(json);
+					}
+					return parseOverride(id, file, json, jsonHash, context)
+						.flatMap(override -> findTexture(id, jsonHash, override, context));
+				});
+			// if we already had the texture, we're done
+			pending.filter(texture -> texture.existingTexture() != null)
+				.ifPresent(texture -> storeTexture(texture, texture.existingTexture(), context));
+		}
+		catch (RuntimeException e)
+		{
+			logUnexpectedError(id, e);
+			pending = Optional.empty();
+		}
+		if (pending.isEmpty() || pending.get().existingTexture() != null)
+		{
+			metrics.finishOverride(timings);
+			return Optional.empty();
+		}
+		// the override's timings continue once its batch is transformed
+		metrics.suspendOverride(timings);
+		return Optional.of(new QueuedTexture(pending.get(), timings));
+	}
+	
+	/**
+	 * Groups textures that share a parent texture into batches, so each batch only scans its parent's pixels once
+	 * @param queuedTextures The textures to transform
+	 * @param context The generation context
+	 * @return The batches to transform. Every texture in a batch has the same parent.
+	 */
+	protected static List<List<QueuedTexture>> batchTextures(List<QueuedTexture> queuedTextures, GenerationContext context)
+	{
+		// each parent texture is only read once per reload, so overrides that share a parent share the same instance
+		Map<ParentTexture, List<QueuedTexture>> texturesByParent = new LinkedHashMap<>();
+		for (QueuedTexture queuedTexture : queuedTextures)
+		{
+			texturesByParent.computeIfAbsent(queuedTexture.texture().parent(), parent -> new ArrayList<>()).add(queuedTexture);
+		}
+		List<List<QueuedTexture>> batches = new ArrayList<>();
+		texturesByParent.forEach((parent, textures) ->
+		{
+			int batchSize = getBatchSize(parent, context.getMemoryBudget());
+			for (int start=0; start<textures.size(); start += batchSize)
+			{
+				batches.add(textures.subList(start, Math.min(start + batchSize, textures.size())));
+			}
+		});
+		LOGGER.info("Transforming {} autotextures in {} batches of overrides that share a parent texture", queuedTextures.size(), batches.size());
+		return batches;
+	}
+	
+	/**
+	 * @param parent A parent texture
+	 * @param memoryBudget The memory budget that batches are transformed under
+	 * @return How many overrides that share the parent texture can be transformed in the same batch
+	 */
+	public static int getBatchSize(ParentTexture parent, MemoryBudget memoryBudget)
+	{
+		long maxBytes = memoryBudget.getMaxBytes();
+		if (maxBytes <= 0L)
+		{
+			return MAX_BATCH_SIZE;
+		}
+		// every override in the batch has its own transformed image, so big parents get smaller batches to stay in the budget
+		long batchSize = maxBytes / Math.max(1L, parent.getDecodedSize()) - 3L;
+		return (int)Math.max(1L, Math.min(MAX_BATCH_SIZE, batchSize));
+	}
+	
+	/**
+	 * Transforms a batch of textures that share a parent texture, storing the textures in the context's resource store
+	 * @param batch The textures to transform, which all have the same parent
+	 * @param context The generation context
+	 * @param executor The executor to continue on if the batch has to wait for memory
+	 * @return A future that completes once the textures have been stored or failed to generate. Never completes exceptionally.
+	 */
+	protected static CompletableFuture<Void> generateTextures(List<QueuedTexture> batch, GenerationContext context, Executor executor)
+	{
+		// decoding, transforming, and encoding are what take up memory, so we wait for our share of the budget first
+		MemoryBudget memoryBudget = context.getMemoryBudget();
+		long reservedBytes = estimateTransformBytes(batch.get(0).texture().parent(), batch.size());
+		CompletableFuture<Void> reservation = memoryBudget.reserve(reservedBytes);
+		Runnable transform = () ->
+		{
+			try
+			{
+				transformAndStoreTextures(batch, context);
+			}
+			finally
+			{
+				memoryBudget.release(reservedBytes);
+			}
+		};
+		// if the memory was available right away we can keep going on this thread,
+		// otherwise we continue on the worker pool once other batches have released enough memory
+		return reservation.isDone()
+			? reservation.thenRun(transform)
+			: reservation.thenRunAsync(transform, executor);
+	}
+	
+	protected static void transformAndStoreTextures(List<QueuedTexture> batch, GenerationContext context)
+	{
+		GenerationMetrics metrics = context.getMetrics();
+		// the whole batch is recolored in one pass over the parent's pixels, so that time (usually the biggest part of generating each override)
+		// is split equally between the batch's overrides
+		List<PendingTexture> textures = batch.stream().map(QueuedTexture::texture).toList();
+		PixelImage[] images = null;
+		Exception recolorError = null;
+		try (GenerationMetrics.SharedTimer timer = metrics.shareTime(batch.stream().map(QueuedTexture::timings).toList()))
+		{
+			images = recolorTextures(textures, textures.get(0).parent(), context.getSplitThreshold(), metrics);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			recolorError = e;
+		}
+		for (int i=0; i<batch.size(); i++)
+		{
+			QueuedTexture queuedTexture = batch.get(i);
+			PendingTexture texture = queuedTexture.texture();
+			metrics.resumeOverride(queuedTexture.timings());
+			try
+			{
+				if (images == null)
+				{
+					// if the parent couldn't be decoded, none of the batch can be generated
+					logGenerationError(texture, recolorError);
+				}
+				else
+				{
+					storeTexture(texture, encodeAndCacheTexture(texture, images[i], context), context);
+				}
+			}
+			catch (IOException | RuntimeException e)
+			{
+				logGenerationError(texture, e);
+			}
+			finally
+			{
+				metrics.finishOverride(queuedTexture.timings());
+			}
+		}
+	}
+	
+	protected static void logGenerationError(PendingTexture texture, Exception e)
+	{
+		if (e instanceof IOException ioException)
+		{
+			logTextureError(texture.overrideID(), texture.override(), ioException);
+		}
+		else
+		{
+			logUnexpectedError(texture.overrideID(), e);
+		}
+	}
+	
+	protected static void logUnexpectedError(ResourceLocation id, Exception e)
+	{
+		// one broken override shouldn't take the rest of the generated textures down with it
+		LOGGER.error("Unexpected error generating autotexture {}", id);
+		e.printStackTrace();
+	}
+	
+	protected static void logTextureError(ResourceLocation overrideID, PaletteOverride override, IOException e)
+	{
+		LOGGER.error("Cannot override texture {} in packs {} specified by override {}: error getting texture", override.getParentTextureID(), override.getParentPacks(), overrideID);
+		e.printStackTrace();
+	}
+	
+	// we only read the json's bytes here, they don't need to be parsed if the override index already has them
+	protected static Optional<byte[]> readOverride(ResourceLocation id, ResourceLocation file, Resource resource, GenerationMetrics metrics)
+	{
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.READ_JSON);
+			InputStream inputStream = resource.open())
+		{
+			return Optional.of(IOUtils.toByteArray(inputStream));
+		}
+		catch (IOException e)
+		{
+			LOGGER.error("Couldn't read autotexture json {} from {}", id, file);
+			e.printStackTrace();
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * Parses an autotexture json, unless it's been parsed before
+	 * @param id The autotexture's ID
+	 * @param file The autotexture json's file
+	 * @param json The raw bytes of the json
+	 * @param jsonHash A hash of the json's bytes from {@link OverrideIndex#hashJson}
+	 * @param context The generation context
+	 * @return The parsed override, or empty if the json couldn't be parsed
+	 */
+	protected static Optional<PaletteOverride> parseOverride(ResourceLocation id, ResourceLocation file, byte[] json, String jsonHash, GenerationContext context)
+	{
+		OverrideIndex overrideIndex = context.getOverrideIndex();
+		// if the json hasn't changed since the last reload, we don't need to parse it again
+		GeneratedOverride previous = context.getPreviousOverride(id);
+		if (previous != null && previous.jsonHash().equals(jsonHash))
+		{
+			overrideIndex.put(jsonHash, previous.override());
+			return Optional.of(previous.override());
+		}
+		// or if it was parsed in a previous game session
+		GenerationMetrics metrics = context.getMetrics();
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.OVERRIDE_INDEX))
+		{
+			PaletteOverride indexedOverride = overrideIndex.get(jsonHash);
+			if (indexedOverride != null)
+			{
+				return Optional.of(indexedOverride);
+			}
+		}
+		// from SimpleJsonResourceReloadListener, but one json at a time so we don't have to hold every json tree at once
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.PARSE);
+			Reader reader = new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8))
+		{
+			JsonElement jsonElement = GsonHelper.fromJson(GSON, reader, JsonElement.class);
+			if (jsonElement == null)
+			{
+				LOGGER.error("Couldn't load autotexture json {} from {} as it's null or empty", id, file);
+				return Optional.empty();
+			}
+			DataResult<PaletteOverride> result = PaletteOverride.CODEC.parse(JsonOps.INSTANCE, jsonElement);
+			// partial results would skip their errors if they were loaded from the index, so only complete ones go in it
+			result.result().ifPresent(override -> overrideIndex.put(jsonHash, override));
+			return result.resultOrPartial(LOGGER::error); // bad data -> log it
+		}
+		catch (IllegalArgumentException | IOException | JsonParseException e)
+		{
+			LOGGER.error("Couldn't parse autotexture json {} from {}", id, file);
+			e.printStackTrace();
+			return Optional.empty();
+		}
+	}
+	
+	/**
+	 * @param file An autotexture json's file, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * @return The autotexture's ID, e.g. autopalette:block/dark_cobblestone
+	 */
+	public static ResourceLocation makeOverrideID(ResourceLocation file)
+	{
+		String path = file.getPath();
+		return new ResourceLocation(file.getNamespace(), path.substring(DIRECTORY.length() + 1, path.length() - JSON_EXTENSION.length()));
+	}
+	
+	/**
+	 * @param overrideID An autotexture's ID, e.g. autopalette:block/dark_cobblestone
+	 * @return The autotexture json's file, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 */
+	public static ResourceLocation makeOverrideFile(ResourceLocation overrideID)
+	{
+		return new ResourceLocation(overrideID.getNamespace(), DIRECTORY + "/" + overrideID.getPath() + JSON_EXTENSION);
 	}
 	
 	public static ResourceLocation makeTextureID(ResourceLocation jsonID)
@@ -149,68 +995,235 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 		return new ResourceLocation(id.getNamespace(), id.getPath() + ".mcmeta");
 	}
 	
-	public static Optional<Pair<NativeImage, Optional<Callable<InputStream>>>> generateImage(ResourceLocation overrideID, PaletteOverride override, Map<String,Pack> selectedPacks, Map<String,Pack> unselectedPacks)
+	/**
+	 * Finds an override's parent texture, and the override's texture if it doesn't need to be generated again
+	 * @param overrideID The ID of the override's autotexture json
+	 * @param jsonHash A hash of the override's json from {@link OverrideIndex#hashJson}
+	 * @param override The parsed override
+	 * @param context The generation context
+	 * @return The override's texture, or empty if the parent texture couldn't be found
+	 */
+	public static Optional<PendingTexture> findTexture(ResourceLocation overrideID, String jsonHash, PaletteOverride override, GenerationContext context)
 	{
-		ResourceLocation parentTextureID = override.getParentTextureID();
-		String parentPackID = override.getParentPack();
-		Pack info = override.getPackInfo(selectedPacks, unselectedPacks);
-		if (info == null)
+		ResourceLocation parentFile = makeTextureID(override.getParentTextureID());
+		Map<String,Pack> selectedPacks = context.getSelectedPacks();
+		try
 		{
-			// if we can't find the pack, don't do anything
-			// if the pack doesn't exist at all, we should probably warn the user
-			if (!selectedPacks.containsKey(parentPackID) && !unselectedPacks.containsKey(parentPackID))
+			Pack info = findParentPack(overrideID, override, parentFile, context);
+			if (info == null)
 			{
-				LOGGER.error("Cannot override texture {} in pack {} specified by override {}: pack does not exist", parentTextureID, parentPackID, overrideID);
-				LOGGER.error("Available selected packs: {}", selectedPacks.keySet());
-				LOGGER.error("Available unselected packs: {}", unselectedPacks.keySet());
+				return Optional.empty();
 			}
-			return Optional.empty();
+			
+			// overrides that share a parent texture share its files, so we only read each parent once per reload
+			ParentTexture parent = context.getParentTextures().get(info, parentFile);
+			// alpha masks are read from the same pack as the parent, and are shared between overrides the same way
+			List<ParentTexture> masks = new ArrayList<>();
+			for (ResourceLocation maskID : override.getMaskTextureIDs())
+			{
+				ParentTexture mask = context.getParentTextures().get(info, makeTextureID(maskID));
+				// the png headers are enough to tell whether the mask fits, so we don't need to decode anything yet
+				OperationPipeline.checkMaskSize(maskID, parent.getWidth(), parent.getHeight(), mask.getWidth(), mask.getHeight());
+				masks.add(mask);
+			}
+			
+			// if nothing that goes into this texture has changed since it was last generated, we can skip generating it
+			String key;
+			try (GenerationMetrics.Timer timer = context.getMetrics().time(GenerationMetrics.Phase.INPUT_HASH))
+			{
+				key = TextureCache.makeKey(info.getId(), jsonHash, parent.getFileHash(), masks.stream().map(ParentTexture::getFileHash).toList());
+			}
+			GeneratedOverride.Inputs inputs = new GeneratedOverride.Inputs(key, selectedPacks.containsKey(info.getId()));
+			GeneratedOverride previous = context.getPreviousOverride(overrideID);
+			if (previous != null && previous.inputs().equals(inputs))
+			{
+				return Optional.of(new PendingTexture(overrideID, jsonHash, override, parent, masks, inputs, previous.texture(), true));
+			}
+			return Optional.of(new PendingTexture(overrideID, jsonHash, override, parent, masks, inputs, getCachedTexture(key, context), false));
 		}
-		
-		// closing open packs might mess with zipfile packs, so let's not do that
-		// (autopalette textures that load from standalone resource packs should always require that the pack be selected)
-		PackResources pack = info.open();
-		if (pack == null)
+		catch (IOException e)
 		{
-			LOGGER.error("Cannot override texture {} in pack {} specified by override {}: pack cannot be opened", parentTextureID, parentPackID, overrideID);
+			logTextureError(overrideID, override, e);
 			return Optional.empty();
 		}
-		ResourceLocation parentFile = makeTextureID(parentTextureID);
-		try(InputStream inputStream = pack.getResource(PackType.CLIENT_RESOURCES, parentFile))
-		{
-			// use the palette map to generate a new texture
-			NativeImage image = NativeImage.read(inputStream);
-			NativeImage transformedImage = override.transformImage(image);
-			// check if the original texture had metadata -- we'll need to provide that from the virtual pack if it exists
-			ResourceLocation metadata = getMetadataLocation(parentFile);
-			Optional<Callable<InputStream>> metadataLookup = Optional.empty();
-			if (pack.hasResource(PackType.CLIENT_RESOURCES, metadata))
-			{
-				BufferedReader bufferedReader = null;
-				JsonObject metadataJson = null;
-				// read the metadata json from IO now so we don't trip over other IO readers later
-				try (InputStream metadataStream = pack.getResource(PackType.CLIENT_RESOURCES, metadata))
+	}
+	
+	/**
+	 * Finds the pack to read an override's parent texture from
+	 * @param overrideID The ID of the override's autotexture json
+	 * @param override The override
+	 * @param parentFile The resource ID of the parent texture's png
+	 * @param context The generation context
+	 * @return The first of the override's packs that's available and has the parent texture, or null if there is none
+	 * @throws IOException If a pack couldn't be searched for the parent texture
+	 */
+	protected static @Nullable Pack findParentPack(ResourceLocation overrideID, PaletteOverride override, ResourceLocation parentFile, GenerationContext context) throws IOException
+	{
+		Map<String,Pack> selectedPacks = context.getSelectedPacks();
+		Map<String,Pack> unselectedPacks = context.getUnselectedPacks();
+		List<String> packIDs = override.getParentPacks();
+		List<String> missingPackIDs = new ArrayList<>();
+		boolean anyPackAvailable = false;
+		for (String packID : packIDs)
+		{
+			if (packID.equals(PaletteOverride.HIGHEST_SELECTED_PACK))
+			{
+				anyPackAvailable = true;
+				Pack info = context.getParentPacks().getHighestSelectedPack(parentFile);
+				if (info != null)
 				{
-					bufferedReader = new BufferedReader(new InputStreamReader(metadataStream, StandardCharsets.UTF_8));
-					metadataJson = GsonHelper.parse(bufferedReader);
-				} finally {
-		               IOUtils.closeQuietly(bufferedReader);
-	            }
-				if (metadataJson != null)
+					return info;
+				}
+				continue;
+			}
+			if (packID.equals(PACK_ID))
+			{
+				// reading from our own pack waits on the generation that's reading it, which would never finish
+				LOGGER.error("Cannot override texture {} from pack {} specified by override {}: autotextures cannot be generated from other autotextures", override.getParentTextureID(), packID, overrideID);
+				continue;
+			}
+			Pack info = override.getPackInfo(packID, selectedPacks, unselectedPacks);
+			if (info == null)
+			{
+				// an unselected pack with require_pack isn't a problem, but a pack that doesn't exist at all probably is
+				if (!selectedPacks.containsKey(packID) && !unselectedPacks.containsKey(packID))
 				{
-					JsonObject metaDataJsonForLambda = metadataJson; // closure variables must be final or effectively final
-					// we'll need to provide the json in InputStream format
-					metadataLookup = Optional.of(() -> new ByteArrayInputStream(metaDataJsonForLambda.toString().getBytes()));
+					missingPackIDs.add(packID);
 				}
+				continue;
+			}
+			anyPackAvailable = true;
+			// a single pack doesn't need to be searched, we find out whether it has the parent when we read it
+			// otherwise, every pack in the chain is only listed once per reload, no matter how many overrides use it
+			if (!override.hasFallbackPacks() || context.getParentPacks().hasTexture(info, parentFile))
+			{
+				return info;
 			}
-			return Optional.of(Pair.of(transformedImage, metadataLookup));
 		}
-		catch (IOException e)
+		if (missingPackIDs.size() == packIDs.size())
 		{
-			LOGGER.error("Cannot override texture {} in pack {} specified by override {}: error getting texture", parentTextureID, parentPackID, overrideID);
-			e.printStackTrace();
-			return Optional.empty();
+			// if none of the packs exist at all, we should probably warn the user
+			LOGGER.error("Cannot override texture {} in packs {} specified by override {}: packs do not exist", override.getParentTextureID(), missingPackIDs, overrideID);
+			LOGGER.error("Available selected packs: {}", selectedPacks.keySet());
+			LOGGER.error("Available unselected packs: {}", unselectedPacks.keySet());
+		}
+		else if (anyPackAvailable)
+		{
+			LOGGER.error("Cannot override texture {} specified by override {}: none of the packs {} have the texture", override.getParentTextureID(), overrideID, packIDs);
+		}
+		return null;
+	}
+	
+	protected static @Nullable GeneratedTexture getCachedTexture(String key, GenerationContext context)
+	{
+		TextureCache cache = context.getCache();
+		if (cache == null)
+		{
+			return null;
+		}
+		try (GenerationMetrics.Timer timer = context.getMetrics().time(GenerationMetrics.Phase.DISK_CACHE))
+		{
+			return cache.get(key).orElse(null);
+		}
+	}
+	
+	protected static GeneratedTexture encodeAndCacheTexture(PendingTexture texture, @Nullable PixelImage image, GenerationContext context) throws IOException
+	{
+		GenerationMetrics metrics = context.getMetrics();
+		ResourceStore store = context.getStore();
+		GeneratedTexture generated = encodeTexture(image, texture.parent(), store, metrics);
+		TextureCache cache = context.getCache();
+		if (cache != null)
+		{
+			// the fast encoders trade size for speed since the store's textures are decoded again moments later,
+			// but cache entries are read on every later reload, so they're worth compressing properly
+			GeneratedTexture cachedTexture = generated;
+			if (image != null && store.getEncoderMode() != PngEncoder.Mode.VANILLA)
+			{
+				try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.CACHE_ENCODE))
+				{
+					cachedTexture = new GeneratedTexture(PngEncoder.encode(image, cache.getCompressionLevel()), generated.metadata());
+				}
+			}
+			try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.DISK_CACHE))
+			{
+				cache.put(texture.inputs().contentKey(), cachedTexture);
+			}
 		}
+		return generated;
+	}
+	
+	protected static void storeTexture(PendingTexture texture, GeneratedTexture generated, GenerationContext context)
+	{
+		context.putGeneratedOverride(texture.overrideID(), new GeneratedOverride(texture.jsonHash(), texture.override(), texture.inputs(), generated), texture.reused());
+		context.getStore().putTexture(makeTextureID(texture.overrideID()), generated);
+	}
+	
+	/**
+	 * Estimates how much memory transforming a batch of textures takes while it's in progress
+	 * @param parent The textures' parent
+	 * @param batchSize How many textures are transformed from the parent at once
+	 * @return The estimated memory use in bytes
+	 */
+	public static long estimateTransformBytes(ParentTexture parent, int batchSize)
+	{
+		// the decoded parent, its indexed pixels, a transformed copy for each texture, and the native image each one gets encoded from in turn
+		return (3L + batchSize) * parent.getDecodedSize();
+	}
+	
+	/**
+	 * Generates images from a parent texture with each texture's palette and operations, scanning the parent's pixels once for all of them
+	 * @param textures The textures to generate, which all have the same parent
+	 * @param parent The parent texture, which is not modified
+	 * @param splitThreshold The fewest pixels the parent must have to be transformed in parallel bands, or 0 to never split it
+	 * @param metrics The metrics to time transforming with
+	 * @return One image for each texture, in the same order as the textures,
+	 * or null where a texture's override doesn't change any of the parent's pixels
+	 * @throws IOException If the parent texture or a mask texture could not be decoded
+	 */
+	public static PixelImage[] recolorTextures(List<PendingTexture> textures, ParentTexture parent, int splitThreshold, GenerationMetrics metrics) throws IOException
+	{
+		// the parent's distinct colors are only found once, no matter how many overrides recolor it
+		IndexedImage parentPixels = parent.getIndexedPixels();
+		List<OperationPipeline.Bound> pipelines = new ArrayList<>(textures.size());
+		for (PendingTexture texture : textures)
+		{
+			List<PixelImage> masks = new ArrayList<>(texture.masks().size());
+			for (ParentTexture mask : texture.masks())
+			{
+				masks.add(mask.getPixels());
+			}
+			pipelines.add(texture.override().getPipeline().bind(masks, parentPixels.width(), parentPixels.height()));
+		}
+		// tall animated textures are split between their frames
+		int frameHeight = parent.getFrameHeight(parentPixels.width(), parentPixels.height());
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.TRANSFORM))
+		{
+			return parentPixels.transform(pipelines, frameHeight, splitThreshold);
+		}
+	}
+	
+	/**
+	 * Encodes a palette-swapped image generated from a parent texture
+	 * @param image The palette-swapped image, or null if the palette didn't change any of the parent's pixels
+	 * @param parent The parent texture
+	 * @param store The resource store to encode the texture for
+	 * @param metrics The metrics to time encoding with
+	 * @return The encoded texture
+	 * @throws IOException If the texture could not be encoded
+	 */
+	public static GeneratedTexture encodeTexture(@Nullable PixelImage image, ParentTexture parent, ResourceStore store, GenerationMetrics metrics) throws IOException
+	{
+		// if the palette didn't change anything, the parent's png already is the texture we want,
+		// and every override that leaves the same parent unchanged shares that one array
+		if (image == null)
+		{
+			store.countNoOp();
+			return new GeneratedTexture(parent.getImageBytes(), parent.getEncodedMetadata(store));
+		}
+		// identical textures from other overrides share the same encoded png
+		byte[] bytes = store.encodeImage(image, metrics);
+		return new GeneratedTexture(bytes, parent.getEncodedMetadata(store));
 	}
 	
 	// resource pack stuff
@@ -264,14 +1277,16 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 		// the namespaces present in the pack are added to the resource manager using this method when the pack is added
 		// this is used to find resources later, so it's very important
 		// unfortunately, when resources reload, this is called BEFORE reload listeners fire!
-		// seems like the best thing we can do for now is to require that all textures use the "autopalette" namespace
-		return NAMESPACES;
+		// so we use the namespaces from the last reload, which we remember across game sessions;
+		// they're the same as this reload's unless someone just added an autotexture in a new namespace
+		return this.namespaces;
 	}
 
 	@Override
 	public boolean hasResource(PackType type, ResourceLocation id)
 	{
-		return type == PackType.CLIENT_RESOURCES && (this.resources.containsKey(id));
+		// everything we generate is in the textures folder, so other lookups don't need to wait for generation
+		return type == PackType.CLIENT_RESOURCES && isInTextureFolder(id.getPath()) && this.awaitResources().contains(id);
 	}
 
 	@Override
@@ -280,28 +1295,44 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 		// this will be called by the texture stitcher on the main thread after resources are loaded,
 		// so textures will need to be ready and retrievable by then
 		
-		if (this.resources.containsKey(id))
-		{
-			Callable<InputStream> streamGetter = this.resources.get(id);
-			if (streamGetter == null)
-			{
-				throw this.makeFileNotFoundException(type, id);
-			}
-			
-			try
-			{
-				return streamGetter.call();
-			}
-			catch (Exception e)
-			{
-				e.printStackTrace();
-				throw this.makeFileNotFoundException(type, id);
-			}
-		}
-		else
+		// the bytes were encoded during generation, so this is just a cheap wrapper around them
+		byte[] bytes = type == PackType.CLIENT_RESOURCES && isInTextureFolder(id.getPath())
+			? this.awaitResources().get(id)
+			: null;
+		if (bytes == null)
 		{
 			throw this.makeFileNotFoundException(type, id);
 		}
+		return new ByteArrayInputStream(bytes);
+	}
+	
+	/**
+	 * Waits for the most recent texture generation to finish
+	 * @return The generated resources, once they are ready
+	 */
+	protected GeneratedResources awaitResources()
+	{
+		// texture stitchers and other reload listeners may ask for our textures while we're still generating them,
+		// they'll need to wait until the full set is ready
+		// once it's ready, this is a volatile read and a lookup in an immutable snapshot, nothing here ever takes a lock
+		return this.published.get().resources().join();
+	}
+	
+	/**
+	 * Replaces the pack's resources with an already-generated set of resources
+	 * @param resources The resources to serve from now on
+	 */
+	protected void setResources(GeneratedResources resources)
+	{
+		this.published.updateAndGet(published -> new PublishedResources(published.version() + 1L, CompletableFuture.completedFuture(resources)));
+	}
+	
+	/**
+	 * @return The version of the pack's resources, which goes up by one every time a reload starts replacing them
+	 */
+	public long getResourceVersion()
+	{
+		return this.published.get().version();
 	}
 	
 	public ResourcePackFileNotFoundException makeFileNotFoundException(PackType type, ResourceLocation id)
@@ -314,9 +1345,68 @@ public class AutopalettePack extends AbstractPackResources implements Preparable
 	@Override
 	public Collection<ResourceLocation> getResources(PackType packType, String namespace, String id, Predicate<ResourceLocation> filter)
 	{
-		// getResources isn't called by anything related to texture stitching;
-		// it IS called by some reload listeners on worker threads to load resources, we should make sure we don't break anything
-		return NO_RESOURCES;
+		// getResources isn't called by vanilla texture stitching,
+		// but it IS called by some reload listeners on worker threads to find resources, and by mods that look for textures
+		// listings of folders that can't have any textures in them don't need to wait for generation
+		if (packType != PackType.CLIENT_RESOURCES || !mayContainTextures(id))
+		{
+			return NO_RESOURCES;
+		}
+		return this.awaitResources().getResources(namespace, id, filter);
+	}
+	
+	/**
+	 * @param path A resource path, e.g. textures/block/dark_cobblestone.png
+	 * @return Whether the path is in the textures folder
+	 */
+	public static boolean isInTextureFolder(String path)
+	{
+		return path.startsWith(TEXTURE_DIRECTORY);
 	}
+	
+	/**
+	 * @param folder A folder path, e.g. textures/block
+	 * @return Whether the folder or its subfolders could contain textures
+	 */
+	public static boolean mayContainTextures(String folder)
+	{
+		String prefix = folder.isEmpty() || folder.endsWith("/") ? folder : folder + "/";
+		return prefix.startsWith(TEXTURE_DIRECTORY) || TEXTURE_DIRECTORY.startsWith(prefix);
+	}
+	
+	/**
+	 * An override whose parent texture has been found, and whose texture may still need to be generated
+	 * @param overrideID The ID of the override's autotexture json
+	 * @param jsonHash A hash of the override's json from {@link OverrideIndex#hashJson}
+	 * @param override The parsed override
+	 * @param parent The override's parent texture
+	 * @param masks The textures used by the override's alpha masks, in the same order as {@link PaletteOverride#getMaskTextureIDs()}
+	 * @param inputs Everything that goes into the override's texture
+	 * @param existingTexture The override's texture if it was reused or cached, or null if it needs to be generated
+	 * @param reused Whether the texture was reused from the previous reload
+	 */
+	public record PendingTexture(ResourceLocation overrideID, String jsonHash, PaletteOverride override, ParentTexture parent, List<ParentTexture> masks,
+		GeneratedOverride.Inputs inputs, @Nullable GeneratedTexture existingTexture, boolean reused) {}
+	
+	/**
+	 * The resources of one reload
+	 * @param version The version of the pack's resources, which goes up by one for each reload
+	 * @param resources Completes when the reload's textures are ready (or indexed, in lazy mode)
+	 */
+	protected record PublishedResources(long version, CompletableFuture<? extends GeneratedResources> resources) {}
+	
+	/**
+	 * The packs a reload generated textures from
+	 * @param selected The selected packs, keyed by ID, in the same order as the pack repository's selected packs
+	 * @param unselected The available packs that aren't selected, keyed by ID
+	 */
+	protected record ReloadPacks(Map<String, Pack> selected, Map<String, Pack> unselected) {}
+	
+	/**
+	 * A texture waiting to be transformed with the rest of its batch
+	 * @param texture The texture
+	 * @param timings The override's timings, which are suspended until its batch is transformed
+	 */
+	public record QueuedTexture(PendingTexture texture, GenerationMetrics.OverrideTimings timings) {}
 
 }
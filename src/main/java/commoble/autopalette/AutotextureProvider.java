@@ -0,0 +1,447 @@
+package commoble.autopalette;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.serialization.JsonOps;
+
+import net.minecraft.data.CachedOutput;
+import net.minecraft.data.DataGenerator;
+import net.minecraft.data.DataProvider;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.FilePackResources;
+import net.minecraft.server.packs.FolderPackResources;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.util.GsonHelper;
+import net.minecraftforge.common.data.ExistingFileHelper;
+
+/**
+ * Generates autotextures ahead of time in a data run, and writes them to the data run's output folder
+ * as the assets of a regular resource pack. A modpack can ship that resource pack instead of the autotexture jsons,
+ * and then clients load the textures like any other texture without generating anything.
+ * Autotexture jsons are read from the data run's input folders, e.g. input/assets/autopalette/autotextures/block/dark_cobblestone.json.
+ * Parent textures are read from source resource packs, which are found by the same pack IDs that the autotexture jsons use.
+ */
+public class AutotextureProvider implements DataProvider
+{
+	// the pack IDs of the built-in resource packs, which are read from the data run's existing resources
+	public static final String VANILLA_PACK = "vanilla";
+	public static final String MOD_RESOURCES_PACK = "mod_resources";
+	public static final String ZIP_EXTENSION = ".zip";
+
+	private final DataGenerator generator;
+	private final Collection<Path> inputFolders;
+	private final @Nullable Path sourcePackFolder;
+	private final ExistingFileHelper existingFiles;
+
+	/**
+	 * @param generator The data generator to write textures to the output folder of
+	 * @param inputFolders The folders to find autotexture jsons in
+	 * @param sourcePackFolder A folder of resource packs to read parent textures from, like a resourcepacks folder, or null to only use the built-in packs
+	 * @param existingFiles The data run's existing resources, which parent textures in the vanilla and mod_resources packs are read from
+	 */
+	public AutotextureProvider(DataGenerator generator, Collection<Path> inputFolders, @Nullable Path sourcePackFolder, ExistingFileHelper existingFiles)
+	{
+		this.generator = generator;
+		this.inputFolders = inputFolders;
+		this.sourcePackFolder = sourcePackFolder;
+		this.existingFiles = existingFiles;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "Autotextures";
+	}
+
+	@Override
+	public void run(CachedOutput output) throws IOException
+	{
+		Map<ResourceLocation, Path> files = this.findOverrideFiles();
+		if (files.isEmpty())
+		{
+			return;
+		}
+		List<PackResources> openedPacks = new ArrayList<>();
+		// bakes wait on each other's parent reads, so they get their own pool instead of the common pool that everything else shares
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+		try
+		{
+			Map<String, SourcePack> sourcePacks = this.openSourcePacks(openedPacks);
+			// overrides that share a parent share its decoded pixels, and parents that a pack doesn't have are only looked for once
+			Map<ParentKey, CompletableFuture<Optional<SourceTexture>>> parents = new ConcurrentHashMap<>();
+			AtomicInteger baked = new AtomicInteger();
+			// overrides are generated in parallel, and each one is written as soon as it's done
+			CompletableFuture.allOf(files.entrySet()
+				.stream()
+				.map(entry -> CompletableFuture.runAsync(() ->
+				{
+					if (this.bake(entry.getKey(), entry.getValue(), sourcePacks, parents, output))
+					{
+						baked.incrementAndGet();
+					}
+				}, executor))
+				.toArray(CompletableFuture[]::new))
+				.join();
+			long parentCount = parents.values()
+				.stream()
+				.filter(parent -> !parent.isCompletedExceptionally() && parent.join().isPresent())
+				.count();
+			AutopalettePack.LOGGER.info("Baked {} of {} autotextures from {} parent textures", baked.get(), files.size(), parentCount);
+		}
+		finally
+		{
+			executor.shutdown();
+			openedPacks.forEach(PackResources::close);
+		}
+	}
+
+	/**
+	 * Finds the autotexture jsons in the input folders. Jsons in earlier input folders take priority over jsons with the same ID in later ones.
+	 * @return The paths of the autotexture jsons, keyed by their resource IDs, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * @throws IOException If an input folder could not be read
+	 */
+	protected Map<ResourceLocation, Path> findOverrideFiles() throws IOException
+	{
+		Map<ResourceLocation, Path> files = new TreeMap<>();
+		for (Path inputFolder : this.inputFolders)
+		{
+			Path assets = inputFolder.resolve(PackHandles.ASSETS_DIRECTORY);
+			if (!Files.isDirectory(assets))
+			{
+				continue;
+			}
+			try (DirectoryStream<Path> namespaceFolders = Files.newDirectoryStream(assets, Files::isDirectory))
+			{
+				for (Path namespaceFolder : namespaceFolders)
+				{
+					String namespace = namespaceFolder.getFileName().toString();
+					Path overrideFolder = namespaceFolder.resolve(AutopalettePack.DIRECTORY);
+					if (!Files.isDirectory(overrideFolder))
+					{
+						continue;
+					}
+					try (Stream<Path> paths = Files.walk(overrideFolder))
+					{
+						paths.filter(path -> Files.isRegularFile(path) && path.toString().endsWith(AutopalettePack.JSON_EXTENSION))
+							.forEach(path ->
+							{
+								// resource paths always use forward slashes
+								String relativePath = namespaceFolder.relativize(path).toString().replace(File.separatorChar, '/');
+								try
+								{
+									files.putIfAbsent(new ResourceLocation(namespace, relativePath), path);
+								}
+								catch (RuntimeException e)
+								{
+									AutopalettePack.LOGGER.error("Ignoring autotexture json {} with invalid resource ID {}:{}", path, namespace, relativePath);
+								}
+							});
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Opens the packs that parent textures can be read from
+	 * @param openedPacks A list to add opened packs to, which must be closed once we're done with them
+	 * @return The source packs, keyed by pack ID
+	 */
+	protected Map<String, SourcePack> openSourcePacks(List<PackResources> openedPacks) throws IOException
+	{
+		Map<String, SourcePack> sourcePacks = new HashMap<>();
+		// the data run's existing resources have vanilla's assets and every mod's assets mixed together
+		SourcePack existingPack = SourcePack.of(this.existingFiles);
+		sourcePacks.put(VANILLA_PACK, existingPack);
+		sourcePacks.put(MOD_RESOURCES_PACK, existingPack);
+		if (this.sourcePackFolder != null && Files.isDirectory(this.sourcePackFolder))
+		{
+			try (DirectoryStream<Path> paths = Files.newDirectoryStream(this.sourcePackFolder))
+			{
+				for (Path path : paths)
+				{
+					File file = path.toFile();
+					PackResources pack = file.isDirectory() ? new FolderPackResources(file)
+						: file.getName().endsWith(ZIP_EXTENSION) ? new FilePackResources(file)
+						: null;
+					if (pack != null)
+					{
+						openedPacks.add(pack);
+						sourcePacks.put(PackHandles.FILE_PACK_PREFIX + file.getName(), SourcePack.of(pack));
+					}
+				}
+			}
+		}
+		return sourcePacks;
+	}
+
+	/**
+	 * Generates an autotexture and writes it to the output folder
+	 * @param file The autotexture json's resource ID, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * @param path The autotexture json's path
+	 * @param sourcePacks The packs to read parent textures from, keyed by pack ID
+	 * @param parents The parent textures that have been read so far
+	 * @param output The output to write the texture to
+	 * @return True if the texture was written, false if it couldn't be generated
+	 */
+	protected boolean bake(ResourceLocation file, Path path, Map<String, SourcePack> sourcePacks, Map<ParentKey, CompletableFuture<Optional<SourceTexture>>> parents, CachedOutput output)
+	{
+		ResourceLocation id = AutopalettePack.makeOverrideID(file);
+		try
+		{
+			Optional<PaletteOverride> parsedOverride = readOverride(id, path);
+			if (parsedOverride.isEmpty())
+			{
+				return false;
+			}
+			PaletteOverride override = parsedOverride.get();
+			ResourceLocation parentFile = AutopalettePack.makeTextureID(override.getParentTextureID());
+			// data runs don't have selected packs, so the highest selected pack is skipped in favor of the other packs in the list
+			SourceTexture parent = null;
+			String parentPackID = null;
+			for (String packID : override.getParentPacks())
+			{
+				SourcePack pack = sourcePacks.get(packID);
+				if (pack != null)
+				{
+					parent = getParent(parents, new ParentKey(packID, parentFile), pack).orElse(null);
+					if (parent != null)
+					{
+						parentPackID = packID;
+						break;
+					}
+				}
+			}
+			if (parent == null)
+			{
+				AutopalettePack.LOGGER.error("Cannot bake autotexture {}: none of the packs {} have parent texture {}, source packs are {}",
+					id, override.getParentPacks(), parentFile, sourcePacks.keySet());
+				return false;
+			}
+			// alpha masks come from the same pack as the parent
+			SourcePack parentPack = sourcePacks.get(parentPackID);
+			List<PixelImage> masks = new ArrayList<>();
+			for (ResourceLocation maskID : override.getMaskTextureIDs())
+			{
+				ResourceLocation maskFile = AutopalettePack.makeTextureID(maskID);
+				SourceTexture mask = getParent(parents, new ParentKey(parentPackID, maskFile), parentPack).orElse(null);
+				if (mask == null)
+				{
+					AutopalettePack.LOGGER.error("Cannot bake autotexture {}: pack {} doesn't have mask texture {}", id, parentPackID, maskFile);
+					return false;
+				}
+				OperationPipeline.checkMaskSize(maskID, parent.pixels().width(), parent.pixels().height(), mask.pixels().width(), mask.pixels().height());
+				masks.add(mask.pixels());
+			}
+			PixelImage parentPixels = parent.pixels();
+			OperationPipeline.Bound pipeline = override.getPipeline().bind(masks, parentPixels.width(), parentPixels.height());
+			PixelImage transformedImage = IndexedImage.of(parentPixels).transform(List.of(pipeline), parent.frameHeight(), RowBands.DEFAULT_SPLIT_THRESHOLD)[0];
+			// baked textures are read on every reload of every client, so they're worth compressing as much as we can
+			byte[] image = transformedImage == null
+				? parent.image()
+				: PngEncoder.encode(transformedImage, Deflater.BEST_COMPRESSION);
+			ResourceLocation textureID = AutopalettePack.makeTextureID(id);
+			Path texturePath = this.getOutputPath(textureID);
+			// the cached output isn't threadsafe, so we write one file at a time
+			synchronized(output)
+			{
+				output.writeIfNeeded(texturePath, image, Hashing.sha1().hashBytes(image));
+				if (parent.metadata() != null)
+				{
+					output.writeIfNeeded(this.getOutputPath(AutopalettePack.getMetadataLocation(textureID)), parent.metadata(), Hashing.sha1().hashBytes(parent.metadata()));
+				}
+			}
+			return true;
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			AutopalettePack.LOGGER.error("Cannot bake autotexture {}: error reading or writing texture", id);
+			e.printStackTrace();
+			return false;
+		}
+		catch (RuntimeException e)
+		{
+			AutopalettePack.LOGGER.error("Unexpected error baking autotexture {}", id);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	protected static Optional<PaletteOverride> readOverride(ResourceLocation id, Path path) throws IOException
+	{
+		JsonElement json;
+		try (Reader reader = Files.newBufferedReader(path))
+		{
+			json = GsonHelper.fromJson(AutopalettePack.GSON, reader, JsonElement.class);
+		}
+		catch (JsonParseException e)
+		{
+			AutopalettePack.LOGGER.error("Couldn't parse autotexture json {} from {}", id, path);
+			e.printStackTrace();
+			return Optional.empty();
+		}
+		if (json == null)
+		{
+			AutopalettePack.LOGGER.error("Couldn't load autotexture json {} from {} as it's null or empty", id, path);
+			return Optional.empty();
+		}
+		return PaletteOverride.CODEC.parse(JsonOps.INSTANCE, json)
+			.resultOrPartial(AutopalettePack.LOGGER::error); // bad data -> log it
+	}
+
+	/**
+	 * Gets a parent texture, reading it if no other override has asked for it yet.
+	 * The texture is read outside the map, so reads of different parents don't block each other;
+	 * overrides that ask for a parent while it's being read wait for that read instead of reading it again.
+	 * @param parents The parent textures that have been read or are being read so far
+	 * @param key The pack and file to read the parent from
+	 * @param pack The pack to read the parent from
+	 * @return The parent texture, or empty if the pack doesn't have it
+	 * @throws UncheckedIOException If the parent couldn't be read
+	 */
+	protected static Optional<SourceTexture> getParent(Map<ParentKey, CompletableFuture<Optional<SourceTexture>>> parents, ParentKey key, SourcePack pack)
+	{
+		CompletableFuture<Optional<SourceTexture>> newParent = new CompletableFuture<>();
+		CompletableFuture<Optional<SourceTexture>> parent = parents.putIfAbsent(key, newParent);
+		if (parent == null)
+		{
+			parent = newParent;
+			try
+			{
+				newParent.complete(Optional.ofNullable(readParent(pack, key.textureFile())));
+			}
+			catch (RuntimeException e)
+			{
+				newParent.completeExceptionally(e);
+			}
+		}
+		try
+		{
+			return parent.join();
+		}
+		catch (CompletionException e)
+		{
+			throw e.getCause() instanceof RuntimeException cause ? cause : e;
+		}
+	}
+
+	// returns null if the pack doesn't have the texture, so the next pack can be tried
+	protected static @Nullable SourceTexture readParent(SourcePack pack, ResourceLocation parentFile)
+	{
+		try
+		{
+			byte[] image = pack.read(parentFile);
+			if (image == null)
+			{
+				return null;
+			}
+			byte[] metadata = pack.read(AutopalettePack.getMetadataLocation(parentFile));
+			PixelImage pixels;
+			try (NativeImage nativeImage = NativeImage.read(new ByteArrayInputStream(image)))
+			{
+				pixels = PixelImage.read(nativeImage);
+			}
+			return new SourceTexture(image, metadata, pixels, ParentTextureCache.getFrameHeight(metadata, pixels.width(), pixels.height()));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	protected Path getOutputPath(ResourceLocation id)
+	{
+		return this.generator.getOutputFolder()
+			.resolve(PackHandles.ASSETS_DIRECTORY)
+			.resolve(id.getNamespace())
+			.resolve(id.getPath());
+	}
+
+	/**
+	 * A resource pack that parent textures can be read from
+	 */
+	@FunctionalInterface
+	public static interface SourcePack
+	{
+		/**
+		 * @param file A client resource ID, e.g. minecraft:textures/block/cobblestone.png
+		 * @return The file's contents, or null if the pack doesn't have that file
+		 * @throws IOException If the file exists but could not be read
+		 */
+		public @Nullable byte[] read(ResourceLocation file) throws IOException;
+
+		public static SourcePack of(PackResources pack)
+		{
+			return file ->
+			{
+				if (!pack.hasResource(PackType.CLIENT_RESOURCES, file))
+				{
+					return null;
+				}
+				try (InputStream inputStream = pack.getResource(PackType.CLIENT_RESOURCES, file))
+				{
+					return IOUtils.toByteArray(inputStream);
+				}
+			};
+		}
+
+		public static SourcePack of(ExistingFileHelper existingFiles)
+		{
+			return file ->
+			{
+				if (!existingFiles.exists(file, PackType.CLIENT_RESOURCES))
+				{
+					return null;
+				}
+				try (InputStream inputStream = existingFiles.getResource(file, PackType.CLIENT_RESOURCES).open())
+				{
+					return IOUtils.toByteArray(inputStream);
+				}
+			};
+		}
+	}
+
+	protected static record ParentKey(String packID, ResourceLocation textureFile) {}
+
+	/**
+	 * A parent texture read from a source pack
+	 * @param image The raw bytes of the texture's png
+	 * @param metadata The raw bytes of the texture's .mcmeta, or null if it has none
+	 * @param pixels The decoded texture, which must not be modified
+	 * @param frameHeight The height of the texture's animation frames, or 0 if it isn't animated
+	 */
+	protected static record SourceTexture(byte[] image, @Nullable byte[] metadata, PixelImage pixels, int frameHeight) {}
+}
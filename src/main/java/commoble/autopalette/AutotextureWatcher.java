@@ -0,0 +1,265 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Watches folder resource packs for changes to autotexture jsons and textures, for hot reloading during development.
+ * Only the assets folder, its namespace folders, and the autotextures and textures folders inside them are watched.
+ * Changes are debounced, so an editor that saves a file in several steps (or a tool that exports many files at once)
+ * only causes one batch of changes once the files have stopped changing.
+ * Batches are handed to the listener on the watcher's own daemon thread, one at a time.
+ */
+public class AutotextureWatcher implements AutoCloseable
+{
+	private final WatchService watchService;
+	private final long debounceMillis;
+	private final Consumer<Set<ResourceLocation>> listener;
+	// the folder each key watches, and the assets folder of the pack it's in
+	private final Map<WatchKey, WatchedFolder> folders = new ConcurrentHashMap<>();
+	private final Thread thread;
+
+	protected AutotextureWatcher(WatchService watchService, long debounceMillis, Consumer<Set<ResourceLocation>> listener)
+	{
+		this.watchService = watchService;
+		this.debounceMillis = debounceMillis;
+		this.listener = listener;
+		this.thread = new Thread(this::run, "Autopalette Watcher");
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts watching folder resource packs
+	 * @param packFolders The root folders of the packs to watch
+	 * @param debounceMillis How long the files must stop changing for before a batch of changes is given to the listener
+	 * @param listener Called on the watcher's thread with each batch of changed files, e.g. autopalette:autotextures/block/dark_cobblestone.json
+	 * or minecraft:textures/block/cobblestone.png. Changes to a texture's .mcmeta file are given as changes to its png.
+	 * @return The watcher, which must be closed once the packs don't need to be watched anymore
+	 * @throws IOException If the packs' folders couldn't be watched
+	 */
+	public static AutotextureWatcher start(Collection<Path> packFolders, long debounceMillis, Consumer<Set<ResourceLocation>> listener) throws IOException
+	{
+		AutotextureWatcher watcher = new AutotextureWatcher(FileSystems.getDefault().newWatchService(), debounceMillis, listener);
+		try
+		{
+			for (Path packFolder : packFolders)
+			{
+				Path assets = packFolder.resolve(PackHandles.ASSETS_DIRECTORY);
+				if (Files.isDirectory(assets))
+				{
+					watcher.register(assets, assets, null);
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			watcher.close();
+			throw e;
+		}
+		watcher.thread.start();
+		return watcher;
+	}
+
+	/**
+	 * @return How many folders are being watched
+	 */
+	public int getFolderCount()
+	{
+		return this.folders.size();
+	}
+
+	@Override
+	public void close()
+	{
+		try
+		{
+			// wakes the watcher thread up, which then stops
+			this.watchService.close();
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.error("Error closing autopalette file watcher");
+			e.printStackTrace();
+		}
+	}
+
+	protected void run()
+	{
+		try
+		{
+			while (true)
+			{
+				Set<ResourceLocation> changedFiles = new HashSet<>();
+				// wait for something to change, then keep collecting changes until the files have been quiet for a while
+				WatchKey key = this.watchService.take();
+				while (key != null)
+				{
+					this.handleEvents(key, changedFiles);
+					key = this.watchService.poll(this.debounceMillis, TimeUnit.MILLISECONDS);
+				}
+				if (!changedFiles.isEmpty())
+				{
+					try
+					{
+						this.listener.accept(changedFiles);
+					}
+					catch (RuntimeException e)
+					{
+						// one bad batch shouldn't stop us from watching for the next one
+						AutopalettePack.LOGGER.error("Unexpected error hot reloading autotextures {}", changedFiles);
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+		catch (ClosedWatchServiceException | InterruptedException e)
+		{
+			// closed, we're done
+		}
+	}
+
+	protected void handleEvents(WatchKey key, Set<ResourceLocation> changedFiles)
+	{
+		WatchedFolder folder = this.folders.get(key);
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (folder == null)
+			{
+				continue;
+			}
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				AutopalettePack.LOGGER.warn("Too many files changed at once in {} for autopalette to keep track of, some autotextures may need resources to be reloaded", folder.path());
+				continue;
+			}
+			Path path = folder.path().resolve((Path)event.context());
+			if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+			{
+				// files can be created in a new folder before we start watching it, so we count everything already in it as changed
+				try
+				{
+					this.register(path, folder.assets(), changedFiles);
+				}
+				catch (IOException e)
+				{
+					AutopalettePack.LOGGER.error("Failed to watch new folder {} for autotexture changes", path);
+					e.printStackTrace();
+				}
+			}
+			else
+			{
+				toResourceID(folder.assets(), path).ifPresent(changedFiles::add);
+			}
+		}
+		if (!key.reset())
+		{
+			// the folder was deleted
+			this.folders.remove(key);
+		}
+	}
+
+	/**
+	 * Watches a folder and the folders inside it that can have autotexture jsons or textures in them
+	 * @param folder The folder to watch
+	 * @param assets The assets folder of the pack the folder is in
+	 * @param existingFiles If not null, the resource IDs of any files already in the folders are added to this
+	 * @throws IOException If the folders couldn't be watched
+	 */
+	protected void register(Path folder, Path assets, @Nullable Set<ResourceLocation> existingFiles) throws IOException
+	{
+		try (Stream<Path> paths = Files.walk(folder))
+		{
+			for (Path path : (Iterable<Path>)paths::iterator)
+			{
+				if (!isWatched(assets, path))
+				{
+					continue;
+				}
+				if (Files.isDirectory(path))
+				{
+					WatchKey key = path.register(this.watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+					this.folders.put(key, new WatchedFolder(path, assets));
+				}
+				else if (existingFiles != null)
+				{
+					toResourceID(assets, path).ifPresent(existingFiles::add);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param assets A pack's assets folder
+	 * @param path A file or folder in the assets folder
+	 * @return Whether the path is the assets folder itself, a namespace folder, or in a namespace's autotextures or textures folder
+	 */
+	public static boolean isWatched(Path assets, Path path)
+	{
+		Path relativePath = assets.relativize(path);
+		int depth = relativePath.getFileName().toString().isEmpty() ? 0 : relativePath.getNameCount();
+		if (depth < 2)
+		{
+			return true;
+		}
+		String folder = relativePath.getName(1).toString();
+		return folder.equals(AutopalettePack.DIRECTORY) || folder.equals(ParentPackIndex.TEXTURE_FOLDER);
+	}
+
+	/**
+	 * @param assets A pack's assets folder
+	 * @param file A file in the assets folder
+	 * @return The resource ID of the autotexture json or texture png the file affects, or empty if the file doesn't affect any autotextures
+	 */
+	public static Optional<ResourceLocation> toResourceID(Path assets, Path file)
+	{
+		Path relativePath = assets.relativize(file);
+		if (relativePath.getNameCount() < 3)
+		{
+			return Optional.empty();
+		}
+		String namespace = relativePath.getName(0).toString();
+		String folder = relativePath.getName(1).toString();
+		String path = relativePath.subpath(1, relativePath.getNameCount()).toString().replace(file.getFileSystem().getSeparator(), "/");
+		if (folder.equals(ParentPackIndex.TEXTURE_FOLDER) && path.endsWith(ParentPackIndex.TEXTURE_EXTENSION + ResourceIndex.METADATA_EXTENSION))
+		{
+			path = path.substring(0, path.length() - ResourceIndex.METADATA_EXTENSION.length());
+		}
+		boolean affectsAutotextures = folder.equals(AutopalettePack.DIRECTORY)
+			? path.endsWith(AutopalettePack.JSON_EXTENSION)
+			: folder.equals(ParentPackIndex.TEXTURE_FOLDER) && path.endsWith(ParentPackIndex.TEXTURE_EXTENSION);
+		if (!affectsAutotextures || !ResourceLocation.isValidNamespace(namespace) || !ResourceLocation.isValidPath(path))
+		{
+			return Optional.empty();
+		}
+		return Optional.of(new ResourceLocation(namespace, path));
+	}
+
+	/**
+	 * @param path A watched folder
+	 * @param assets The assets folder of the pack the watched folder is in
+	 */
+	protected static record WatchedFolder(Path path, Path assets) {}
+}
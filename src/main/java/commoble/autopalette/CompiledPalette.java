@@ -0,0 +1,268 @@
+package commoble.autopalette;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * A palette swap map compiled into sorted primitive arrays, for fast lookups in the inner loop of the image transform.
+ * Palettes with a tolerance also replace colors that are near a key but don't match it exactly,
+ * using a k-d tree over the keys to find the nearest one.
+ * Colors are in the same AABBGGRR format that NativeImage uses. Immutable and safe to share between threads.
+ */
+public class CompiledPalette
+{
+	// palettes this small are faster to scan than to binary search
+	public static final int LINEAR_SCAN_THRESHOLD = 8;
+	// the distance between transparent black and opaque white, any tolerance this big matches every color
+	public static final int MAX_TOLERANCE = 510;
+
+	private final int[] keys; // sorted
+	private final int[] values; // values[i] is the replacement for keys[i]
+	// how far a color can be from a key to be replaced by that key's value, 0 for exact matches only
+	private final int tolerance;	public int getTolerance() { return this.tolerance; }
+	// null if the palette only replaces exact matches
+	private final @Nullable NearestColorTree nearestKeys;
+
+	protected CompiledPalette(int[] keys, int[] values, int tolerance)
+	{
+		if (tolerance < 0 || tolerance > MAX_TOLERANCE)
+		{
+			throw new IllegalArgumentException("Invalid palette tolerance " + tolerance);
+		}
+		this.keys = keys;
+		this.values = values;
+		this.tolerance = tolerance;
+		this.nearestKeys = tolerance > 0 && keys.length > 0 ? NearestColorTree.of(keys) : null;
+	}
+
+	/**
+	 * @param map An int-to-int palette swap map
+	 * @return A compiled palette that maps colors the same way the map does
+	 */
+	public static CompiledPalette compile(Int2IntMap map)
+	{
+		return compile(map, 0);
+	}
+
+	/**
+	 * @param map An int-to-int palette swap map
+	 * @param tolerance The furthest a color can be from a key to be replaced by that key's value, or 0 to only replace exact matches.
+	 * Distances are euclidean over the red, green, blue, and alpha channels.
+	 * @return A compiled palette that maps colors the same way the map does, and also maps colors near the map's keys
+	 * @throws IllegalArgumentException If the tolerance is out of range
+	 */
+	public static CompiledPalette compile(Int2IntMap map, int tolerance)
+	{
+		int size = map.size();
+		int[] keys = new int[size];
+		int i = 0;
+		for (Int2IntMap.Entry entry : map.int2IntEntrySet())
+		{
+			keys[i++] = entry.getIntKey();
+		}
+		Arrays.sort(keys);
+		int[] values = new int[size];
+		for (i=0; i<size; i++)
+		{
+			values[i] = map.get(keys[i]);
+		}
+		return new CompiledPalette(keys, values, tolerance);
+	}
+
+	/**
+	 * @param keys Colors to replace, sorted in ascending order with no duplicates, which are not copied
+	 * @param values The replacement for each color, which are not copied
+	 * @param tolerance The furthest a color can be from a key to be replaced by that key's value, or 0 to only replace exact matches
+	 * @return A compiled palette that replaces each key with its value
+	 * @throws IllegalArgumentException If the keys aren't sorted, the arrays are different lengths, or the tolerance is out of range
+	 */
+	public static CompiledPalette of(int[] keys, int[] values, int tolerance)
+	{
+		if (keys.length != values.length)
+		{
+			throw new IllegalArgumentException(String.format("Palette has %s keys but %s values", keys.length, values.length));
+		}
+		for (int i=1; i<keys.length; i++)
+		{
+			if (keys[i-1] >= keys[i])
+			{
+				throw new IllegalArgumentException("Palette keys are not sorted");
+			}
+		}
+		return new CompiledPalette(keys, values, tolerance);
+	}
+
+	/**
+	 * @return A new int-to-int palette swap map that maps colors the same way this palette does
+	 */
+	public Int2IntMap toMap()
+	{
+		Int2IntMap map = new Int2IntOpenHashMap(this.keys.length);
+		for (int i=0; i<this.keys.length; i++)
+		{
+			map.put(this.keys[i], this.values[i]);
+		}
+		return map;
+	}
+
+	/**
+	 * @param index An index from 0 to {@link #size()} (exclusive)
+	 * @return The color at that index of the sorted keys
+	 */
+	public int getKey(int index)
+	{
+		return this.keys[index];
+	}
+
+	/**
+	 * @param index An index from 0 to {@link #size()} (exclusive)
+	 * @return The replacement for the color at that index of the sorted keys
+	 */
+	public int getValue(int index)
+	{
+		return this.values[index];
+	}
+
+	public int size()
+	{
+		return this.keys.length;
+	}
+
+	public boolean isEmpty()
+	{
+		return this.keys.length == 0;
+	}
+
+	/**
+	 * @param color A color in AABBGGRR format
+	 * @return The color's replacement, or the same color if the palette doesn't replace it
+	 */
+	public int apply(int color)
+	{
+		int index = this.indexOf(color);
+		if (index < 0 && this.nearestKeys != null)
+		{
+			index = this.nearestKeys.findNearest(color, this.tolerance);
+		}
+		return index < 0 ? color : this.values[index];
+	}
+
+	// nearest key searches cost more than exact lookups, so colors are memoized when the palette has a tolerance
+	private int apply(int color, @Nullable Int2IntMap memo)
+	{
+		if (memo == null)
+		{
+			return this.apply(color);
+		}
+		if (memo.containsKey(color))
+		{
+			return memo.get(color);
+		}
+		int result = this.apply(color);
+		memo.put(color, result);
+		return result;
+	}
+
+	private @Nullable Int2IntMap makeMemo()
+	{
+		return this.nearestKeys == null ? null : new Int2IntOpenHashMap();
+	}
+
+	/**
+	 * @param color A color in AABBGGRR format
+	 * @return The index of the color in the sorted keys, or -1 if the palette doesn't replace it
+	 */
+	protected int indexOf(int color)
+	{
+		int[] keys = this.keys;
+		if (keys.length <= LINEAR_SCAN_THRESHOLD)
+		{
+			for (int i=0; i<keys.length; i++)
+			{
+				if (keys[i] == color)
+				{
+					return i;
+				}
+			}
+			return -1;
+		}
+		int index = Arrays.binarySearch(keys, color);
+		return index < 0 ? -1 : index;
+	}
+
+	/**
+	 * Replaces colors in a range of a pixel buffer *in-place*
+	 * @param pixels Pixels in AABBGGRR format
+	 * @param from The index of the first pixel to transform (inclusive)
+	 * @param to The index after the last pixel to transform (exclusive)
+	 * @return True if any pixels were changed, false otherwise
+	 */
+	public boolean transform(int[] pixels, int from, int to)
+	{
+		if (this.isEmpty() || from >= to)
+		{
+			return false;
+		}
+		boolean changed = false;
+		Int2IntMap memo = this.makeMemo();
+		// textures tend to have runs of the same color, so remember the last lookup
+		int lastColor = pixels[from];
+		int lastResult = this.apply(lastColor, memo);
+		for (int i=from; i<to; i++)
+		{
+			int color = pixels[i];
+			if (color != lastColor)
+			{
+				lastColor = color;
+				lastResult = this.apply(color, memo);
+			}
+			if (lastResult != color)
+			{
+				pixels[i] = lastResult;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Replaces colors in a copy of a pixel buffer, without copying anything if no colors would be replaced
+	 * @param pixels Pixels in AABBGGRR format, which are not modified
+	 * @return A transformed copy of the pixels, or null if the palette doesn't change any of them
+	 */
+	public @Nullable int[] transformCopy(int[] pixels)
+	{
+		if (this.isEmpty() || pixels.length == 0)
+		{
+			return null;
+		}
+		// we don't copy anything until we find the first pixel that changes,
+		// so palettes that don't touch the image cost one read-only pass
+		int[] result = null;
+		Int2IntMap memo = this.makeMemo();
+		int lastColor = pixels[0];
+		int lastResult = this.apply(lastColor, memo);
+		for (int i=0; i<pixels.length; i++)
+		{
+			int color = pixels[i];
+			if (color != lastColor)
+			{
+				lastColor = color;
+				lastResult = this.apply(color, memo);
+			}
+			if (lastResult != color)
+			{
+				if (result == null)
+				{
+					result = pixels.clone();
+				}
+				result[i] = lastResult;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,18 @@
+package commoble.autopalette;
+
+/**
+ * A texture generated by a palette override, along with everything it was generated from.
+ * Kept between reloads so that overrides whose inputs haven't changed don't need to be generated again.
+ * @param jsonHash A hash of the autotexture json from {@link OverrideIndex#hashJson}
+ * @param override The palette override parsed from the json
+ * @param inputs The inputs the texture was generated from
+ * @param texture The generated texture
+ */
+public record GeneratedOverride(String jsonHash, PaletteOverride override, Inputs inputs, GeneratedTexture texture)
+{
+	/**
+	 * @param contentKey A key created by {@link TextureCache#makeKey} from the override json, source pack ID, parent texture files, and mask textures
+	 * @param packSelected Whether the source pack was selected when the texture was generated
+	 */
+	public record Inputs(String contentKey, boolean packSelected) {}
+}
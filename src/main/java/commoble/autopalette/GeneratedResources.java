@@ -0,0 +1,41 @@
+package commoble.autopalette;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * The resources served by the virtual pack after a reload
+ */
+public interface GeneratedResources
+{
+	/**
+	 * @param id A resource ID, e.g. autopalette:textures/block/dark_cobblestone.png
+	 * @return Whether the virtual pack has that resource
+	 */
+	public boolean contains(ResourceLocation id);
+
+	/**
+	 * @param id A resource ID, e.g. autopalette:textures/block/dark_cobblestone.png
+	 * @return The encoded bytes of that resource, or null if there is no such resource. The array must not be modified.
+	 */
+	public @Nullable byte[] get(ResourceLocation id);
+
+	/**
+	 * @return The namespaces of the virtual pack's resources
+	 */
+	public Set<String> getNamespaces();
+
+	/**
+	 * Finds the resources in a folder and its subfolders, the same way folder packs do
+	 * @param namespace The namespace to look in
+	 * @param folder The folder to look in, e.g. textures/block
+	 * @param filter Which resources to include
+	 * @return The resources in the folder that pass the filter, not including .mcmeta files
+	 */
+	public Collection<ResourceLocation> getResources(String namespace, String folder, Predicate<ResourceLocation> filter);
+}
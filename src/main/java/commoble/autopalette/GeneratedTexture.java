@@ -0,0 +1,19 @@
+package commoble.autopalette;
+
+import javax.annotation.Nullable;
+
+/**
+ * The encoded output of a palette override
+ * @param image The generated texture, as png bytes
+ * @param metadata The texture's .mcmeta json as utf-8 bytes, or null if the parent texture had no metadata
+ */
+public record GeneratedTexture(byte[] image, @Nullable byte[] metadata)
+{
+	/**
+	 * @return The total number of bytes held by this texture
+	 */
+	public int size()
+	{
+		return this.image.length + (this.metadata == null ? 0 : this.metadata.length);
+	}
+}
@@ -0,0 +1,100 @@
+package commoble.autopalette;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.repository.Pack;
+
+/**
+ * Holds everything that texture generation needs during a single resource reload.
+ * Shared by all generation tasks of that reload, so everything here must be safe to use from multiple threads.
+ */
+public class GenerationContext
+{
+	private final Map<String,Pack> selectedPacks;	public Map<String,Pack> getSelectedPacks() { return this.selectedPacks; }
+	private final Map<String,Pack> unselectedPacks;	public Map<String,Pack> getUnselectedPacks() { return this.unselectedPacks; }
+	private final ResourceStore store;	public ResourceStore getStore() { return this.store; }
+	private final @Nullable TextureCache cache;	public @Nullable TextureCache getCache() { return this.cache; }
+	private final GenerationMetrics metrics;	public GenerationMetrics getMetrics() { return this.metrics; }
+	// overrides parsed by earlier reloads and game sessions, keyed by json hash
+	private final OverrideIndex overrideIndex;	public OverrideIndex getOverrideIndex() { return this.overrideIndex; }
+	private final MemoryBudget memoryBudget;	public MemoryBudget getMemoryBudget() { return this.memoryBudget; }
+	// the fewest pixels a texture needs to be transformed in parallel bands, or 0 to never split textures
+	private final int splitThreshold;	public int getSplitThreshold() { return this.splitThreshold; }
+	private final PackHandles packs;	public PackHandles getPacks() { return this.packs; }
+	private final ParentTextureCache parentTextures;	public ParentTextureCache getParentTextures() { return this.parentTextures; }
+	private final ParentPackIndex parentPacks;	public ParentPackIndex getParentPacks() { return this.parentPacks; }
+	// overrides generated by the previous reload, keyed by autotexture json ID
+	private final Map<ResourceLocation, GeneratedOverride> previousOverrides;
+	// overrides generated by this reload, keyed by autotexture json ID
+	private final Map<ResourceLocation, GeneratedOverride> generatedOverrides = new ConcurrentHashMap<>();	public Map<ResourceLocation, GeneratedOverride> getGeneratedOverrides() { return this.generatedOverrides; }
+	private final AtomicInteger reusedOverrides = new AtomicInteger();	public int getReusedOverrideCount() { return this.reusedOverrides.get(); }
+
+	/**
+	 * @param selectedPacks The selected packs, keyed by ID, in the same order as the pack repository's selected packs
+	 * @param unselectedPacks The available packs that aren't selected, keyed by ID
+	 * @param store The store to put generated resources in
+	 * @param cache The disk cache, or null if it's disabled
+	 * @param previousOverrides The overrides generated by the previous reload, keyed by autotexture json ID
+	 * @param overrideIndex The overrides parsed by earlier reloads and game sessions
+	 * @param metrics The metrics to time generation with
+	 * @param memoryBudget The budget that limits how much memory generation may use at once
+	 * @param splitThreshold The fewest pixels a texture needs to be transformed in parallel bands, or 0 to never split textures
+	 * @param resourcePackDirectory The client's resourcepacks folder, whose packs can be read with NIO, or null to read every pack through its input streams
+	 */
+	public GenerationContext(Map<String,Pack> selectedPacks, Map<String,Pack> unselectedPacks, ResourceStore store, @Nullable TextureCache cache,
+		Map<ResourceLocation, GeneratedOverride> previousOverrides, OverrideIndex overrideIndex, GenerationMetrics metrics, MemoryBudget memoryBudget, int splitThreshold,
+		@Nullable Path resourcePackDirectory)
+	{
+		this.selectedPacks = selectedPacks;
+		this.unselectedPacks = unselectedPacks;
+		this.store = store;
+		this.cache = cache;
+		this.previousOverrides = previousOverrides;
+		this.overrideIndex = overrideIndex;
+		this.metrics = metrics;
+		this.memoryBudget = memoryBudget;
+		this.splitThreshold = splitThreshold;
+		this.packs = new PackHandles(metrics, resourcePackDirectory);
+		this.parentTextures = new ParentTextureCache(this.packs, metrics, memoryBudget);
+		// the pack repository lists selected packs lowest priority first
+		// our own pack is selected too, but listing its textures waits for the generation that's asking, so it's left out
+		List<Pack> parentPacks = selectedPacks.values()
+			.stream()
+			.filter(info -> !info.getId().equals(AutopalettePack.PACK_ID))
+			.toList();
+		this.parentPacks = new ParentPackIndex(Lists.reverse(parentPacks), this.packs, metrics);
+	}
+
+	/**
+	 * @param overrideID The ID of an autotexture json
+	 * @return The override generated from that json during the previous reload, or null if there was none
+	 */
+	public @Nullable GeneratedOverride getPreviousOverride(ResourceLocation overrideID)
+	{
+		return this.previousOverrides.get(overrideID);
+	}
+
+	/**
+	 * Records a texture generated (or reused) by this reload, so the next reload can reuse it
+	 * @param overrideID The ID of the autotexture json the texture was generated from
+	 * @param generated The generated texture and its inputs
+	 * @param reused Whether the texture was reused from the previous reload instead of being generated again
+	 */
+	public void putGeneratedOverride(ResourceLocation overrideID, GeneratedOverride generated, boolean reused)
+	{
+		this.generatedOverrides.put(overrideID, generated);
+		if (reused)
+		{
+			this.reusedOverrides.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.profiling.ProfilerFiller;
+
+/**
+ * Times each phase of autotexture generation during a single reload, both in total and for each override,
+ * so slow reloads can be traced back to the overrides that made them slow.
+ * Safe to use from multiple threads.
+ */
+public class GenerationMetrics
+{
+	public static final Gson REPORT_GSON = new GsonBuilder().setPrettyPrinting().create();
+
+	public enum Phase
+	{
+		LIST_JSONS("list_jsons"),
+		READ_JSON("read_json"),
+		OVERRIDE_INDEX("override_index"),
+		PARSE("parse"),
+		PACK_OPEN("pack_open"),
+		PACK_INDEX("pack_index"),
+		PARENT_READ("parent_read"),
+		PARENT_DECODE("parent_decode"),
+		PARENT_INDEX("parent_index"),
+		INPUT_HASH("input_hash"),
+		DISK_CACHE("disk_cache"),
+		TRANSFORM("transform"),
+		DEDUPE("dedupe"),
+		ENCODE("encode"),
+		CACHE_ENCODE("cache_encode"),
+		METADATA("metadata");
+
+		private final String name;	public String getName() { return this.name; }
+
+		Phase(String name)
+		{
+			this.name = name;
+		}
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final int slowestOverrideCount;	public int getSlowestOverrideCount() { return this.slowestOverrideCount; }
+	private final @Nullable Path reportFile;	public @Nullable Path getReportFile() { return this.reportFile; }
+	private final LongAdder[] phaseNanos = new LongAdder[PHASES.length];
+	private final LongAdder[] phaseCounts = new LongAdder[PHASES.length];
+	private final Queue<OverrideTimings> overrides = new ConcurrentLinkedQueue<>();
+	// the override being generated on each thread, so phases timed deep in the generation code can be attributed to it
+	private final ThreadLocal<OverrideTimings> currentOverride = new ThreadLocal<>();
+	// the overrides sharing the work being done on each thread, e.g. a batch transformed in one pass over its parent
+	private final ThreadLocal<List<OverrideTimings>> sharedOverrides = new ThreadLocal<>();
+	// vanilla profilers aren't threadsafe, so this is only set while generation runs on a single thread,
+	// and phases only show up as profiler sections when parallel generation is off
+	private volatile @Nullable ProfilerFiller sectionProfiler = null;
+
+	/**
+	 * @param slowestOverrideCount How many of the slowest overrides to list in the log and the report
+	 * @param reportFile The file to write a json report to when generation is finished, or null to not write one
+	 */
+	public GenerationMetrics(int slowestOverrideCount, @Nullable Path reportFile)
+	{
+		this.slowestOverrideCount = slowestOverrideCount;
+		this.reportFile = reportFile;
+		for (int i=0; i<PHASES.length; i++)
+		{
+			this.phaseNanos[i] = new LongAdder();
+			this.phaseCounts[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Sets the profiler that timed phases are pushed to as sections
+	 * @param profiler The profiler to push sections to, or null to stop pushing sections.
+	 * Must only be used from one thread at a time until it is unset.
+	 */
+	public void setSectionProfiler(@Nullable ProfilerFiller profiler)
+	{
+		this.sectionProfiler = profiler;
+	}
+
+	/**
+	 * Starts timing a phase. Use with try-with-resources.
+	 * @param phase The phase to time
+	 * @return A timer that records the phase's time when closed
+	 */
+	public Timer time(Phase phase)
+	{
+		ProfilerFiller profiler = this.sectionProfiler;
+		if (profiler != null)
+		{
+			profiler.push(phase.getName());
+		}
+		return new Timer(phase, profiler, System.nanoTime());
+	}
+
+	/**
+	 * Starts timing an override. Phases timed on this thread are attributed to it until {@link #finishOverride} is called.
+	 * @param overrideID The ID of the override's autotexture json
+	 * @return The override's timings
+	 */
+	public OverrideTimings startOverride(ResourceLocation overrideID)
+	{
+		OverrideTimings timings = new OverrideTimings(overrideID, System.nanoTime());
+		this.currentOverride.set(timings);
+		return timings;
+	}
+
+	/**
+	 * Stops timing an override on this thread while it waits for something, e.g. memory
+	 * @param timings The timings returned by {@link #startOverride}
+	 */
+	public void suspendOverride(OverrideTimings timings)
+	{
+		timings.totalNanos += System.nanoTime() - timings.resumeTime;
+		this.currentOverride.remove();
+	}
+
+	/**
+	 * Continues timing a suspended override on this thread, which need not be the thread it was started on
+	 * @param timings The timings returned by {@link #startOverride}
+	 */
+	public void resumeOverride(OverrideTimings timings)
+	{
+		timings.resumeTime = System.nanoTime();
+		this.currentOverride.set(timings);
+	}
+
+	/**
+	 * Starts timing work that several suspended overrides share, e.g. transforming a batch of overrides in one pass over their parent.
+	 * Phases timed on this thread are split equally between the overrides until the returned timer is closed,
+	 * and so is the total time until then. Use with try-with-resources.
+	 * The overrides in a batch all have the same parent, so they all have the same number of pixels to transform.
+	 * @param timings The timings of the overrides sharing the work, which must not be being timed on any thread
+	 * @return A timer that stops sharing phases between the overrides when closed
+	 */
+	public SharedTimer shareTime(List<OverrideTimings> timings)
+	{
+		this.sharedOverrides.set(timings);
+		return new SharedTimer(timings, System.nanoTime());
+	}
+
+	/**
+	 * Finishes timing an override that is being timed on this thread
+	 * @param timings The timings returned by {@link #startOverride}
+	 */
+	public void finishOverride(OverrideTimings timings)
+	{
+		this.suspendOverride(timings);
+		this.overrides.add(timings);
+	}
+
+	protected void record(Phase phase, long nanos)
+	{
+		int index = phase.ordinal();
+		this.phaseNanos[index].add(nanos);
+		this.phaseCounts[index].increment();
+		OverrideTimings timings = this.currentOverride.get();
+		if (timings != null)
+		{
+			timings.phaseNanos[index] += nanos;
+		}
+		List<OverrideTimings> sharedTimings = this.sharedOverrides.get();
+		if (sharedTimings != null && !sharedTimings.isEmpty())
+		{
+			long share = nanos / sharedTimings.size();
+			for (OverrideTimings sharedTiming : sharedTimings)
+			{
+				sharedTiming.phaseNanos[index] += share;
+			}
+		}
+	}
+
+	/**
+	 * @param phase A phase
+	 * @return The total time spent in the phase, summed across all threads
+	 */
+	public long getPhaseNanos(Phase phase)
+	{
+		return this.phaseNanos[phase.ordinal()].sum();
+	}
+
+	/**
+	 * @param phase A phase
+	 * @return How many times the phase was timed
+	 */
+	public long getPhaseCount(Phase phase)
+	{
+		return this.phaseCounts[phase.ordinal()].sum();
+	}
+
+	/**
+	 * @param count The maximum number of overrides to get
+	 * @return The slowest overrides, slowest first
+	 */
+	public List<OverrideTimings> getSlowestOverrides(int count)
+	{
+		return this.overrides.stream()
+			.sorted(Comparator.comparingLong(OverrideTimings::getTotalNanos).reversed())
+			.limit(count)
+			.toList();
+	}
+
+	/**
+	 * @return A one-line summary of the time spent in each phase, for logging
+	 */
+	public String summarizePhases()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (Phase phase : PHASES)
+		{
+			if (builder.length() > 0)
+			{
+				builder.append(", ");
+			}
+			builder.append(phase.getName())
+				.append(' ')
+				.append(toMillis(this.getPhaseNanos(phase)))
+				.append(" ms (")
+				.append(this.getPhaseCount(phase))
+				.append(')');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return A one-line summary of the slowest overrides, for logging
+	 */
+	public String summarizeSlowestOverrides()
+	{
+		return this.getSlowestOverrides(this.slowestOverrideCount)
+			.stream()
+			.map(timings -> timings.getOverrideID() + " " + toMillis(timings.getTotalNanos()) + " ms")
+			.collect(Collectors.joining(", "));
+	}
+
+	/**
+	 * Builds a machine-readable report of this reload's timings
+	 * @param totalNanos How long generation took from start to finish
+	 * @param mode How overrides were generated: parallel, serial, or lazy
+	 * @return The report
+	 */
+	public JsonObject makeReport(long totalNanos, String mode)
+	{
+		JsonObject report = new JsonObject();
+		report.addProperty("total_ms", toMillis(totalNanos));
+		report.addProperty("mode", mode);
+		report.addProperty("overrides", this.overrides.size());
+		// in parallel and lazy mode these are summed across threads, so they can add up to more than the total time
+		JsonObject phases = new JsonObject();
+		for (Phase phase : PHASES)
+		{
+			JsonObject phaseJson = new JsonObject();
+			phaseJson.addProperty("ms", toMillis(this.getPhaseNanos(phase)));
+			phaseJson.addProperty("count", this.getPhaseCount(phase));
+			phases.add(phase.getName(), phaseJson);
+		}
+		report.add("phases", phases);
+		JsonArray slowest = new JsonArray();
+		for (OverrideTimings timings : this.getSlowestOverrides(this.slowestOverrideCount))
+		{
+			slowest.add(timings.toJson());
+		}
+		report.add("slowest_overrides", slowest);
+		return report;
+	}
+
+	/**
+	 * Writes a report to the report file, if there is one
+	 * @param report The report to write
+	 */
+	public void writeReport(JsonObject report)
+	{
+		if (this.reportFile == null)
+		{
+			return;
+		}
+		try
+		{
+			Files.createDirectories(this.reportFile.getParent());
+			Files.writeString(this.reportFile, REPORT_GSON.toJson(report));
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.error("Failed to write autopalette generation report to {}", this.reportFile);
+			e.printStackTrace();
+		}
+	}
+
+	public static double toMillis(long nanos)
+	{
+		// two decimal places is plenty for finding slow overrides
+		return Math.round(nanos / 10_000D) / 100D;
+	}
+
+	/**
+	 * Times a phase from when it's created until it's closed
+	 */
+	public class Timer implements AutoCloseable
+	{
+		private final Phase phase;
+		private final @Nullable ProfilerFiller profiler;
+		private final long startTime;
+
+		protected Timer(Phase phase, @Nullable ProfilerFiller profiler, long startTime)
+		{
+			this.phase = phase;
+			this.profiler = profiler;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public void close()
+		{
+			GenerationMetrics.this.record(this.phase, System.nanoTime() - this.startTime);
+			if (this.profiler != null)
+			{
+				this.profiler.pop();
+			}
+		}
+	}
+
+	/**
+	 * Splits the time spent on shared work between the overrides sharing it, from when it's created until it's closed
+	 */
+	public class SharedTimer implements AutoCloseable
+	{
+		private final List<OverrideTimings> timings;
+		private final long startTime;
+
+		protected SharedTimer(List<OverrideTimings> timings, long startTime)
+		{
+			this.timings = timings;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public void close()
+		{
+			GenerationMetrics.this.sharedOverrides.remove();
+			if (this.timings.isEmpty())
+			{
+				return;
+			}
+			long share = (System.nanoTime() - this.startTime) / this.timings.size();
+			for (OverrideTimings timing : this.timings)
+			{
+				timing.totalNanos += share;
+			}
+		}
+	}
+
+	/**
+	 * The time spent generating a single override, and how that time was spent.
+	 * Time spent waiting for memory isn't counted.
+	 */
+	public static class OverrideTimings
+	{
+		private final ResourceLocation overrideID;	public ResourceLocation getOverrideID() { return this.overrideID; }
+		// only written by the thread generating the override at the time
+		private final long[] phaseNanos = new long[PHASES.length];
+		private long resumeTime;
+		private long totalNanos = 0L;	public long getTotalNanos() { return this.totalNanos; }
+
+		protected OverrideTimings(ResourceLocation overrideID, long startTime)
+		{
+			this.overrideID = overrideID;
+			this.resumeTime = startTime;
+		}
+
+		/**
+		 * @param phase A phase
+		 * @return The time this override spent in the phase
+		 */
+		public long getPhaseNanos(Phase phase)
+		{
+			return this.phaseNanos[phase.ordinal()];
+		}
+
+		public JsonObject toJson()
+		{
+			JsonObject json = new JsonObject();
+			json.addProperty("id", this.overrideID.toString());
+			json.addProperty("total_ms", toMillis(this.totalNanos));
+			JsonObject phases = new JsonObject();
+			for (Phase phase : PHASES)
+			{
+				long nanos = this.getPhaseNanos(phase);
+				if (nanos > 0L)
+				{
+					phases.addProperty(phase.getName(), toMillis(nanos));
+				}
+			}
+			json.add("phases", phases);
+			return json;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package commoble.autopalette;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * An image stored as its distinct colors and, for each pixel, the index of that pixel's color.
+ * Textures tend to use only a few dozen colors, so a palette swap or any other color operation only has to look up each distinct color once,
+ * and any number of palettes or operation pipelines can be applied to the same image in one pass over its pixels.
+ * Immutable and safe to share between threads.
+ * @param width The width of the image in pixels
+ * @param height The height of the image in pixels
+ * @param colors The image's distinct colors, in the same ABGR format as NativeImage
+ * @param indices The index in colors of each pixel's color, in the same row-major order as PixelImage
+ */
+public record IndexedImage(int width, int height, int[] colors, int[] indices)
+{
+	/**
+	 * @param image The image to index, which is not modified
+	 * @return An indexed image with the same pixels as the given image
+	 */
+	public static IndexedImage of(PixelImage image)
+	{
+		int[] pixels = image.pixels();
+		int[] indices = new int[pixels.length];
+		IntArrayList colors = new IntArrayList();
+		Int2IntMap colorIndices = new Int2IntOpenHashMap();
+		colorIndices.defaultReturnValue(-1);
+		// textures tend to have runs of the same color, so remember the last lookup
+		int lastColor = 0;
+		int lastIndex = -1;
+		for (int i=0; i<pixels.length; i++)
+		{
+			int color = pixels[i];
+			if (color != lastColor || lastIndex < 0)
+			{
+				lastColor = color;
+				lastIndex = colorIndices.get(color);
+				if (lastIndex < 0)
+				{
+					lastIndex = colors.size();
+					colors.add(color);
+					colorIndices.put(color, lastIndex);
+				}
+			}
+			indices[i] = lastIndex;
+		}
+		return new IndexedImage(image.width(), image.height(), colors.toIntArray(), indices);
+	}
+
+	/**
+	 * Applies several palettes to this image at once, looking up each distinct color once per palette
+	 * and then filling in every palette's pixels in a single pass over this image's pixels
+	 * @param palettes The palettes to apply
+	 * @return One new image for each palette, in the same order as the palettes.
+	 * Where a palette doesn't change any of this image's colors, its image is null instead.
+	 */
+	public PixelImage[] recolor(List<CompiledPalette> palettes)
+	{
+		return this.recolor(palettes, 0, 0);
+	}
+
+	/**
+	 * Applies several palettes to this image at once, splitting large images into bands of rows that are filled in parallel
+	 * @param palettes The palettes to apply
+	 * @param frameHeight The height of the image's animation frames, or 0 if it isn't animated. Bands are aligned to whole frames.
+	 * @param splitThreshold The fewest pixels an image must have to be split into bands, or 0 to never split
+	 * @return One new image for each palette, in the same order as the palettes.
+	 * Where a palette doesn't change any of this image's colors, its image is null instead.
+	 * The pixels are the same as those from {@link #recolor(List)}.
+	 */
+	public PixelImage[] recolor(List<CompiledPalette> palettes, int frameHeight, int splitThreshold)
+	{
+		int paletteCount = palettes.size();
+		int[][] mappedColors = new int[paletteCount][];
+		for (int i=0; i<paletteCount; i++)
+		{
+			mappedColors[i] = palettes.get(i).transformCopy(this.colors);
+		}
+		return this.fill(mappedColors, new OperationPipeline.Bound[paletteCount], frameHeight, splitThreshold);
+	}
+
+	/**
+	 * Applies several operation pipelines to this image at once. Each pipeline's color operations are applied to each distinct color once,
+	 * and then every pipeline's pixels are filled in, running any per-pixel operations, in a single pass over this image's pixels.
+	 * Large images are split into bands of rows that are filled in parallel.
+	 * @param pipelines The pipelines to apply, bound to their masks, which must be the same size as this image
+	 * @param frameHeight The height of the image's animation frames, or 0 if it isn't animated. Bands are aligned to whole frames.
+	 * @param splitThreshold The fewest pixels an image must have to be split into bands, or 0 to never split
+	 * @return One new image for each pipeline, in the same order as the pipelines.
+	 * Where a pipeline doesn't change any of this image's pixels, its image is null instead.
+	 */
+	public PixelImage[] transform(List<OperationPipeline.Bound> pipelines, int frameHeight, int splitThreshold)
+	{
+		int pipelineCount = pipelines.size();
+		int[][] mappedColors = new int[pipelineCount][];
+		OperationPipeline.Bound[] pixelPipelines = new OperationPipeline.Bound[pipelineCount];
+		for (int i=0; i<pipelineCount; i++)
+		{
+			OperationPipeline.Bound pipeline = pipelines.get(i);
+			int[] mapped = pipeline.pipeline().mapColors(this.colors);
+			if (pipeline.pipeline().hasPixelOperations())
+			{
+				// per-pixel operations can change the image even if the colors didn't
+				mappedColors[i] = mapped == null ? this.colors : mapped;
+				pixelPipelines[i] = pipeline;
+			}
+			else
+			{
+				mappedColors[i] = mapped;
+			}
+		}
+		return this.fill(mappedColors, pixelPipelines, frameHeight, splitThreshold);
+	}
+
+	/**
+	 * Fills in the pixels of several outputs in one pass over this image's pixels
+	 * @param mappedColors The colors each output maps this image's distinct colors to, or null where an output doesn't change this image
+	 * @param pixelPipelines The pipeline that fills in each output pixel by pixel, or null where an output only maps colors
+	 * @param frameHeight The height of the image's animation frames, or 0 if it isn't animated
+	 * @param splitThreshold The fewest pixels an image must have to be split into bands, or 0 to never split
+	 * @return One new image for each output, or null where an output doesn't change this image
+	 */
+	private PixelImage[] fill(int[][] mappedColors, OperationPipeline.Bound[] pixelPipelines, int frameHeight, int splitThreshold)
+	{
+		int slotCount = mappedColors.length;
+		PixelImage[] results = new PixelImage[slotCount];
+		// only the outputs that might change something get filled in
+		// outputs that only map colors are filled together, outputs with per-pixel operations are filled one at a time
+		int[][] colorOutputMappings = new int[slotCount][];
+		int[][] colorOutputs = new int[slotCount][];
+		int[] colorOutputSlots = new int[slotCount];
+		int colorOutputCount = 0;
+		int[][] pixelOutputs = new int[slotCount][];
+		int[] pixelOutputSlots = new int[slotCount];
+		AtomicBoolean[] pixelOutputsChanged = new AtomicBoolean[slotCount];
+		int pixelOutputCount = 0;
+		for (int i=0; i<slotCount; i++)
+		{
+			if (pixelPipelines[i] != null)
+			{
+				pixelOutputs[pixelOutputCount] = new int[this.indices.length];
+				pixelOutputSlots[pixelOutputCount] = i;
+				pixelOutputsChanged[pixelOutputCount] = new AtomicBoolean(false);
+				pixelOutputCount++;
+			}
+			else if (mappedColors[i] != null)
+			{
+				colorOutputMappings[colorOutputCount] = mappedColors[i];
+				colorOutputs[colorOutputCount] = new int[this.indices.length];
+				colorOutputSlots[colorOutputCount] = i;
+				colorOutputCount++;
+			}
+		}
+		if (colorOutputCount == 0 && pixelOutputCount == 0)
+		{
+			return results;
+		}
+		int[] colors = this.colors;
+		int[] indices = this.indices;
+		int finalColorOutputCount = colorOutputCount;
+		int finalPixelOutputCount = pixelOutputCount;
+		// every band writes its own rows of the same outputs
+		RowBands.forEachBand(this.width, this.height, frameHeight, splitThreshold, (from, to) ->
+		{
+			if (finalColorOutputCount == 1)
+			{
+				int[] mapped = colorOutputMappings[0];
+				int[] output = colorOutputs[0];
+				for (int i=from; i<to; i++)
+				{
+					output[i] = mapped[indices[i]];
+				}
+			}
+			else if (finalColorOutputCount > 1)
+			{
+				for (int i=from; i<to; i++)
+				{
+					int index = indices[i];
+					for (int output=0; output<finalColorOutputCount; output++)
+					{
+						colorOutputs[output][i] = colorOutputMappings[output][index];
+					}
+				}
+			}
+			for (int output=0; output<finalPixelOutputCount; output++)
+			{
+				int slot = pixelOutputSlots[output];
+				if (pixelPipelines[slot].fill(indices, colors, mappedColors[slot], pixelOutputs[output], from, to))
+				{
+					pixelOutputsChanged[output].set(true);
+				}
+			}
+		});
+		for (int output=0; output<colorOutputCount; output++)
+		{
+			results[colorOutputSlots[output]] = new PixelImage(this.width, this.height, colorOutputs[output]);
+		}
+		for (int output=0; output<pixelOutputCount; output++)
+		{
+			if (pixelOutputsChanged[output].get())
+			{
+				results[pixelOutputSlots[output]] = new PixelImage(this.width, this.height, pixelOutputs[output]);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return How much memory this image's arrays take up, in bytes
+	 */
+	public long getSize()
+	{
+		return 4L * (this.colors.length + this.indices.length);
+	}
+}
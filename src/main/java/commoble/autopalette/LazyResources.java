@@ -0,0 +1,219 @@
+package commoble.autopalette;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+
+/**
+ * The virtual pack's resources when autotextures are generated lazily.
+ * Reloads only index which autotextures exist; each texture is generated the first time something asks for it
+ * or for its metadata, and is kept in the reload's resource store from then on.
+ * Safe to use from multiple threads, and concurrent requests for the same texture share a single generation.
+ */
+public class LazyResources implements GeneratedResources, AutoCloseable
+{
+	private final GenerationContext context;
+	// keyed by the ID of each texture's png
+	private final Map<ResourceLocation, LazyTexture> textures = new HashMap<>();
+	// keyed by the ID of each texture's mcmeta, which may or may not exist
+	private final Map<ResourceLocation, LazyTexture> metadata = new HashMap<>();
+	// only the pngs are listed, so we don't need to know which textures have metadata
+	private final ResourceIndex index;
+	private final AtomicInteger generated = new AtomicInteger();
+	// how many textures are being generated right now, plus one until this is closed
+	// the packs are closed when this drops to zero, so a texture that started generating before this was closed can still finish
+	private final AtomicInteger users = new AtomicInteger(1);
+	private final AtomicBoolean closed = new AtomicBoolean(false);
+
+	/**
+	 * @param context The generation context to generate textures with. Its packs stay open until this is closed.
+	 * @param overrideFiles The autotexture jsons found by the reload, keyed by file
+	 */
+	public LazyResources(GenerationContext context, Map<ResourceLocation, Resource> overrideFiles)
+	{
+		this.context = context;
+		overrideFiles.forEach((file, resource) ->
+		{
+			LazyTexture texture = new LazyTexture(file, resource);
+			ResourceLocation textureID = AutopalettePack.makeTextureID(AutopalettePack.makeOverrideID(file));
+			this.textures.put(textureID, texture);
+			this.metadata.put(AutopalettePack.getMetadataLocation(textureID), texture);
+		});
+		this.index = ResourceIndex.of(this.textures.keySet());
+	}
+
+	@Override
+	public boolean contains(ResourceLocation id)
+	{
+		// we know which pngs we have without generating them,
+		// but we don't know whether a texture has metadata until we've read its parent
+		if (this.textures.containsKey(id))
+		{
+			return true;
+		}
+		LazyTexture texture = this.metadata.get(id);
+		if (texture == null)
+		{
+			return false;
+		}
+		this.generate(texture);
+		return this.context.getStore().contains(id);
+	}
+
+	@Override
+	public @Nullable byte[] get(ResourceLocation id)
+	{
+		LazyTexture texture = this.textures.get(id);
+		if (texture == null)
+		{
+			texture = this.metadata.get(id);
+		}
+		if (texture == null)
+		{
+			return null;
+		}
+		this.generate(texture);
+		return this.context.getStore().get(id);
+	}
+
+	@Override
+	public Set<String> getNamespaces()
+	{
+		return this.index.getNamespaces();
+	}
+
+	@Override
+	public Collection<ResourceLocation> getResources(String namespace, String folder, Predicate<ResourceLocation> filter)
+	{
+		return this.index.getResources(namespace, folder, filter);
+	}
+
+	protected void generate(LazyTexture texture)
+	{
+		// anything else asking for the same texture waits here until it's ready, instead of generating it again
+		synchronized(texture)
+		{
+			// once we're closed, a newer reload's resources are being served, so whatever asked for this texture won't be using it
+			if (!texture.generated && this.acquire())
+			{
+				try
+				{
+					texture.generated = true;
+					// never completes exceptionally, and only waits if the memory budget is used up by other textures
+					AutopalettePack.generateResources(texture.file, texture.resource, this.context, Runnable::run).join();
+					this.generated.incrementAndGet();
+				}
+				finally
+				{
+					this.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return How many autotextures were found by the reload
+	 */
+	public int getTextureCount()
+	{
+		return this.textures.size();
+	}
+
+	/**
+	 * @return How many autotextures have been generated so far
+	 */
+	public int getGeneratedCount()
+	{
+		return this.generated.get();
+	}
+
+	/**
+	 * @return The fraction of autotextures that nothing has asked for yet
+	 */
+	public double getUngeneratedFraction()
+	{
+		int textureCount = this.getTextureCount();
+		return textureCount == 0 ? 0D : 1D - ((double)this.getGeneratedCount() / textureCount);
+	}
+
+	public GenerationContext getContext()
+	{
+		return this.context;
+	}
+
+	/**
+	 * Closes the packs that textures were being generated from and saves the override index, once any textures that are being generated right now have finished.
+	 * Should be called once the next reload has replaced these resources.
+	 * Textures that haven't been generated yet won't be generated after this.
+	 */
+	@Override
+	public void close()
+	{
+		if (this.closed.compareAndSet(false, true))
+		{
+			this.release();
+		}
+	}
+
+	// lock-free so closing never waits on generation, and generation never waits on closing
+	protected boolean acquire()
+	{
+		int users;
+		do
+		{
+			users = this.users.get();
+			if (users == 0)
+			{
+				return false;
+			}
+		}
+		while (!this.users.compareAndSet(users, users + 1));
+		return true;
+	}
+
+	protected void release()
+	{
+		if (this.users.decrementAndGet() == 0)
+		{
+			this.closePacks();
+		}
+	}
+
+	protected void closePacks()
+	{
+		AutopalettePack.LOGGER.info("Generated {} of {} lazy autotextures before they were replaced", this.getGeneratedCount(), this.getTextureCount());
+		// nothing can generate textures from us anymore, so the overrides in the index are final now
+		// the jsons that were never requested weren't parsed, so they aren't saved in the index either
+		this.context.getOverrideIndex().save();
+		this.context.getParentTextures().clear();
+		this.context.getPacks().close();
+		TextureCache cache = this.context.getCache();
+		if (cache != null)
+		{
+			cache.trim();
+		}
+	}
+
+	protected static class LazyTexture
+	{
+		private final ResourceLocation file;
+		private final Resource resource;
+		// guarded by this texture's monitor
+		private boolean generated = false;
+
+		protected LazyTexture(ResourceLocation file, Resource resource)
+		{
+			this.file = file;
+			this.resource = resource;
+		}
+	}
+}
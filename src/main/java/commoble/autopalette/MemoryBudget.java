@@ -0,0 +1,162 @@
+package commoble.autopalette;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Limits how much working memory texture generation uses at once.
+ * Overrides reserve an estimate of the memory they need before they decode, transform, and encode their textures;
+ * when the budget is used up, later reservations wait until earlier overrides finish and release theirs.
+ * Memory that's held for longer than one override, like the parent texture files cached for the whole reload,
+ * is charged with {@link #retain} and leaves less room for reservations until it's released.
+ * Waiting for a reservation doesn't block any threads. Safe to use from multiple threads.
+ */
+public class MemoryBudget
+{
+	private final long maxBytes;	public long getMaxBytes() { return this.maxBytes; }
+	private final Deque<Reservation> waiting = new ArrayDeque<>();
+	// includes the retained bytes
+	private long reservedBytes = 0L;
+	private long retainedBytes = 0L;
+	private long peakReservedBytes = 0L;
+	private long peakHeapBytes = 0L;
+	private int waits = 0;
+
+	/**
+	 * @param maxBytes How many bytes can be reserved at once, or 0 for no limit
+	 */
+	public MemoryBudget(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Reserves memory, waiting for earlier reservations to be released if there isn't enough left
+	 * @param bytes How many bytes to reserve
+	 * @return A future that completes once the memory is reserved. Already completed if the memory was available right away.
+	 * Every reservation must be released with {@link #release} once the memory is no longer used.
+	 */
+	public CompletableFuture<Void> reserve(long bytes)
+	{
+		synchronized(this)
+		{
+			this.sampleHeap();
+			// reservations are granted in order, so big textures don't get starved by small ones
+			if (this.waiting.isEmpty() && this.fits(bytes))
+			{
+				this.grant(bytes);
+				return CompletableFuture.completedFuture(null);
+			}
+			this.waits++;
+			Reservation reservation = new Reservation(bytes, new CompletableFuture<>());
+			this.waiting.add(reservation);
+			return reservation.future();
+		}
+	}
+
+	/**
+	 * Releases reserved memory, and grants waiting reservations that fit in the budget now
+	 * @param bytes How many bytes were reserved
+	 */
+	public void release(long bytes)
+	{
+		List<CompletableFuture<Void>> granted = new ArrayList<>();
+		synchronized(this)
+		{
+			this.sampleHeap();
+			this.reservedBytes -= bytes;
+			while (!this.waiting.isEmpty() && this.fits(this.waiting.peek().bytes()))
+			{
+				Reservation reservation = this.waiting.poll();
+				this.grant(reservation.bytes());
+				granted.add(reservation.future());
+			}
+		}
+		// complete them outside the lock, since their continuations may reserve or release memory themselves
+		granted.forEach(future -> future.complete(null));
+	}
+
+	/**
+	 * Charges memory that's already in use to the budget, without waiting for room.
+	 * Retained memory must be released with {@link #releaseRetained} once it's no longer used.
+	 * @param bytes How many bytes are in use
+	 */
+	public synchronized void retain(long bytes)
+	{
+		this.sampleHeap();
+		this.retainedBytes += bytes;
+		this.grant(bytes);
+	}
+
+	/**
+	 * Releases memory charged with {@link #retain}, and grants waiting reservations that fit in the budget now
+	 * @param bytes How many bytes were retained
+	 */
+	public void releaseRetained(long bytes)
+	{
+		synchronized(this)
+		{
+			this.retainedBytes -= bytes;
+		}
+		this.release(bytes);
+	}
+
+	private boolean fits(long bytes)
+	{
+		// a reservation bigger than what's left of the budget still gets to run on its own, otherwise it could wait forever
+		return this.maxBytes <= 0L || this.reservedBytes == this.retainedBytes || this.reservedBytes + bytes <= this.maxBytes;
+	}
+
+	private void grant(long bytes)
+	{
+		this.reservedBytes += bytes;
+		this.peakReservedBytes = Math.max(this.peakReservedBytes, this.reservedBytes);
+	}
+
+	private void sampleHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		this.peakHeapBytes = Math.max(this.peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	/**
+	 * @return The most memory that was reserved at once
+	 */
+	public synchronized long getPeakReservedBytes()
+	{
+		return this.peakReservedBytes;
+	}
+
+	/**
+	 * @return The most heap memory that was in use when memory was reserved or released
+	 */
+	public synchronized long getPeakHeapBytes()
+	{
+		return this.peakHeapBytes;
+	}
+
+	/**
+	 * @return How many reservations had to wait for memory to be released
+	 */
+	public synchronized int getWaitCount()
+	{
+		return this.waits;
+	}
+
+	public synchronized JsonObject toJson()
+	{
+		JsonObject json = new JsonObject();
+		json.addProperty("budget_bytes", this.maxBytes);
+		json.addProperty("peak_reserved_bytes", this.peakReservedBytes);
+		json.addProperty("peak_heap_bytes", this.peakHeapBytes);
+		json.addProperty("waits", this.waits);
+		return json;
+	}
+
+	private record Reservation(long bytes, CompletableFuture<Void> future) {}
+}
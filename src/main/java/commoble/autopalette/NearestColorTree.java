@@ -0,0 +1,133 @@
+package commoble.autopalette;
+
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+/**
+ * A k-d tree over a palette's colors, for finding the palette color nearest to another color
+ * without comparing it to every color in the palette.
+ * Distances are euclidean, over the red, green, blue, and alpha channels.
+ * The tree is stored as a single array of palette indices, where each subrange's middle element is the node
+ * that splits the rest of the subrange in two, so it doesn't need any node objects.
+ * Immutable and safe to share between threads.
+ */
+public class NearestColorTree
+{
+	public static final int DIMENSIONS = 4;
+
+	private final int[] colors; // in AABBGGRR format, indexed by palette index
+	private final int[] nodes; // palette indices in tree order
+
+	protected NearestColorTree(int[] colors, int[] nodes)
+	{
+		this.colors = colors;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * @param colors The colors to search, in AABBGGRR format, which are not copied and must not be modified
+	 * @return A tree that finds the nearest of the colors
+	 */
+	public static NearestColorTree of(int[] colors)
+	{
+		int[] nodes = new int[colors.length];
+		for (int i=0; i<nodes.length; i++)
+		{
+			nodes[i] = i;
+		}
+		build(colors, nodes, 0, nodes.length, 0);
+		return new NearestColorTree(colors, nodes);
+	}
+
+	private static void build(int[] colors, int[] nodes, int from, int to, int depth)
+	{
+		if (to - from < 2)
+		{
+			return;
+		}
+		int axis = depth % DIMENSIONS;
+		// sorting the whole subrange is more work than a median selection, but palettes are small and only built once per override
+		IntArrays.quickSort(nodes, from, to, (a, b) -> Integer.compare(channel(colors[a], axis), channel(colors[b], axis)));
+		int middle = (from + to) >>> 1;
+		build(colors, nodes, from, middle, depth + 1);
+		build(colors, nodes, middle + 1, to, depth + 1);
+	}
+
+	/**
+	 * @param color A color in AABBGGRR format
+	 * @param maxDistance The furthest a color can be from the given color to count as near it
+	 * @return The palette index of the color nearest to the given color, or -1 if no color is within the max distance.
+	 * If several colors are equally near, any one of them may be returned.
+	 */
+	public int findNearest(int color, int maxDistance)
+	{
+		Search search = new Search(color, maxDistance * maxDistance);
+		this.search(search, 0, this.nodes.length, 0);
+		return search.nearest;
+	}
+
+	private void search(Search search, int from, int to, int depth)
+	{
+		while (from < to)
+		{
+			int middle = (from + to) >>> 1;
+			int node = this.nodes[middle];
+			int nodeColor = this.colors[node];
+			int distance = distanceSquared(search.color, nodeColor);
+			if (distance <= search.bestDistance)
+			{
+				search.bestDistance = distance;
+				search.nearest = node;
+			}
+			int axis = depth % DIMENSIONS;
+			int offset = channel(search.color, axis) - channel(nodeColor, axis);
+			// look on the near side of the split first, then on the far side only if the split is closer than the best color so far
+			int nearFrom = offset < 0 ? from : middle + 1;
+			int nearTo = offset < 0 ? middle : to;
+			int farFrom = offset < 0 ? middle + 1 : from;
+			int farTo = offset < 0 ? to : middle;
+			depth++;
+			this.search(search, nearFrom, nearTo, depth);
+			if (offset * offset > search.bestDistance)
+			{
+				return;
+			}
+			from = farFrom;
+			to = farTo;
+		}
+	}
+
+	/**
+	 * @param a A color in AABBGGRR format
+	 * @param b A color in AABBGGRR format
+	 * @return The squared euclidean distance between the colors
+	 */
+	public static int distanceSquared(int a, int b)
+	{
+		int distance = 0;
+		for (int axis=0; axis<DIMENSIONS; axis++)
+		{
+			int offset = channel(a, axis) - channel(b, axis);
+			distance += offset * offset;
+		}
+		return distance;
+	}
+
+	// channel 0 is red, 1 is green, 2 is blue, and 3 is alpha
+	private static int channel(int color, int axis)
+	{
+		return (color >>> (axis * 8)) & 0xFF;
+	}
+
+	private static class Search
+	{
+		private final int color;
+		private int bestDistance;
+		private int nearest = -1;
+
+		private Search(int color, int maxDistanceSquared)
+		{
+			this.color = color;
+			this.bestDistance = maxDistanceSquared;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import commoble.autopalette.PixelOperation.AlphaMask;
+import commoble.autopalette.PixelOperation.ColorOperation;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * An autotexture's palette and operations, compiled so they can all be applied in one pass over the parent texture's pixels
+ * without making an intermediate image for each operation.
+ * Every operation before the first alpha mask only looks at colors, so those are composed into a single lookup
+ * that's applied to each of the parent's distinct colors once. The operations from the first alpha mask on
+ * run for each pixel, in the same pass that fills in the output image.
+ * Immutable and safe to share between threads.
+ */
+public class OperationPipeline
+{
+	public static final OperationPipeline EMPTY = new OperationPipeline(List.of(), List.of(), List.of());
+
+	// applied to each of the parent's distinct colors
+	private final List<ColorOperation> colorOperations;
+	// applied to each pixel, starting with the first alpha mask
+	private final List<PixelOperation> pixelOperations;
+	private final List<ResourceLocation> maskTextures;	public List<ResourceLocation> getMaskTextures() { return this.maskTextures; }
+
+	protected OperationPipeline(List<ColorOperation> colorOperations, List<PixelOperation> pixelOperations, List<ResourceLocation> maskTextures)
+	{
+		this.colorOperations = colorOperations;
+		this.pixelOperations = pixelOperations;
+		this.maskTextures = maskTextures;
+	}
+
+	/**
+	 * @param palette An autotexture's palette, which is applied before its other operations
+	 * @param operations The autotexture's other operations, in the order they're applied
+	 * @return A pipeline that applies the palette and then the operations
+	 */
+	public static OperationPipeline compile(CompiledPalette palette, List<PixelOperation> operations)
+	{
+		List<PixelOperation> allOperations = new ArrayList<>();
+		if (!palette.isEmpty())
+		{
+			allOperations.add(new PixelOperation.Palette(palette));
+		}
+		allOperations.addAll(operations);
+		if (allOperations.isEmpty())
+		{
+			return EMPTY;
+		}
+		List<ColorOperation> colorOperations = new ArrayList<>();
+		int firstPixelOperation = 0;
+		while (firstPixelOperation < allOperations.size() && allOperations.get(firstPixelOperation) instanceof ColorOperation colorOperation)
+		{
+			colorOperations.add(colorOperation);
+			firstPixelOperation++;
+		}
+		List<PixelOperation> pixelOperations = List.copyOf(allOperations.subList(firstPixelOperation, allOperations.size()));
+		List<ResourceLocation> maskTextures = pixelOperations.stream()
+			.filter(AlphaMask.class::isInstance)
+			.map(operation -> ((AlphaMask)operation).mask())
+			.toList();
+		return new OperationPipeline(List.copyOf(colorOperations), pixelOperations, maskTextures);
+	}
+
+	/**
+	 * @return Whether the pipeline has no operations at all, and never changes any pixels
+	 */
+	public boolean isEmpty()
+	{
+		return this.colorOperations.isEmpty() && this.pixelOperations.isEmpty();
+	}
+
+	/**
+	 * @return Whether the pipeline has operations that look at more than a pixel's color, which have to run for every pixel
+	 */
+	public boolean hasPixelOperations()
+	{
+		return !this.pixelOperations.isEmpty();
+	}
+
+	/**
+	 * Applies the operations before the first alpha mask to a list of colors
+	 * @param colors Distinct colors in AABBGGRR format, which are not modified
+	 * @return A new array of the colors after the operations, or null if the operations don't change any of the colors
+	 */
+	public @Nullable int[] mapColors(int[] colors)
+	{
+		if (this.colorOperations.isEmpty())
+		{
+			return null;
+		}
+		int[] result = null;
+		for (int i=0; i<colors.length; i++)
+		{
+			int color = colors[i];
+			int mappedColor = color;
+			for (ColorOperation operation : this.colorOperations)
+			{
+				mappedColor = operation.apply(mappedColor);
+			}
+			if (mappedColor != color)
+			{
+				if (result == null)
+				{
+					result = colors.clone();
+				}
+				result[i] = mappedColor;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that a mask texture can be applied to a parent texture
+	 * @param mask The ID of the mask texture
+	 * @param width The width of the parent texture in pixels
+	 * @param height The height of the parent texture in pixels
+	 * @param maskWidth The width of the mask texture in pixels
+	 * @param maskHeight The height of the mask texture in pixels
+	 * @throws IOException If the mask isn't as wide as the parent, or the parent's height isn't a multiple of the mask's
+	 */
+	public static void checkMaskSize(ResourceLocation mask, int width, int height, int maskWidth, int maskHeight) throws IOException
+	{
+		if (maskWidth != width || maskHeight <= 0 || height % maskHeight != 0)
+		{
+			throw new IOException(String.format("Mask texture %s is %sx%s, which can't be repeated to fit a %sx%s parent texture", mask, maskWidth, maskHeight, width, height));
+		}
+	}
+
+	/**
+	 * Binds this pipeline to the decoded pixels of its mask textures, so it can be applied to an image
+	 * @param masks The decoded mask textures, in the same order as {@link #getMaskTextures()}, which are not modified
+	 * @param width The width of the image the pipeline will be applied to
+	 * @param height The height of the image the pipeline will be applied to
+	 * @return The bound pipeline
+	 * @throws IllegalArgumentException If the masks don't match the mask textures or can't be applied to the image
+	 */
+	public Bound bind(List<PixelImage> masks, int width, int height)
+	{
+		if (masks.size() != this.maskTextures.size())
+		{
+			throw new IllegalArgumentException(String.format("Pipeline has %s mask textures but %s masks were given", this.maskTextures.size(), masks.size()));
+		}
+		int[][] operationMasks = new int[this.pixelOperations.size()][];
+		int maskIndex = 0;
+		for (int i=0; i<operationMasks.length; i++)
+		{
+			if (this.pixelOperations.get(i) instanceof AlphaMask alphaMask)
+			{
+				PixelImage mask = masks.get(maskIndex++);
+				try
+				{
+					checkMaskSize(alphaMask.mask(), width, height, mask.width(), mask.height());
+				}
+				catch (IOException e)
+				{
+					throw new IllegalArgumentException(e.getMessage(), e);
+				}
+				operationMasks[i] = mask.pixels();
+			}
+		}
+		return new Bound(this, operationMasks);
+	}
+
+	/**
+	 * A pipeline bound to the pixels of its mask textures
+	 * @param pipeline The pipeline
+	 * @param operationMasks The mask pixels of each of the pipeline's pixel operations, or null for operations that aren't alpha masks
+	 */
+	public static record Bound(OperationPipeline pipeline, int[][] operationMasks)
+	{
+		/**
+		 * Fills in a range of an output image, running the pipeline's pixel operations on each pixel
+		 * @param indices The index of each pixel's color in the image's distinct colors
+		 * @param colors The image's distinct colors
+		 * @param mappedColors The image's distinct colors after the pipeline's color operations, from {@link OperationPipeline#mapColors}
+		 * @param output The pixels of the output image
+		 * @param from The index of the first pixel to fill in (inclusive)
+		 * @param to The index after the last pixel to fill in (exclusive)
+		 * @return True if any of the output pixels are different from the image's pixels, false otherwise
+		 */
+		public boolean fill(int[] indices, int[] colors, int[] mappedColors, int[] output, int from, int to)
+		{
+			List<PixelOperation> operations = this.pipeline.pixelOperations;
+			int operationCount = operations.size();
+			ColorOperation[] colorOperations = new ColorOperation[operationCount];
+			// textures tend to have runs of the same color, so each color operation remembers its last lookup
+			// each range keeps its own lookups, so ranges can be filled in parallel
+			int[] lastInputs = new int[operationCount];
+			int[] lastOutputs = new int[operationCount];
+			for (int i=0; i<operationCount; i++)
+			{
+				if (operations.get(i) instanceof ColorOperation colorOperation)
+				{
+					colorOperations[i] = colorOperation;
+					lastOutputs[i] = colorOperation.apply(0);
+				}
+			}
+			int[][] operationMasks = this.operationMasks;
+			boolean changed = false;
+			for (int i=from; i<to; i++)
+			{
+				int index = indices[i];
+				int color = mappedColors[index];
+				for (int operation=0; operation<operationCount; operation++)
+				{
+					int[] mask = operationMasks[operation];
+					if (mask != null)
+					{
+						// masks shorter than the image repeat down it
+						color = AlphaMask.apply(color, mask[i % mask.length]);
+					}
+					else if (color != lastInputs[operation])
+					{
+						lastInputs[operation] = color;
+						color = lastOutputs[operation] = colorOperations[operation].apply(color);
+					}
+					else
+					{
+						color = lastOutputs[operation];
+					}
+				}
+				output[i] = color;
+				if (color != colors[index])
+				{
+					changed = true;
+				}
+			}
+			return changed;
+		}
+	}
+}
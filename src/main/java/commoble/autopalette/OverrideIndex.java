@@ -0,0 +1,424 @@
+package commoble.autopalette;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Suppliers;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Palette overrides that have already been parsed from autotexture jsons, keyed by a hash of the json's bytes,
+ * so jsons that haven't changed don't need to go through gson and the codec again.
+ * Saved to a compact binary file between game sessions, so the first reload after starting the game can skip parsing too.
+ * The jsons are always the source of truth; an index that's missing, out of date, or unreadable is ignored and the jsons are parsed instead.
+ * Safe to use from multiple threads.
+ */
+public class OverrideIndex
+{
+	public static final int MAGIC = 0x41504F49; // "APOI"
+	// bump this if the index file format changes
+	public static final int FORMAT_VERSION = 4;
+	public static final int HASH_SIZE = 32;
+	public static final String TEMP_EXTENSION = ".tmp";
+
+	private final @Nullable Path file;
+	// overrides known before this reload started, which are only read from the file when the first json is looked up
+	private final Supplier<Map<String, PaletteOverride>> previousOverrides;
+	// overrides looked up or parsed during this reload, which are the ones that get saved
+	private final Map<String, PaletteOverride> overrides = new ConcurrentHashMap<>();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	protected OverrideIndex(@Nullable Path file, Supplier<Map<String, PaletteOverride>> previousOverrides)
+	{
+		this.file = file;
+		this.previousOverrides = previousOverrides;
+	}
+
+	/**
+	 * @return An empty index that isn't saved anywhere
+	 */
+	public static OverrideIndex inMemory()
+	{
+		return new OverrideIndex(null, Collections::emptyMap);
+	}
+
+	/**
+	 * Creates an index that's read from a file the first time something is looked up in it, and is saved to the same file
+	 * @param file The index file
+	 * @return The index
+	 */
+	public static OverrideIndex load(Path file)
+	{
+		return new OverrideIndex(file, Suppliers.memoize(() -> read(file)));
+	}
+
+	/**
+	 * @return An index for the next reload, which knows every override that this index knows
+	 */
+	public OverrideIndex next()
+	{
+		return new OverrideIndex(this.file, Suppliers.memoize(() ->
+		{
+			Map<String, PaletteOverride> overrides = new HashMap<>(this.previousOverrides.get());
+			overrides.putAll(this.overrides);
+			return overrides;
+		}));
+	}
+
+	/**
+	 * @param json The raw bytes of an autotexture json
+	 * @return A hash of the json, which changes if any of its bytes change
+	 */
+	public static String hashJson(byte[] json)
+	{
+		return HexFormat.of().formatHex(TextureCache.makeDigest().digest(json));
+	}
+
+	/**
+	 * @param jsonHash A hash created by {@link #hashJson}
+	 * @return The override that was parsed from a json with that hash, or null if the json needs to be parsed
+	 */
+	public @Nullable PaletteOverride get(String jsonHash)
+	{
+		PaletteOverride override = this.previousOverrides.get().get(jsonHash);
+		if (override == null)
+		{
+			this.misses.incrementAndGet();
+			return null;
+		}
+		this.hits.incrementAndGet();
+		this.overrides.put(jsonHash, override);
+		return override;
+	}
+
+	/**
+	 * Adds an override to the index. Only overrides that were parsed without any errors should be added.
+	 * @param jsonHash A hash created by {@link #hashJson} from the json the override was parsed from
+	 * @param override The override
+	 */
+	public void put(String jsonHash, PaletteOverride override)
+	{
+		this.overrides.put(jsonHash, override);
+	}
+
+	public int getHits()
+	{
+		return this.hits.get();
+	}
+
+	public int getMisses()
+	{
+		return this.misses.get();
+	}
+
+	/**
+	 * Saves the overrides that were used during this reload, if they're any different from the ones that were already saved.
+	 * Should not be called while other threads are adding overrides to the index.
+	 */
+	public void save()
+	{
+		if (this.file == null || this.overrides.keySet().equals(this.previousOverrides.get().keySet()))
+		{
+			return;
+		}
+		Path tempFile = null;
+		try
+		{
+			Files.createDirectories(this.file.getParent());
+			tempFile = Files.createTempFile(this.file.getParent(), this.file.getFileName().toString(), TEMP_EXTENSION);
+			Files.write(tempFile, write(this.overrides));
+			try
+			{
+				Files.move(tempFile, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to write autopalette override index {}: {}", this.file, e.getMessage());
+		}
+		finally
+		{
+			if (tempFile != null)
+			{
+				try
+				{
+					Files.deleteIfExists(tempFile);
+				}
+				catch (IOException e)
+				{
+					AutopalettePack.LOGGER.warn("Failed to delete autopalette override index temp file {}: {}", tempFile, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads an index file
+	 * @param file The index file
+	 * @return The overrides in the file, keyed by json hash, or an empty map if the file doesn't exist or can't be used
+	 */
+	public static Map<String, PaletteOverride> read(Path file)
+	{
+		if (!Files.isRegularFile(file))
+		{
+			return Collections.emptyMap();
+		}
+		// we read the whole file into a heap buffer instead of mapping it,
+		// a mapped file can't be replaced on windows until the mapping is garbage collected
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+			{
+				throw new IOException("Index file is too large");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int)size);
+			while (buffer.hasRemaining())
+			{
+				if (channel.read(buffer) < 0)
+				{
+					throw new IOException("Index file ended early");
+				}
+			}
+			buffer.flip();
+			return read(buffer);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			// a broken index is no worse than a missing one, the jsons just get parsed again
+			AutopalettePack.LOGGER.warn("Discarding unreadable autopalette override index {}: {}", file, e.getMessage());
+			return Collections.emptyMap();
+		}
+	}
+
+	/**
+	 * Reads overrides from the contents of an index file
+	 * @param buffer The contents of an index file
+	 * @return The overrides, keyed by json hash, or an empty map if the index is from another version of autopalette
+	 * @throws IOException If the index isn't an index file
+	 * @throws RuntimeException If the index is truncated or has invalid data in it
+	 */
+	public static Map<String, PaletteOverride> read(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.getInt() != MAGIC)
+		{
+			throw new IOException("Not an override index");
+		}
+		// the version stamp covers the code that parses and compiles overrides, so an index from older code might not match the jsons anymore
+		if (buffer.getInt() != FORMAT_VERSION || !readString(buffer).equals(TextureCache.VERSION_STAMP))
+		{
+			return Collections.emptyMap();
+		}
+		int count = buffer.getInt();
+		Map<String, PaletteOverride> overrides = new HashMap<>(Math.max(16, count * 2));
+		byte[] hash = new byte[HASH_SIZE];
+		HexFormat hex = HexFormat.of();
+		for (int i=0; i<count; i++)
+		{
+			buffer.get(hash);
+			int packCount = Short.toUnsignedInt(buffer.getShort());
+			List<String> packs = new ArrayList<>(packCount);
+			for (int p=0; p<packCount; p++)
+			{
+				packs.add(readString(buffer));
+			}
+			boolean requirePack = buffer.get() != 0;
+			ResourceLocation parent = new ResourceLocation(readString(buffer));
+			CompiledPalette palette = readPalette(buffer);
+			int operationCount = Short.toUnsignedInt(buffer.getShort());
+			List<PixelOperation> operations = new ArrayList<>(operationCount);
+			for (int o=0; o<operationCount; o++)
+			{
+				operations.add(readOperation(buffer));
+			}
+			overrides.put(hex.formatHex(hash), new PaletteOverride(packs, requirePack, parent, palette, operations));
+		}
+		return overrides;
+	}
+
+	/**
+	 * Writes overrides in the index file format
+	 * @param overrides The overrides, keyed by json hash
+	 * @return The contents of an index file
+	 * @throws IOException If an override has a string too long for the format
+	 */
+	public static byte[] write(Map<String, PaletteOverride> overrides) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream output = new DataOutputStream(bytes))
+		{
+			output.writeInt(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			writeString(output, TextureCache.VERSION_STAMP);
+			output.writeInt(overrides.size());
+			HexFormat hex = HexFormat.of();
+			for (Map.Entry<String, PaletteOverride> entry : overrides.entrySet())
+			{
+				PaletteOverride override = entry.getValue();
+				output.write(hex.parseHex(entry.getKey()));
+				List<String> packs = override.getParentPacks();
+				if (packs.size() > 0xFFFF)
+				{
+					throw new IOException("Too many packs for the override index: " + packs.size());
+				}
+				output.writeShort(packs.size());
+				for (String pack : packs)
+				{
+					writeString(output, pack);
+				}
+				output.writeBoolean(override.getRequirePack());
+				writeString(output, override.getParentTextureID().toString());
+				writePalette(output, override.getCompiledPalette());
+				List<PixelOperation> operations = override.getOperations();
+				if (operations.size() > 0xFFFF)
+				{
+					throw new IOException("Too many operations for the override index: " + operations.size());
+				}
+				output.writeShort(operations.size());
+				for (PixelOperation operation : operations)
+				{
+					writeOperation(output, operation);
+				}
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	// palettes are stored as an int size, a short tolerance, and then two int arrays, the keys and then the values
+	private static void writePalette(DataOutputStream output, CompiledPalette palette) throws IOException
+	{
+		int paletteSize = palette.size();
+		output.writeInt(paletteSize);
+		output.writeShort(palette.getTolerance());
+		for (int i=0; i<paletteSize; i++)
+		{
+			output.writeInt(palette.getKey(i));
+		}
+		for (int i=0; i<paletteSize; i++)
+		{
+			output.writeInt(palette.getValue(i));
+		}
+	}
+
+	private static CompiledPalette readPalette(ByteBuffer buffer)
+	{
+		int paletteSize = buffer.getInt();
+		int tolerance = Short.toUnsignedInt(buffer.getShort());
+		if (paletteSize < 0 || paletteSize > buffer.remaining() / 8)
+		{
+			throw new IllegalArgumentException("Invalid palette size " + paletteSize);
+		}
+		int[] keys = new int[paletteSize];
+		int[] values = new int[paletteSize];
+		// the arrays can be copied out in bulk
+		buffer.asIntBuffer().get(keys).get(values);
+		buffer.position(buffer.position() + paletteSize * 8);
+		return CompiledPalette.of(keys, values, tolerance);
+	}
+
+	// operations are stored as their type's ordinal and then their fields
+	private static void writeOperation(DataOutputStream output, PixelOperation operation) throws IOException
+	{
+		PixelOperation.Type type = operation.getType();
+		output.writeByte(type.ordinal());
+		switch (type)
+		{
+			case PALETTE -> writePalette(output, ((PixelOperation.Palette)operation).palette());
+			case TINT -> output.writeInt(((PixelOperation.Tint)operation).color());
+			case HSV ->
+			{
+				PixelOperation.HsvShift shift = (PixelOperation.HsvShift)operation;
+				output.writeFloat(shift.hue());
+				output.writeFloat(shift.saturation());
+				output.writeFloat(shift.value());
+			}
+			case ALPHA_MASK -> writeString(output, ((PixelOperation.AlphaMask)operation).mask().toString());
+			case GRADIENT_MAP ->
+			{
+				int[] gradient = ((PixelOperation.GradientMap)operation).gradient();
+				if (gradient.length > 0xFFFF)
+				{
+					throw new IOException("Too many gradient colors for the override index: " + gradient.length);
+				}
+				output.writeShort(gradient.length);
+				for (int color : gradient)
+				{
+					output.writeInt(color);
+				}
+			}
+		}
+	}
+
+	private static PixelOperation readOperation(ByteBuffer buffer)
+	{
+		PixelOperation.Type[] types = PixelOperation.Type.values();
+		int ordinal = Byte.toUnsignedInt(buffer.get());
+		if (ordinal >= types.length)
+		{
+			throw new IllegalArgumentException("Invalid operation type " + ordinal);
+		}
+		return switch (types[ordinal])
+		{
+			case PALETTE -> new PixelOperation.Palette(readPalette(buffer));
+			case TINT -> new PixelOperation.Tint(buffer.getInt());
+			case HSV -> new PixelOperation.HsvShift(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+			case ALPHA_MASK -> new PixelOperation.AlphaMask(new ResourceLocation(readString(buffer)));
+			case GRADIENT_MAP ->
+			{
+				int[] gradient = new int[Short.toUnsignedInt(buffer.getShort())];
+				if (gradient.length == 0)
+				{
+					throw new IllegalArgumentException("Gradient has no colors");
+				}
+				buffer.asIntBuffer().get(gradient);
+				buffer.position(buffer.position() + gradient.length * 4);
+				yield new PixelOperation.GradientMap(gradient);
+			}
+		};
+	}
+
+	// strings are stored as a short length and then that many bytes of UTF-8
+	private static void writeString(DataOutputStream output, String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF)
+		{
+			throw new IOException("String is too long for the override index: " + string);
+		}
+		output.writeShort(bytes.length);
+		output.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,307 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.FilePackResources;
+import net.minecraft.server.packs.FolderPackResources;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.repository.Pack;
+
+/**
+ * Opens each pack at most once during a reload and shares the opened pack between every override that reads from it.
+ * Files in folder and zip packs from the resourcepacks folder are read into byte buffers without going through the pack,
+ * every other kind of pack is read through its input streams.
+ * Files are always read into heap buffers: NativeImage copies them into native memory once when it decodes them,
+ * which is cheaper than leaving a direct buffer per parent texture for the garbage collector to find.
+ * Every pack opened here is closed by {@link #close}, which should be called once generation is finished.
+ * Safe to use from multiple threads.
+ */
+public class PackHandles implements AutoCloseable
+{
+	// the pack IDs that the client gives to the resource packs in its resourcepacks folder
+	public static final String FILE_PACK_PREFIX = "file/";
+	public static final String ASSETS_DIRECTORY = "assets";
+
+	private final GenerationMetrics metrics;
+	private final @Nullable Path resourcePackDirectory;
+	private final Map<String, PackResources> openPacks = new ConcurrentHashMap<>();
+	// how to read each opened pack's files with NIO, or empty if they have to be read through the pack
+	private final Map<String, Optional<PackFiles>> packFiles = new ConcurrentHashMap<>();
+	private final AtomicInteger opens = new AtomicInteger();
+
+	/**
+	 * @param metrics The metrics to time pack opening with
+	 */
+	public PackHandles(GenerationMetrics metrics)
+	{
+		this(metrics, null);
+	}
+
+	/**
+	 * @param metrics The metrics to time pack opening with
+	 * @param resourcePackDirectory The client's resourcepacks folder, or null to read every pack through its input streams
+	 */
+	public PackHandles(GenerationMetrics metrics, @Nullable Path resourcePackDirectory)
+	{
+		this.metrics = metrics;
+		this.resourcePackDirectory = resourcePackDirectory;
+	}
+
+	/**
+	 * Gets the opened resources of a pack, opening the pack if nothing has opened it yet this reload
+	 * @param info The pack to open
+	 * @return The opened pack, shared with every other caller during this reload. Callers must not close it.
+	 * @throws IOException If the pack cannot be opened
+	 */
+	public PackResources open(Pack info) throws IOException
+	{
+		PackResources pack = this.openPacks.computeIfAbsent(info.getId(), id ->
+		{
+			try (GenerationMetrics.Timer timer = this.metrics.time(GenerationMetrics.Phase.PACK_OPEN))
+			{
+				PackResources newPack = info.open();
+				if (newPack != null)
+				{
+					this.opens.incrementAndGet();
+					// zip packs open their zip file the first time something is read from them, and they don't synchronize that
+					// so we make the first read now, before any other threads can see the pack
+					newPack.getNamespaces(PackType.CLIENT_RESOURCES);
+				}
+				return newPack;
+			}
+		});
+		if (pack == null)
+		{
+			throw new IOException("Pack " + info.getId() + " cannot be opened");
+		}
+		return pack;
+	}
+
+	/**
+	 * Reads a client resource from a pack
+	 * @param info The pack to read from
+	 * @param file The resource ID of the file, e.g. minecraft:textures/block/cobblestone.png
+	 * @return A heap buffer of the file's contents, from position zero to its limit, or null if the pack doesn't have the file
+	 * @throws IOException If the pack cannot be opened or the file cannot be read
+	 */
+	public @Nullable ByteBuffer read(Pack info, ResourceLocation file) throws IOException
+	{
+		PackResources pack = this.open(info);
+		Optional<PackFiles> packFiles;
+		try
+		{
+			packFiles = this.packFiles.computeIfAbsent(info.getId(), id -> this.findPackFiles(id, pack));
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+		if (packFiles.isPresent())
+		{
+			return packFiles.get().read(file);
+		}
+		// we don't know where this pack keeps its files, so we ask it for them
+		if (!pack.hasResource(PackType.CLIENT_RESOURCES, file))
+		{
+			return null;
+		}
+		try (InputStream inputStream = pack.getResource(PackType.CLIENT_RESOURCES, file))
+		{
+			return ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
+		}
+	}
+
+	/**
+	 * @return How many packs have been opened
+	 */
+	public int getOpenCount()
+	{
+		return this.opens.get();
+	}
+
+	/**
+	 * Closes every pack opened by this pool.
+	 */
+	@Override
+	public void close()
+	{
+		// Pack.open gives zip and folder packs a new PackResources every time it's called,
+		// and vanilla closes the ones it opens for the resource manager on every reload too,
+		// so closing ours won't pull the rug out from under anyone else
+		this.openPacks.forEach((id, pack) ->
+		{
+			try
+			{
+				pack.close();
+			}
+			catch (RuntimeException e)
+			{
+				AutopalettePack.LOGGER.error("Error closing pack {} after autopalette texture generation", id);
+				e.printStackTrace();
+			}
+		});
+		this.openPacks.clear();
+		this.packFiles.forEach((id, packFiles) -> packFiles.ifPresent(files ->
+		{
+			try
+			{
+				files.close();
+			}
+			catch (IOException e)
+			{
+				AutopalettePack.LOGGER.error("Error closing files of pack {} after autopalette texture generation", id);
+				e.printStackTrace();
+			}
+		}));
+		this.packFiles.clear();
+	}
+
+	protected Optional<PackFiles> findPackFiles(String packID, PackResources pack)
+	{
+		if (this.resourcePackDirectory == null || !packID.startsWith(FILE_PACK_PREFIX))
+		{
+			return Optional.empty();
+		}
+		String fileName = packID.substring(FILE_PACK_PREFIX.length());
+		Path path = this.resourcePackDirectory.resolve(fileName).normalize();
+		// we only read the pack's files ourselves if we're sure the pack really is that file, and that we know its layout
+		if (!this.resourcePackDirectory.equals(path.getParent()) || !fileName.equals(pack.getName()))
+		{
+			return Optional.empty();
+		}
+		if (pack instanceof FolderPackResources && Files.isDirectory(path))
+		{
+			return Optional.of(new FolderFiles(path.resolve(ASSETS_DIRECTORY)));
+		}
+		if (pack instanceof FilePackResources && Files.isRegularFile(path))
+		{
+			try
+			{
+				return Optional.of(new ZipFiles(new ZipFile(path.toFile())));
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+		return Optional.empty();
+	}
+
+	protected static ByteBuffer allocate(long size) throws IOException
+	{
+		if (size > Integer.MAX_VALUE)
+		{
+			throw new IOException("File is too large to read: " + size + " bytes");
+		}
+		return ByteBuffer.allocate((int)size);
+	}
+
+	protected static ByteBuffer readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer) < 0)
+			{
+				throw new IOException("File ended " + buffer.remaining() + " bytes early");
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Reads files from a pack without going through the pack
+	 */
+	protected static interface PackFiles extends AutoCloseable
+	{
+		/**
+		 * @param file The resource ID of the file
+		 * @return A heap buffer of the file's contents, or null if the pack doesn't have the file
+		 * @throws IOException If the file cannot be read
+		 */
+		public @Nullable ByteBuffer read(ResourceLocation file) throws IOException;
+
+		@Override
+		public void close() throws IOException;
+	}
+
+	protected static record FolderFiles(Path assets) implements PackFiles
+	{
+		@Override
+		public @Nullable ByteBuffer read(ResourceLocation file) throws IOException
+		{
+			Path path = this.assets.resolve(file.getNamespace()).resolve(file.getPath()).normalize();
+			if (!path.startsWith(this.assets) || !Files.isRegularFile(path))
+			{
+				return null;
+			}
+			// we read the whole file instead of mapping it, since a mapped file stays locked on windows until the mapping is garbage collected,
+			// and the file is only held open while it's being read, so it can be saved again while hot reloading
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+			{
+				return readFully(channel, allocate(channel.size()));
+			}
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	protected static record ZipFiles(ZipFile zipFile) implements PackFiles
+	{
+		@Override
+		public @Nullable ByteBuffer read(ResourceLocation file) throws IOException
+		{
+			// zip file entries are threadsafe to read
+			ZipEntry entry = this.zipFile.getEntry(String.format("%s/%s/%s", ASSETS_DIRECTORY, file.getNamespace(), file.getPath()));
+			if (entry == null || entry.isDirectory())
+			{
+				return null;
+			}
+			long size = entry.getSize();
+			try (InputStream inputStream = this.zipFile.getInputStream(entry))
+			{
+				if (size < 0L)
+				{
+					// the zip doesn't say how big the entry is, so we can't read it into a buffer of the right size
+					return ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
+				}
+				// inflate the entry into an array of the right size, so it isn't grown and copied along the way
+				byte[] bytes = allocate(size).array();
+				int read = inputStream.readNBytes(bytes, 0, bytes.length);
+				if (read < bytes.length)
+				{
+					throw new IOException("File ended " + (bytes.length - read) + " bytes early");
+				}
+				return ByteBuffer.wrap(bytes);
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.zipFile.close();
+		}
+	}
+}
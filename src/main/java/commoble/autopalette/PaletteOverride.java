@@ -4,9 +4,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
+import com.mojang.datafixers.util.Either;
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.DataResult;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
@@ -19,44 +23,103 @@ import net.minecraft.resources.ResourceLocation;
 
 public class PaletteOverride
 {
+	// a pack ID that stands for whichever selected pack has the parent texture and is highest in the pack list
+	public static final String HIGHEST_SELECTED_PACK = "*";
+	public static final List<String> DEFAULT_PACKS = List.of("vanilla");
+	// a single pack ID, or a list of pack IDs to try in order
+	public static final Codec<List<String>> PACKS_CODEC = Codec.either(Codec.STRING, Codec.STRING.listOf())
+		.<List<String>>xmap(
+			either -> either.map(List::of, Function.identity()),
+			packs -> packs.size() == 1 ? Either.left(packs.get(0)) : Either.right(packs))
+		.flatXmap(PaletteOverride::validatePacks, PaletteOverride::validatePacks);
+	
+	// map of hexidecimal integer codes for a palette swap
+	public static final Codec<Int2IntMap> PALETTE_CODEC = Codec.unboundedMap(Codec.STRING,Codec.STRING).comapFlatMap(PaletteOverride::makePaletteMap, PaletteOverride::encodeMap);
+	// how far a color can be from a palette key to be replaced by that key's value, 0 for exact matches only
+	public static final Codec<Integer> TOLERANCE_CODEC = Codec.intRange(0, CompiledPalette.MAX_TOLERANCE);
+	
 	// json format codec
 	public static final Codec<PaletteOverride> CODEC = RecordCodecBuilder.create(instance -> instance.group(
-		// the pack ID of the asset pack to pull base textures from
-		Codec.STRING.optionalFieldOf("pack", "vanilla").forGetter(PaletteOverride::getParentPack),
+		// the pack IDs of the asset packs to pull base textures from, the first one that has the parent texture is used
+		PACKS_CODEC.optionalFieldOf("pack", DEFAULT_PACKS).forGetter(PaletteOverride::getParentPacks),
 		// if require_pack is true, the pack must be selected by the user or a texture will not be generated on resource load
 		Codec.BOOL.optionalFieldOf("require_pack", false).forGetter(PaletteOverride::getRequirePack),
 		// parent is the texture ID of the base texture to make a palette swap for
 		ResourceLocation.CODEC.fieldOf("parent").forGetter(PaletteOverride::getParentTextureID),
-		// map of hexidecimal integer codes for the palette swap
-		Codec.unboundedMap(Codec.STRING,Codec.STRING).comapFlatMap(PaletteOverride::makePaletteMap, PaletteOverride::encodeMap)
-			.fieldOf("palette").forGetter(PaletteOverride::getPalette)
+		// the palette swap, which can be left out if the operations do all the work
+		PALETTE_CODEC.optionalFieldOf("palette", new Int2IntOpenHashMap()).forGetter(PaletteOverride::getPalette),
+		// colors within this distance of a palette key are replaced by the nearest key's value
+		TOLERANCE_CODEC.optionalFieldOf("tolerance", 0).forGetter(PaletteOverride::getTolerance),
+		// more operations to apply after the palette swap, in order
+		PixelOperation.CODEC.listOf().optionalFieldOf("operations", List.of()).forGetter(PaletteOverride::getOperations)
 	).apply(instance, PaletteOverride::new));
 
-	private final String pack;	public String getParentPack() { return this.pack; }
+	private final List<String> packs;	public List<String> getParentPacks() { return this.packs; }
 	private final boolean requirePack; public boolean getRequirePack() { return this.requirePack; }
 	private final ResourceLocation parent;	public ResourceLocation getParentTextureID() { return this.parent; }
 	private final Int2IntMap map;	public Int2IntMap getPalette() { return this.map; }
+	private final CompiledPalette compiledPalette;	public CompiledPalette getCompiledPalette() { return this.compiledPalette; }
+	private final List<PixelOperation> operations;	public List<PixelOperation> getOperations() { return this.operations; }
+	public int getTolerance() { return this.compiledPalette.getTolerance(); }
+	// the palette and operations, compiled so they can be applied in one pass
+	private final OperationPipeline pipeline;	public OperationPipeline getPipeline() { return this.pipeline; }
+	
+	public PaletteOverride(List<String> packs, boolean requirePack, ResourceLocation parent, Int2IntMap map, int tolerance, List<PixelOperation> operations)
+	{
+		this(packs, requirePack, parent, map, CompiledPalette.compile(map, tolerance), operations);
+	}
 	
-	public PaletteOverride(String pack, boolean requirePack, ResourceLocation parent, Int2IntMap map)
+	public PaletteOverride(List<String> packs, boolean requirePack, ResourceLocation parent, CompiledPalette compiledPalette, List<PixelOperation> operations)
 	{
-		this.pack = pack;
+		// the map is only needed to encode the override again, but it's cheap to rebuild from an already compiled palette
+		this(packs, requirePack, parent, compiledPalette.toMap(), compiledPalette, operations);
+	}
+	
+	protected PaletteOverride(List<String> packs, boolean requirePack, ResourceLocation parent, Int2IntMap map, CompiledPalette compiledPalette, List<PixelOperation> operations)
+	{
+		this.packs = List.copyOf(packs);
 		this.requirePack = requirePack;
 		this.parent = parent;
 		this.map = map;
+		this.compiledPalette = compiledPalette;
+		this.operations = List.copyOf(operations);
+		this.pipeline = OperationPipeline.compile(compiledPalette, this.operations);
 	}
 	
-	public @Nullable Pack getPackInfo(Map<String,Pack> selectedPacks, Map<String,Pack> unselectedPacks)
+	/**
+	 * @return Whether the parent texture may come from more than one pack, so the packs need to be searched for it
+	 */
+	public boolean hasFallbackPacks()
+	{
+		return this.packs.size() > 1 || this.packs.get(0).equals(HIGHEST_SELECTED_PACK);
+	}
+	
+	public @Nullable Pack getPackInfo(String packID, Map<String,Pack> selectedPacks, Map<String,Pack> unselectedPacks)
 	{
 		// if we require a pack to be selected to pull textures from it, only look in the selected packs
 		// if we don't require a pack to be selected, look in the selected packs first,
 			// then look in the unselected packs if the pack wasn't in the selected packs
-		String packID = this.getParentPack();
 		Pack selectedInfo = selectedPacks.get(packID);
 		return selectedInfo != null || this.requirePack
 			? selectedInfo
 			: unselectedPacks.get(packID);
 	}
 	
+	/**
+	 * @return The IDs of the mask textures used by this override's operations, which are read from the same pack as the parent texture
+	 */
+	public List<ResourceLocation> getMaskTextureIDs()
+	{
+		return this.pipeline.getMaskTextures();
+	}
+	
+	protected static DataResult<List<String>> validatePacks(List<String> packs)
+	{
+		return packs.isEmpty()
+			? DataResult.error("Pack list must have at least one pack ID")
+			: DataResult.success(packs);
+	}
+	
 	/**
 	 * Convert a raw map from json to an int2int palette swap map
 	 * @param raws A string-string map whose strings are in hexidecimal format "RRGGBB" or "RRGGBBAA"
@@ -70,50 +133,12 @@ public class PaletteOverride
 		List<String> errors = new ArrayList<>();
 		raws.forEach((key,value) ->
 		{
-			int keySize = key.length();
-			if (keySize == 6)
-			{
-				key = key + "FF"; // if only RGB is specified, treat alpha as fully opaque
-			}
-			else if (keySize != 8)
-			{
-				errors.add(String.format("Invalid RRGGBBAA key %s -- must be 6 or 8 characters", key));
-				return;
-			}
-			
-			int valueSize = value.length();
-			if (valueSize == 6)
-			{
-				value = value + "FF";
-			}
-			else if (valueSize != 8)
-			{
-				errors.add(String.format("Invalid RRGGBBAA value %s -- must be 6 or 8 characters", value));
-				return;
-			}
-			int intKey, intValue;
-			try
+			Optional<Integer> intKey = parseColor(key, "key").resultOrPartial(errors::add);
+			Optional<Integer> intValue = parseColor(value, "value").resultOrPartial(errors::add);
+			if (intKey.isPresent() && intValue.isPresent())
 			{
-				intKey = Integer.parseUnsignedInt(key,16);
+				result.put(intKey.get().intValue(), intValue.get().intValue());
 			}
-			catch(NumberFormatException e)
-			{
-				errors.add(String.format("Could not parse RRGGBBAA key %s as integer", key));
-				return;
-			}
-			try
-			{
-				intValue = Integer.parseUnsignedInt(value,16);
-			}
-			catch(NumberFormatException e)
-			{
-				errors.add(String.format("Could not parse RRGGBBAA value %s as integer", value));
-				return;
-			}
-			// flip RGBA to ABGR for the nativeimage
-			intKey = flipRGBA(intKey);
-			intValue = flipRGBA(intValue);
-			result.put(intKey, intValue);
 		});
 		if (errors.size() > 0)
 		{
@@ -122,6 +147,34 @@ public class PaletteOverride
 		return DataResult.success(result);
 	}
 
+	/**
+	 * Convert a hexidecimal color string from json to a color int
+	 * @param raw A string in hexidecimal format "RRGGBB" or "RRGGBBAA"
+	 * @param description What the color is for, e.g. "key", used in error messages
+	 * @return The color as an AABBGGRR int, using FF (=255) as the alpha value for RRGGBB strings, or an error if the string is incorrectly formatted
+	 */
+	public static DataResult<Integer> parseColor(String raw, String description)
+	{
+		int size = raw.length();
+		if (size == 6)
+		{
+			raw = raw + "FF"; // if only RGB is specified, treat alpha as fully opaque
+		}
+		else if (size != 8)
+		{
+			return DataResult.error(String.format("Invalid RRGGBBAA %s %s -- must be 6 or 8 characters", description, raw));
+		}
+		try
+		{
+			// flip RGBA to ABGR for the nativeimage
+			return DataResult.success(flipRGBA(Integer.parseUnsignedInt(raw,16)));
+		}
+		catch(NumberFormatException e)
+		{
+			return DataResult.error(String.format("Could not parse RRGGBBAA %s %s as integer", description, raw));
+		}
+	}
+
 	/**
 	 * Does the reverse of makePaletteMap, converting ints back to strings. Strings are always in RRGGBBAA format.
 	 * @param colors int-to-int palette swap map
@@ -150,29 +203,97 @@ public class PaletteOverride
 	}
 	
 	/**
-	 * Modifies a NativeImage *in-place* according to this override's palette map
+	 * Modifies a NativeImage *in-place* according to this override's palette map.
+	 * The override's other operations are not applied, use {@link #getPipeline} for those.
 	 * @param image an image to modify
 	 * @return the image, modified in place
 	 */
 	public NativeImage transformImage(NativeImage image)
 	{
+		if (this.compiledPalette.isEmpty())
+		{
+			return image;
+		}
+		
 		int width = image.getWidth();
 		int height = image.getHeight();
+		int[] row = new int[width];
 		
-		for (int x=0; x<width; x++)
+		// nativeimage stores its pixels row by row, so we walk them in that order
+		// nativeimage doesn't let us at its pixel buffer directly, so we copy one row at a time into an array and transform that
+		for (int y=0; y<height; y++)
 		{
-			for (int y=0; y<height; y++)
+			for (int x=0; x<width; x++)
 			{
-				// the pixel format is ARGB, stupidly
-				int oldValue = image.getPixelRGBA(x, y);
-				int newValue = this.map.getOrDefault(oldValue, oldValue); // if the old value isn't present, give the old value back
-				if (newValue != oldValue) // if a new RGBA value for the old value is specified, replace it 
+				// the pixel format is ABGR, stupidly
+				row[x] = image.getPixelRGBA(x, y);
+			}
+			if (this.transformPixels(row, 0, width)) // only write rows back if we changed something in them
+			{
+				for (int x=0; x<width; x++)
 				{
-					image.setPixelRGBA(x, y, newValue);
+					image.setPixelRGBA(x, y, row[x]);
 				}
 			}
 		}
 		
 		return image;
 	}
+	
+	/**
+	 * Creates a new image from an image according to this override's palette map.
+	 * The override's other operations are not applied, use {@link #getPipeline} for those.
+	 * @param image an image to transform, which is not modified
+	 * @return a new transformed image, or the given image itself if the palette map doesn't change any of its pixels
+	 */
+	public PixelImage transformImage(PixelImage image)
+	{
+		int[] pixels = this.compiledPalette.transformCopy(image.pixels());
+		return pixels == null
+			? image
+			: new PixelImage(image.width(), image.height(), pixels);
+	}
+	
+	/**
+	 * Creates a new image from an image according to this override's palette map,
+	 * splitting large images into bands of rows that are transformed in parallel.
+	 * The override's other operations are not applied, use {@link #getPipeline} for those.
+	 * @param image an image to transform, which is not modified
+	 * @param frameHeight the height of the image's animation frames, or 0 if it isn't animated. Bands are aligned to whole frames.
+	 * @param splitThreshold the fewest pixels an image must have to be split into bands, or 0 to never split
+	 * @return a new transformed image, or the given image itself if the palette map doesn't change any of its pixels.
+	 * The pixels are the same as those from {@link #transformImage(PixelImage)}.
+	 */
+	public PixelImage transformImage(PixelImage image, int frameHeight, int splitThreshold)
+	{
+		if (splitThreshold <= 0 || image.pixels().length < splitThreshold || this.compiledPalette.isEmpty())
+		{
+			return this.transformImage(image);
+		}
+		// every band writes its own rows of the same copy
+		int[] pixels = image.pixels().clone();
+		AtomicBoolean changed = new AtomicBoolean(false);
+		RowBands.forEachBand(image.width(), image.height(), frameHeight, splitThreshold, (from, to) ->
+		{
+			if (this.transformPixels(pixels, from, to))
+			{
+				changed.set(true);
+			}
+		});
+		return changed.get()
+			? new PixelImage(image.width(), image.height(), pixels)
+			: image;
+	}
+	
+	/**
+	 * Modifies a range of a pixel buffer *in-place* according to this override's palette map
+	 * @param pixels Pixels in the same ABGR format as NativeImage
+	 * @param from The index of the first pixel to transform (inclusive)
+	 * @param to The index after the last pixel to transform (exclusive)
+	 * @return True if any pixels were changed, false otherwise
+	 */
+	public boolean transformPixels(int[] pixels, int from, int to)
+	{
+		return this.compiledPalette.transform(pixels, from, to);
+	}
 }
@@ -0,0 +1,124 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Suppliers;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.repository.Pack;
+
+/**
+ * Knows which packs have which textures, so overrides with more than one candidate pack can find their parent texture
+ * without probing each pack for it. Each pack's textures are listed at most once per reload, the first time an override needs them,
+ * and the selected packs are only all listed if an override asks for the highest selected pack.
+ * Safe to use from multiple threads.
+ */
+public class ParentPackIndex
+{
+	public static final String TEXTURE_FOLDER = "textures";
+	public static final String TEXTURE_EXTENSION = ".png";
+
+	// highest priority first
+	private final List<Pack> selectedPacks;
+	private final PackHandles packs;
+	private final GenerationMetrics metrics;
+	// the textures in each pack that's been listed, keyed by pack ID
+	private final Map<String, Set<ResourceLocation>> packTextures = new ConcurrentHashMap<>();
+	// the highest selected pack that has each texture, built the first time it's needed
+	private final Supplier<Map<ResourceLocation, Pack>> highestSelectedPacks = Suppliers.memoize(this::indexSelectedPacks);
+
+	/**
+	 * @param selectedPacks The selected packs, highest priority first
+	 * @param packs The pack pool to list textures with
+	 * @param metrics The metrics to time listing with
+	 */
+	public ParentPackIndex(List<Pack> selectedPacks, PackHandles packs, GenerationMetrics metrics)
+	{
+		this.selectedPacks = selectedPacks;
+		this.packs = packs;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param info A pack
+	 * @param textureFile The resource ID of a texture's png, e.g. minecraft:textures/block/cobblestone.png
+	 * @return Whether the pack has the texture
+	 * @throws IOException If the pack can't be opened
+	 */
+	public boolean hasTexture(Pack info, ResourceLocation textureFile) throws IOException
+	{
+		try
+		{
+			return this.packTextures.computeIfAbsent(info.getId(), id -> this.listTextures(info)).contains(textureFile);
+		}
+		catch (UncheckedIOException e)
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param textureFile The resource ID of a texture's png, e.g. minecraft:textures/block/cobblestone.png
+	 * @return The highest priority selected pack that has the texture, or null if no selected pack has it
+	 */
+	public @Nullable Pack getHighestSelectedPack(ResourceLocation textureFile)
+	{
+		return this.highestSelectedPacks.get().get(textureFile);
+	}
+
+	protected Map<ResourceLocation, Pack> indexSelectedPacks()
+	{
+		Map<ResourceLocation, Pack> highestSelectedPacks = new HashMap<>();
+		for (Pack info : this.selectedPacks)
+		{
+			try
+			{
+				for (ResourceLocation textureFile : this.packTextures.computeIfAbsent(info.getId(), id -> this.listTextures(info)))
+				{
+					// higher priority packs come first, so they keep their textures
+					highestSelectedPacks.putIfAbsent(textureFile, info);
+				}
+			}
+			catch (UncheckedIOException e)
+			{
+				// the other packs may still have the textures we're looking for
+				AutopalettePack.LOGGER.error("Cannot list textures in selected pack {}", info.getId());
+				e.printStackTrace();
+			}
+		}
+		return highestSelectedPacks;
+	}
+
+	protected Set<ResourceLocation> listTextures(Pack info)
+	{
+		try
+		{
+			PackResources pack = this.packs.open(info);
+			try (GenerationMetrics.Timer timer = this.metrics.time(GenerationMetrics.Phase.PACK_INDEX))
+			{
+				Set<ResourceLocation> textures = new HashSet<>();
+				for (String namespace : pack.getNamespaces(PackType.CLIENT_RESOURCES))
+				{
+					textures.addAll(pack.getResources(PackType.CLIENT_RESOURCES, namespace, TEXTURE_FOLDER, id -> id.getPath().endsWith(TEXTURE_EXTENSION)));
+				}
+				return textures;
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package commoble.autopalette;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.JsonObject;
+import com.mojang.blaze3d.platform.NativeImage;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.repository.Pack;
+import net.minecraft.util.GsonHelper;
+
+/**
+ * Caches the parent textures read during a single reload, so that overrides that share a parent
+ * only read, decode, and parse that parent's files once. Safe to use from multiple threads.
+ */
+public class ParentTextureCache
+{
+	public static final String ANIMATION_SECTION = "animation";
+	// the png signature and as much of the IHDR chunk as we read
+	public static final int PNG_HEADER_SIZE = 24;
+
+	private final PackHandles packs;
+	private final GenerationMetrics metrics;
+	private final MemoryBudget memoryBudget;
+	// the raw files of every parent read so far, which are charged to the memory budget until they're released
+	private final AtomicLong retainedBytes = new AtomicLong();
+	private final Map<Key, ParentTexture> parents = new ConcurrentHashMap<>();
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger reads = new AtomicInteger();
+	private final AtomicInteger decodeRequests = new AtomicInteger();
+	private final AtomicInteger decodes = new AtomicInteger();
+
+	/**
+	 * @param packs The pack pool to read parent textures from
+	 * @param metrics The metrics to time reading and decoding with
+	 * @param memoryBudget The budget to charge the parents' raw files to for as long as they're cached
+	 */
+	public ParentTextureCache(PackHandles packs, GenerationMetrics metrics, MemoryBudget memoryBudget)
+	{
+		this.packs = packs;
+		this.metrics = metrics;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Gets a parent texture, reading its files from its pack if no other override has read them yet this reload
+	 * @param info The pack to read the texture from
+	 * @param textureFile The resource ID of the texture's png, e.g. minecraft:textures/block/cobblestone.png
+	 * @return The parent texture, whose files have been read
+	 * @throws IOException If the texture's files could not be read
+	 */
+	public ParentTexture get(Pack info, ResourceLocation textureFile) throws IOException
+	{
+		this.requests.incrementAndGet();
+		ParentTexture parent = this.parents.computeIfAbsent(new Key(info.getId(), textureFile), key -> new ParentTexture(textureFile));
+		parent.read(info);
+		return parent;
+	}
+
+	/**
+	 * Releases all cached parent textures. Should be called once generation is finished.
+	 */
+	public void clear()
+	{
+		this.parents.clear();
+		this.memoryBudget.releaseRetained(this.retainedBytes.getAndSet(0L));
+	}
+
+	/**
+	 * @return How many parent textures were requested by overrides
+	 */
+	public int getRequestCount()
+	{
+		return this.requests.get();
+	}
+
+	/**
+	 * @return How many parent textures were actually read from their packs
+	 */
+	public int getReadCount()
+	{
+		return this.reads.get();
+	}
+
+	/**
+	 * @return How many times a parent texture's pixels were needed, by a single override or a batch of overrides that share the parent
+	 */
+	public int getDecodeRequestCount()
+	{
+		return this.decodeRequests.get();
+	}
+
+	/**
+	 * @return How many parent textures were actually decoded
+	 */
+	public int getDecodeCount()
+	{
+		return this.decodes.get();
+	}
+
+	/**
+	 * @return How many decodes were avoided by sharing decoded parents between overrides
+	 */
+	public int getDecodesSaved()
+	{
+		return this.decodeRequests.get() - this.decodes.get();
+	}
+
+	/**
+	 * Finds the height of a texture's animation frames, the same way vanilla does
+	 * @param metadata The raw bytes of the texture's .mcmeta, or null if it has none
+	 * @param width The width of the texture in pixels
+	 * @param height The height of the texture in pixels
+	 * @return The height of each animation frame in pixels, or 0 if the texture isn't animated or its metadata can't be read
+	 */
+	public static int getFrameHeight(@Nullable byte[] metadata, int width, int height)
+	{
+		if (metadata == null)
+		{
+			return 0;
+		}
+		try
+		{
+			BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(metadata), StandardCharsets.UTF_8));
+			JsonObject metadataJson = GsonHelper.parse(bufferedReader);
+			if (!metadataJson.has(ANIMATION_SECTION))
+			{
+				return 0;
+			}
+			JsonObject animation = GsonHelper.getAsJsonObject(metadataJson, ANIMATION_SECTION);
+			// frames without a declared size are square, unless only their width is declared
+			int frameWidth = GsonHelper.getAsInt(animation, "width", -1);
+			int frameHeight = GsonHelper.getAsInt(animation, "height", -1);
+			return frameHeight > 0 ? frameHeight
+				: frameWidth > 0 ? height
+				: Math.min(width, height);
+		}
+		catch (RuntimeException e)
+		{
+			// frame heights only decide where images are split for transforming, so we don't need to complain here;
+			// broken metadata gets logged when it's encoded
+			return 0;
+		}
+	}
+
+	/**
+	 * @param buffer A heap buffer, from position zero to its limit
+	 * @return The buffer's array if the buffer covers all of it, otherwise a copy of the buffer's contents
+	 */
+	protected static byte[] toArray(ByteBuffer buffer)
+	{
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.limit() == buffer.array().length)
+		{
+			return buffer.array();
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+	private record Key(String packID, ResourceLocation textureFile) {}
+
+	/**
+	 * A parent texture's files, read once and shared by every override that uses it.
+	 * Decoding and metadata parsing happen the first time they're needed, since overrides
+	 * whose outputs are already cached never need them.
+	 * The decoded pixels are only softly held once no override is using them, so big parents
+	 * don't pile up in memory over the course of a reload. The raw files are kept until the cache is cleared,
+	 * since they're what the pixels are decoded from again, and they're charged to the memory budget for that long.
+	 * Each parent is only ever read from its pack once.
+	 */
+	public class ParentTexture
+	{
+		private final ResourceLocation textureFile;
+		private boolean read = false;
+		private @Nullable IOException readError = null;
+		// wraps the whole of its array, which is served as-is by every override that doesn't change the parent's pixels
+		private ByteBuffer image;
+		private @Nullable byte[] metadata;
+		// a hash of the png and metadata, taken once when they're read, for the keys of every override that uses this parent
+		private byte[] fileHash;
+		private SoftReference<PixelImage> pixels = new SoftReference<>(null);
+		private SoftReference<IndexedImage> indexedPixels = new SoftReference<>(null);
+		private @Nullable byte[] encodedMetadata = null;
+		// -1 until we've looked at the metadata
+		private int frameHeight = -1;
+
+		protected ParentTexture(ResourceLocation textureFile)
+		{
+			this.textureFile = textureFile;
+		}
+
+		protected synchronized void read(Pack info) throws IOException
+		{
+			if (!this.read)
+			{
+				this.read = true;
+				try
+				{
+					this.readFiles(info);
+					ParentTextureCache.this.reads.incrementAndGet();
+				}
+				catch (IOException e)
+				{
+					// every override that shares this parent should fail the same way, without trying again
+					this.readError = e;
+				}
+			}
+			if (this.readError != null)
+			{
+				throw this.readError;
+			}
+		}
+
+		private void readFiles(Pack info) throws IOException
+		{
+			// every parent from the same pack shares the same opened pack
+			ParentTextureCache cache = ParentTextureCache.this;
+			// make sure the pack is opened before we start timing reads
+			cache.packs.open(info);
+			try (GenerationMetrics.Timer timer = cache.metrics.time(GenerationMetrics.Phase.PARENT_READ))
+			{
+				// read the parent's files from IO now so we don't trip over other IO readers later
+				ByteBuffer image = cache.packs.read(info, this.textureFile);
+				if (image == null)
+				{
+					throw new FileNotFoundException(this.textureFile.toString());
+				}
+				this.image = ByteBuffer.wrap(toArray(image));
+				// check if the original texture had metadata -- we'll need to provide that from the virtual pack if it exists
+				ByteBuffer metadata = cache.packs.read(info, AutopalettePack.getMetadataLocation(this.textureFile));
+				if (metadata != null)
+				{
+					this.metadata = toArray(metadata);
+				}
+			}
+			try (GenerationMetrics.Timer timer = cache.metrics.time(GenerationMetrics.Phase.INPUT_HASH))
+			{
+				this.fileHash = TextureCache.hashFiles(this.image, this.metadata);
+			}
+			long size = this.image.limit() + (this.metadata == null ? 0L : this.metadata.length);
+			cache.retainedBytes.addAndGet(size);
+			cache.memoryBudget.retain(size);
+		}
+
+		/**
+		 * @return A hash of the parent texture's png and .mcmeta from {@link TextureCache#hashFiles}
+		 */
+		public byte[] getFileHash()
+		{
+			return this.fileHash;
+		}
+
+		/**
+		 * @return The raw bytes of the parent texture's png, for serving the png as-is.
+		 * Every override that uses the parent's png gets the same array, which must not be modified.
+		 */
+		public byte[] getImageBytes()
+		{
+			return this.image.array();
+		}
+
+		/**
+		 * Estimates how much memory the decoded texture takes up, without decoding it
+		 * @return The size of the decoded texture in bytes, according to its png header
+		 */
+		public long getDecodedSize()
+		{
+			if (this.image.limit() < PNG_HEADER_SIZE)
+			{
+				return this.image.limit();
+			}
+			return 4L * Integer.toUnsignedLong(this.getWidth()) * Integer.toUnsignedLong(this.getHeight());
+		}
+
+		/**
+		 * @return The width of the texture in pixels according to its png header, without decoding it, or 0 if it has no header
+		 */
+		public int getWidth()
+		{
+			// png files start with an 8 byte signature and then the IHDR chunk,
+			// whose data starts with the width and height as big-endian ints at bytes 16 and 20
+			return this.image.limit() < PNG_HEADER_SIZE ? 0 : this.image.getInt(16);
+		}
+
+		/**
+		 * @return The height of the texture in pixels according to its png header, without decoding it, or 0 if it has no header
+		 */
+		public int getHeight()
+		{
+			return this.image.limit() < PNG_HEADER_SIZE ? 0 : this.image.getInt(20);
+		}
+
+		/**
+		 * Gets the parent texture's pixels, decoding them if they aren't already decoded
+		 * @return The decoded parent texture. Its pixels are shared and must not be modified.
+		 * @throws IOException If the texture could not be decoded
+		 */
+		public synchronized PixelImage getPixels() throws IOException
+		{
+			ParentTextureCache.this.decodeRequests.incrementAndGet();
+			return this.decodePixels();
+		}
+
+		private PixelImage decodePixels() throws IOException
+		{
+			PixelImage pixels = this.pixels.get();
+			if (pixels == null)
+			{
+				// we only keep the pixels on the heap, so we can release the native memory right away
+				try (GenerationMetrics.Timer timer = ParentTextureCache.this.metrics.time(GenerationMetrics.Phase.PARENT_DECODE);
+					NativeImage nativeImage = this.readNativeImage())
+				{
+					pixels = PixelImage.read(nativeImage);
+				}
+				this.pixels = new SoftReference<>(pixels);
+				ParentTextureCache.this.decodes.incrementAndGet();
+			}
+			return pixels;
+		}
+
+		private NativeImage readNativeImage() throws IOException
+		{
+			// NativeImage copies the png into native memory for stb to decode, and frees it again once it's decoded
+			return NativeImage.read(new ByteArrayInputStream(this.image.array()));
+		}
+
+		/**
+		 * Gets the parent texture's pixels as distinct colors and color indices, indexing them if they aren't already indexed
+		 * @return The indexed parent texture, which is shared by every override that recolors this parent
+		 * @throws IOException If the texture could not be decoded
+		 */
+		public synchronized IndexedImage getIndexedPixels() throws IOException
+		{
+			ParentTextureCache.this.decodeRequests.incrementAndGet();
+			IndexedImage indexedPixels = this.indexedPixels.get();
+			if (indexedPixels == null)
+			{
+				PixelImage pixels = this.decodePixels();
+				try (GenerationMetrics.Timer timer = ParentTextureCache.this.metrics.time(GenerationMetrics.Phase.PARENT_INDEX))
+				{
+					indexedPixels = IndexedImage.of(pixels);
+				}
+				this.indexedPixels = new SoftReference<>(indexedPixels);
+			}
+			return indexedPixels;
+		}
+
+		/**
+		 * Finds the height of the parent texture's animation frames, the same way vanilla does
+		 * @param width The width of the parent texture in pixels
+		 * @param height The height of the parent texture in pixels
+		 * @return The height of each animation frame in pixels, or 0 if the texture isn't animated
+		 */
+		public synchronized int getFrameHeight(int width, int height)
+		{
+			if (this.frameHeight < 0)
+			{
+				this.frameHeight = ParentTextureCache.getFrameHeight(this.metadata, width, height);
+			}
+			return this.frameHeight;
+		}
+
+		/**
+		 * Gets the parent texture's metadata as it should be served by the virtual pack
+		 * @param store The resource store to encode the metadata for
+		 * @return The encoded metadata, or null if the parent texture has no metadata
+		 */
+		public synchronized @Nullable byte[] getEncodedMetadata(ResourceStore store)
+		{
+			if (this.metadata != null && this.encodedMetadata == null)
+			{
+				try (GenerationMetrics.Timer timer = ParentTextureCache.this.metrics.time(GenerationMetrics.Phase.METADATA))
+				{
+					BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(this.metadata), StandardCharsets.UTF_8));
+					this.encodedMetadata = store.encodeJson(GsonHelper.parse(bufferedReader));
+				}
+			}
+			return this.encodedMetadata;
+		}
+	}
+}
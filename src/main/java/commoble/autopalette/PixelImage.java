@@ -0,0 +1,90 @@
+package commoble.autopalette;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+/**
+ * An image held as a plain array of pixels on the java heap, so it can be read by many threads
+ * and transformed in bulk without going through NativeImage's per-pixel accessors.
+ * @param width The width of the image in pixels
+ * @param height The height of the image in pixels
+ * @param pixels The pixels in row-major order, in the same ABGR format as NativeImage.
+ * Pixel (x,y) is at index x + y*width.
+ */
+public record PixelImage(int width, int height, int[] pixels)
+{
+	// hash pixels a chunk at a time so we don't need a byte copy of the whole image
+	public static final int HASH_BUFFER_SIZE = 4096;
+
+	/**
+	 * Copies the pixels out of a NativeImage
+	 * @param image The image to copy. The caller is still responsible for closing it.
+	 * @return A new PixelImage with the same pixels as the given image
+	 */
+	public static PixelImage read(NativeImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = new int[width * height];
+		for (int y=0; y<height; y++)
+		{
+			int rowStart = y * width;
+			for (int x=0; x<width; x++)
+			{
+				pixels[rowStart + x] = image.getPixelRGBA(x, y);
+			}
+		}
+		return new PixelImage(width, height, pixels);
+	}
+
+	/**
+	 * Copies this image into a new NativeImage
+	 * @return A new NativeImage with the same pixels as this image. The caller is responsible for closing it.
+	 */
+	public NativeImage toNativeImage()
+	{
+		NativeImage image = new NativeImage(this.width, this.height, false);
+		for (int y=0; y<this.height; y++)
+		{
+			int rowStart = y * this.width;
+			for (int x=0; x<this.width; x++)
+			{
+				image.setPixelRGBA(x, y, this.pixels[rowStart + x]);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Hashes the image's size and pixels, so identical images can share a single encoded png
+	 * @return A SHA-256 hash of the image, in hex
+	 */
+	public String contentHash()
+	{
+		MessageDigest digest = TextureCache.makeDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+		buffer.putInt(this.width).putInt(this.height);
+		digest.update(buffer.array(), 0, buffer.position());
+		IntBuffer intBuffer = buffer.clear().asIntBuffer();
+		for (int start=0; start<this.pixels.length; start += intBuffer.capacity())
+		{
+			int count = Math.min(intBuffer.capacity(), this.pixels.length - start);
+			intBuffer.clear();
+			intBuffer.put(this.pixels, start, count);
+			digest.update(buffer.array(), 0, count * Integer.BYTES);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * @return A copy of this image that can be modified without affecting this image
+	 */
+	public PixelImage copy()
+	{
+		return new PixelImage(this.width, this.height, this.pixels.clone());
+	}
+}
@@ -0,0 +1,292 @@
+package commoble.autopalette;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.mojang.blaze3d.platform.NativeImage;
+import com.mojang.serialization.Codec;
+import com.mojang.serialization.DataResult;
+import com.mojang.serialization.codecs.RecordCodecBuilder;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * One step of an autotexture's operations, which are applied to the parent texture in order after the autotexture's palette.
+ * Operations that only look at a pixel's color are {@link ColorOperation}s, which only need to be applied to each of a texture's distinct colors once.
+ * Colors are in the same AABBGGRR format that NativeImage uses. Operations are immutable and safe to share between threads.
+ */
+public interface PixelOperation
+{
+	// json format codec, e.g. {"type": "tint", "color": "FF8080"}
+	public static final Codec<PixelOperation> CODEC = Type.CODEC.dispatch("type", PixelOperation::getType, Type::getCodec);
+	// a hexadecimal color in "RRGGBB" or "RRGGBBAA" format
+	public static final Codec<Integer> COLOR_CODEC = Codec.STRING.comapFlatMap(
+		string -> PaletteOverride.parseColor(string, "color"),
+		color -> String.format("%08X", PaletteOverride.flipRGBA(color)));
+
+	public Type getType();
+
+	/**
+	 * Multiplies two color channels, treating 255 as 1
+	 * @param a A channel from 0 to 255
+	 * @param b A channel from 0 to 255
+	 * @return The product, from 0 to 255
+	 */
+	public static int multiply(int a, int b)
+	{
+		return (a * b + 127) / 255;
+	}
+
+	/**
+	 * An operation whose result only depends on the color of the pixel it's applied to
+	 */
+	public static interface ColorOperation extends PixelOperation
+	{
+		/**
+		 * @param color A color in AABBGGRR format
+		 * @return The color after this operation
+		 */
+		public int apply(int color);
+	}
+
+	public static enum Type
+	{
+		PALETTE("palette", Palette.CODEC),
+		TINT("tint", Tint.CODEC),
+		HSV("hsv", HsvShift.CODEC),
+		ALPHA_MASK("alpha_mask", AlphaMask.CODEC),
+		GRADIENT_MAP("gradient_map", GradientMap.CODEC);
+
+		public static final Codec<Type> CODEC = Codec.STRING.comapFlatMap(Type::byName, Type::getName);
+
+		private final String name;	public String getName() { return this.name; }
+		private final Codec<? extends PixelOperation> codec;	public Codec<? extends PixelOperation> getCodec() { return this.codec; }
+
+		private Type(String name, Codec<? extends PixelOperation> codec)
+		{
+			this.name = name;
+			this.codec = codec;
+		}
+
+		public static DataResult<Type> byName(String name)
+		{
+			for (Type type : values())
+			{
+				if (type.name.equals(name))
+				{
+					return DataResult.success(type);
+				}
+			}
+			return DataResult.error(String.format("Unknown operation type %s -- must be one of %s", name, Arrays.stream(values()).map(Type::getName).toList()));
+		}
+	}
+
+	/**
+	 * Replaces colors with other colors, the same way an autotexture's palette and tolerance do
+	 * @param palette The colors to replace
+	 */
+	public static record Palette(CompiledPalette palette) implements ColorOperation
+	{
+		public static final Codec<Palette> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+			PaletteOverride.PALETTE_CODEC.fieldOf("palette").forGetter(operation -> operation.palette().toMap()),
+			PaletteOverride.TOLERANCE_CODEC.optionalFieldOf("tolerance", 0).forGetter(operation -> operation.palette().getTolerance())
+		).apply(instance, (map, tolerance) -> new Palette(CompiledPalette.compile(map, tolerance))));
+
+		@Override
+		public Type getType()
+		{
+			return Type.PALETTE;
+		}
+
+		@Override
+		public int apply(int color)
+		{
+			return this.palette.apply(color);
+		}
+	}
+
+	/**
+	 * Multiplies each channel of a color by the same channel of the tint, so white becomes the tint and black stays black
+	 * @param color The tint color
+	 */
+	public static record Tint(int color) implements ColorOperation
+	{
+		public static final Codec<Tint> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+			COLOR_CODEC.fieldOf("color").forGetter(Tint::color)
+		).apply(instance, Tint::new));
+
+		@Override
+		public Type getType()
+		{
+			return Type.TINT;
+		}
+
+		@Override
+		public int apply(int color)
+		{
+			int tint = this.color;
+			return NativeImage.combine(
+				multiply(NativeImage.getA(color), NativeImage.getA(tint)),
+				multiply(NativeImage.getB(color), NativeImage.getB(tint)),
+				multiply(NativeImage.getG(color), NativeImage.getG(tint)),
+				multiply(NativeImage.getR(color), NativeImage.getR(tint)));
+		}
+	}
+
+	/**
+	 * Shifts the hue, saturation, and brightness of a color, keeping its alpha
+	 * @param hue Degrees to rotate the hue by
+	 * @param saturation How much to add to the saturation, which goes from 0 to 1
+	 * @param value How much to add to the brightness, which goes from 0 to 1
+	 */
+	public static record HsvShift(float hue, float saturation, float value) implements ColorOperation
+	{
+		public static final Codec<HsvShift> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+			Codec.FLOAT.optionalFieldOf("hue", 0F).forGetter(HsvShift::hue),
+			Codec.floatRange(-1F, 1F).optionalFieldOf("saturation", 0F).forGetter(HsvShift::saturation),
+			Codec.floatRange(-1F, 1F).optionalFieldOf("value", 0F).forGetter(HsvShift::value)
+		).apply(instance, HsvShift::new));
+
+		@Override
+		public Type getType()
+		{
+			return Type.HSV;
+		}
+
+		@Override
+		public int apply(int color)
+		{
+			int r = NativeImage.getR(color);
+			int g = NativeImage.getG(color);
+			int b = NativeImage.getB(color);
+			int max = Math.max(r, Math.max(g, b));
+			int min = Math.min(r, Math.min(g, b));
+			int range = max - min;
+			// hue in sixths of the color wheel
+			float hue = range == 0 ? 0F
+				: max == r ? (float)(g - b) / range
+				: max == g ? 2F + (float)(b - r) / range
+				: 4F + (float)(r - g) / range;
+			hue += this.hue / 60F;
+			hue -= 6F * (float)Math.floor(hue / 6F);
+			float saturation = Math.max(0F, Math.min(1F, (max == 0 ? 0F : (float)range / max) + this.saturation));
+			float value = Math.max(0F, Math.min(1F, max / 255F + this.value));
+			// back to rgb
+			int sector = Math.min(5, (int)hue);
+			float fraction = hue - sector;
+			int v = Math.round(value * 255F);
+			int p = Math.round(value * (1F - saturation) * 255F);
+			int q = Math.round(value * (1F - saturation * fraction) * 255F);
+			int t = Math.round(value * (1F - saturation * (1F - fraction)) * 255F);
+			return switch (sector)
+			{
+				case 0 -> NativeImage.combine(NativeImage.getA(color), p, t, v);
+				case 1 -> NativeImage.combine(NativeImage.getA(color), p, v, q);
+				case 2 -> NativeImage.combine(NativeImage.getA(color), t, v, p);
+				case 3 -> NativeImage.combine(NativeImage.getA(color), v, q, p);
+				case 4 -> NativeImage.combine(NativeImage.getA(color), v, p, t);
+				default -> NativeImage.combine(NativeImage.getA(color), q, p, v);
+			};
+		}
+	}
+
+	/**
+	 * Multiplies the alpha of each pixel by the alpha of the same pixel of another texture.
+	 * The mask must be as wide as the parent texture, and either as tall as the parent or a whole number of times shorter,
+	 * in which case it's repeated down the parent, e.g. once for each animation frame.
+	 * @param mask The ID of the mask texture, e.g. "minecraft:block/glass", which is read from the same pack as the parent texture
+	 */
+	public static record AlphaMask(ResourceLocation mask) implements PixelOperation
+	{
+		public static final Codec<AlphaMask> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+			ResourceLocation.CODEC.fieldOf("mask").forGetter(AlphaMask::mask)
+		).apply(instance, AlphaMask::new));
+
+		@Override
+		public Type getType()
+		{
+			return Type.ALPHA_MASK;
+		}
+
+		/**
+		 * @param color A color in AABBGGRR format
+		 * @param maskColor The color of the same pixel in the mask
+		 * @return The color with its alpha multiplied by the mask's alpha
+		 */
+		public static int apply(int color, int maskColor)
+		{
+			return (multiply(color >>> 24, maskColor >>> 24) << 24) | (color & 0xFFFFFF);
+		}
+	}
+
+	/**
+	 * Replaces each color with a color from a gradient, picked by the color's brightness.
+	 * Black picks the first color of the gradient, white picks the last, and the colors in between are spaced evenly.
+	 * The result's alpha is the original alpha multiplied by the gradient's alpha.
+	 * @param gradient The colors of the gradient, darkest first
+	 */
+	public static record GradientMap(int[] gradient) implements ColorOperation
+	{
+		public static final Codec<GradientMap> CODEC = RecordCodecBuilder.create(instance -> instance.group(
+			COLOR_CODEC.listOf()
+				.flatXmap(GradientMap::validateGradient, GradientMap::validateGradient)
+				.xmap(colors -> colors.stream().mapToInt(Integer::intValue).toArray(), colors -> Arrays.stream(colors).boxed().toList())
+				.fieldOf("gradient").forGetter(GradientMap::gradient)
+		).apply(instance, GradientMap::new));
+
+		@Override
+		public Type getType()
+		{
+			return Type.GRADIENT_MAP;
+		}
+
+		@Override
+		public int apply(int color)
+		{
+			int[] gradient = this.gradient;
+			// rec. 601 luma, from 0 to 255
+			int luma = (NativeImage.getR(color) * 299 + NativeImage.getG(color) * 587 + NativeImage.getB(color) * 114 + 500) / 1000;
+			int position = luma * (gradient.length - 1);
+			int index = position / 255;
+			int fraction = position % 255;
+			int from = gradient[index];
+			int to = fraction == 0 ? from : gradient[index + 1];
+			return NativeImage.combine(
+				multiply(NativeImage.getA(color), lerp(NativeImage.getA(from), NativeImage.getA(to), fraction)),
+				lerp(NativeImage.getB(from), NativeImage.getB(to), fraction),
+				lerp(NativeImage.getG(from), NativeImage.getG(to), fraction),
+				lerp(NativeImage.getR(from), NativeImage.getR(to), fraction));
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof GradientMap other && Arrays.equals(this.gradient, other.gradient);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode(this.gradient);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "GradientMap[gradient=" + Arrays.toString(this.gradient) + "]";
+		}
+
+		// blends two channels, fraction goes from 0 (all from) to 255 (all to)
+		private static int lerp(int from, int to, int fraction)
+		{
+			return (from * (255 - fraction) + to * fraction + 127) / 255;
+		}
+
+		private static DataResult<List<Integer>> validateGradient(List<Integer> colors)
+		{
+			return colors.isEmpty()
+				? DataResult.error("Gradient must have at least one color")
+				: DataResult.success(colors);
+		}
+	}
+}
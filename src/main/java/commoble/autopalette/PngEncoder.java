@@ -0,0 +1,197 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.mojang.blaze3d.platform.NativeImage;
+
+/**
+ * Encodes images as pngs straight from their pixel arrays, without copying them into a NativeImage first.
+ * Meant for textures that are decoded again moments later by the same game, so it can trade compression for speed.
+ * Each thread reuses its own deflater and buffers. Safe to use from multiple threads.
+ */
+public class PngEncoder
+{
+	public static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	public static final byte[] IHDR = "IHDR".getBytes(StandardCharsets.US_ASCII);
+	public static final byte[] IDAT = "IDAT".getBytes(StandardCharsets.US_ASCII);
+	public static final byte[] IEND = "IEND".getBytes(StandardCharsets.US_ASCII);
+	public static final int IHDR_SIZE = 13;
+	// length, type, and crc
+	public static final int CHUNK_OVERHEAD = 12;
+	public static final byte BIT_DEPTH = 8;
+	public static final byte COLOR_TYPE_RGBA = 6;
+	public static final byte FILTER_NONE = 0;
+	// buffers bigger than this are only used once, so a single huge texture doesn't pin its buffers to a worker thread forever
+	public static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	/**
+	 * How generated textures are encoded
+	 */
+	public enum Mode
+	{
+		// NativeImage's encoder, the same one vanilla uses for screenshots
+		VANILLA(Deflater.DEFAULT_COMPRESSION),
+		// the fastest deflate level, still several times smaller than the raw pixels for most textures
+		FAST(Deflater.BEST_SPEED),
+		// uncompressed deflate blocks, so encoding is little more than copying the pixels
+		STORED(Deflater.NO_COMPRESSION);
+
+		private final int level;	public int getLevel() { return this.level; }
+
+		Mode(int level)
+		{
+			this.level = level;
+		}
+	}
+
+	/**
+	 * Encodes an image as a png
+	 * @param image The image to encode
+	 * @param mode How to encode it
+	 * @return The png bytes
+	 * @throws IOException If the image could not be encoded
+	 */
+	public static byte[] encode(PixelImage image, Mode mode) throws IOException
+	{
+		if (mode == Mode.VANILLA)
+		{
+			try (NativeImage nativeImage = image.toNativeImage())
+			{
+				return nativeImage.asByteArray();
+			}
+		}
+		return encode(image, mode.getLevel());
+	}
+
+	/**
+	 * Encodes an image as an 8-bit RGBA png, without filtering its rows
+	 * @param image The image to encode
+	 * @param level The deflate level to compress the pixels with, from 0 (no compression) to 9 (best compression)
+	 * @return The png bytes
+	 */
+	public static byte[] encode(PixelImage image, int level)
+	{
+		int width = image.width();
+		int height = image.height();
+		int[] pixels = image.pixels();
+		int rowSize = 1 + 4 * width;
+		int rawSize = rowSize * height;
+		Buffers buffers = BUFFERS.get();
+
+		// each row is a filter type byte followed by the row's pixels in RGBA order
+		byte[] raw = buffers.getRaw(rawSize);
+		int rawIndex = 0;
+		for (int y=0; y<height; y++)
+		{
+			raw[rawIndex++] = FILTER_NONE;
+			int rowStart = y * width;
+			for (int x=0; x<width; x++)
+			{
+				// the pixel format is ABGR
+				int pixel = pixels[rowStart + x];
+				raw[rawIndex++] = (byte)pixel;
+				raw[rawIndex++] = (byte)(pixel >>> 8);
+				raw[rawIndex++] = (byte)(pixel >>> 16);
+				raw[rawIndex++] = (byte)(pixel >>> 24);
+			}
+		}
+
+		Deflater deflater = buffers.deflater;
+		deflater.reset();
+		deflater.setLevel(level);
+		deflater.setInput(raw, 0, rawSize);
+		deflater.finish();
+		// stored blocks add a few bytes per 64 KB, so this is almost always big enough on the first try
+		byte[] deflated = buffers.getDeflated(rawSize + (rawSize >> 10) + 64);
+		int deflatedSize = 0;
+		while (!deflater.finished())
+		{
+			if (deflatedSize == deflated.length)
+			{
+				deflated = buffers.growDeflated(deflatedSize);
+			}
+			deflatedSize += deflater.deflate(deflated, deflatedSize, deflated.length - deflatedSize);
+		}
+
+		byte[] png = new byte[SIGNATURE.length + CHUNK_OVERHEAD + IHDR_SIZE + CHUNK_OVERHEAD + deflatedSize + CHUNK_OVERHEAD];
+		ByteBuffer output = ByteBuffer.wrap(png);
+		output.put(SIGNATURE);
+		ByteBuffer header = ByteBuffer.allocate(IHDR_SIZE)
+			.putInt(width)
+			.putInt(height)
+			.put(BIT_DEPTH)
+			.put(COLOR_TYPE_RGBA)
+			.put((byte)0) // deflate compression
+			.put(FILTER_NONE)
+			.put((byte)0); // no interlacing
+		writeChunk(output, IHDR, header.array(), IHDR_SIZE, buffers.crc);
+		writeChunk(output, IDAT, deflated, deflatedSize, buffers.crc);
+		writeChunk(output, IEND, deflated, 0, buffers.crc);
+		buffers.release();
+		return png;
+	}
+
+	private static void writeChunk(ByteBuffer output, byte[] type, byte[] data, int size, CRC32 crc)
+	{
+		output.putInt(size);
+		int typeStart = output.position();
+		output.put(type);
+		output.put(data, 0, size);
+		// the crc covers the chunk type and data, but not the length
+		crc.reset();
+		crc.update(output.array(), typeStart, type.length + size);
+		output.putInt((int)crc.getValue());
+	}
+
+	private static class Buffers
+	{
+		private final Deflater deflater = new Deflater();
+		private final CRC32 crc = new CRC32();
+		private byte[] raw = new byte[0];
+		private byte[] deflated = new byte[0];
+
+		private byte[] getRaw(int size)
+		{
+			if (this.raw.length < size)
+			{
+				this.raw = new byte[size];
+			}
+			return this.raw;
+		}
+
+		private byte[] getDeflated(int size)
+		{
+			if (this.deflated.length < size)
+			{
+				this.deflated = new byte[size];
+			}
+			return this.deflated;
+		}
+
+		private byte[] growDeflated(int size)
+		{
+			byte[] deflated = new byte[size * 2];
+			System.arraycopy(this.deflated, 0, deflated, 0, size);
+			this.deflated = deflated;
+			return deflated;
+		}
+
+		private void release()
+		{
+			if (this.raw.length > MAX_RETAINED_BUFFER_SIZE)
+			{
+				this.raw = new byte[0];
+			}
+			if (this.deflated.length > MAX_RETAINED_BUFFER_SIZE)
+			{
+				this.deflated = new byte[0];
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package commoble.autopalette;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * An immutable index of resource IDs, with each namespace's paths kept in sorted order
+ * so that the resources in a folder can be found with a binary search instead of a scan of every resource.
+ */
+public class ResourceIndex
+{
+	public static final ResourceIndex EMPTY = new ResourceIndex(Collections.emptyMap());
+	public static final String METADATA_EXTENSION = ".mcmeta";
+
+	// sorted paths, keyed by namespace
+	private final Map<String, String[]> paths;
+
+	protected ResourceIndex(Map<String, String[]> paths)
+	{
+		this.paths = paths;
+	}
+
+	/**
+	 * @param ids The resource IDs to index
+	 * @return An index of the given IDs
+	 */
+	public static ResourceIndex of(Collection<ResourceLocation> ids)
+	{
+		Map<String, List<String>> namespacePaths = new HashMap<>();
+		for (ResourceLocation id : ids)
+		{
+			namespacePaths.computeIfAbsent(id.getNamespace(), namespace -> new ArrayList<>()).add(id.getPath());
+		}
+		Map<String, String[]> sortedPaths = new HashMap<>();
+		namespacePaths.forEach((namespace, paths) ->
+		{
+			String[] pathArray = paths.toArray(String[]::new);
+			Arrays.sort(pathArray);
+			sortedPaths.put(namespace, pathArray);
+		});
+		return new ResourceIndex(sortedPaths);
+	}
+
+	/**
+	 * @return The namespaces of the indexed resources
+	 */
+	public Set<String> getNamespaces()
+	{
+		return Collections.unmodifiableSet(this.paths.keySet());
+	}
+
+	/**
+	 * Finds the resources in a folder and its subfolders, the same way folder packs do
+	 * @param namespace The namespace to look in
+	 * @param folder The folder to look in, e.g. textures/block
+	 * @param filter Which resources to include
+	 * @return The resources in the folder that pass the filter, not including .mcmeta files
+	 */
+	public List<ResourceLocation> getResources(String namespace, String folder, Predicate<ResourceLocation> filter)
+	{
+		String[] sortedPaths = this.paths.get(namespace);
+		if (sortedPaths == null)
+		{
+			return Collections.emptyList();
+		}
+		// everything in the folder starts with the folder's path and a slash, so it's all sorted together right after that prefix
+		String prefix = folder.isEmpty() || folder.endsWith("/") ? folder : folder + "/";
+		int start = Arrays.binarySearch(sortedPaths, prefix);
+		if (start < 0)
+		{
+			start = -start - 1;
+		}
+		List<ResourceLocation> results = new ArrayList<>();
+		for (int i=start; i<sortedPaths.length && sortedPaths[i].startsWith(prefix); i++)
+		{
+			String path = sortedPaths[i];
+			if (!path.endsWith(METADATA_EXTENSION))
+			{
+				ResourceLocation id = new ResourceLocation(namespace, path);
+				if (filter.test(id))
+				{
+					results.add(id);
+				}
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,86 @@
+package commoble.autopalette;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * An immutable copy of the virtual pack's generated resources, published once a reload has finished generating them.
+ * Nothing changes a snapshot after it's made, so readers never need to lock anything,
+ * and a reader still holding an older snapshot keeps seeing the same resources after a newer one has been published.
+ */
+public class ResourceSnapshot implements GeneratedResources
+{
+	public static final ResourceSnapshot EMPTY = new ResourceSnapshot(ImmutableMap.of(), ResourceIndex.EMPTY);
+
+	private final Map<ResourceLocation, byte[]> resources;
+	// built up front, so the first listing after a reload doesn't have to build it
+	private final ResourceIndex index;	public ResourceIndex getIndex() { return this.index; }
+
+	protected ResourceSnapshot(Map<ResourceLocation, byte[]> resources, ResourceIndex index)
+	{
+		this.resources = resources;
+		this.index = index;
+	}
+
+	/**
+	 * @param resources The resources to copy. The byte arrays are shared, not copied, and must not be modified.
+	 * @return A snapshot of the resources
+	 */
+	public static ResourceSnapshot of(Map<ResourceLocation, byte[]> resources)
+	{
+		ImmutableMap<ResourceLocation, byte[]> copy = ImmutableMap.copyOf(resources);
+		return new ResourceSnapshot(copy, ResourceIndex.of(copy.keySet()));
+	}
+
+	/**
+	 * @param removed The IDs of resources to leave out of the new snapshot
+	 * @param added Resources to add to the new snapshot, which replace any of this snapshot's resources with the same IDs
+	 * @return A new snapshot with this snapshot's resources, minus the removed resources, plus the added resources.
+	 * This snapshot isn't changed.
+	 */
+	public ResourceSnapshot replace(Set<ResourceLocation> removed, ResourceSnapshot added)
+	{
+		Map<ResourceLocation, byte[]> resources = new HashMap<>(this.resources);
+		resources.keySet().removeAll(removed);
+		resources.putAll(added.resources);
+		return of(resources);
+	}
+
+	@Override
+	public boolean contains(ResourceLocation id)
+	{
+		return this.resources.containsKey(id);
+	}
+
+	@Override
+	public @Nullable byte[] get(ResourceLocation id)
+	{
+		return this.resources.get(id);
+	}
+
+	@Override
+	public Set<String> getNamespaces()
+	{
+		return this.index.getNamespaces();
+	}
+
+	@Override
+	public Collection<ResourceLocation> getResources(String namespace, String folder, Predicate<ResourceLocation> filter)
+	{
+		return this.index.getResources(namespace, folder, filter);
+	}
+
+	public int size()
+	{
+		return this.resources.size();
+	}
+}
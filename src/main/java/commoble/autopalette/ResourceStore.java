@@ -0,0 +1,212 @@
+package commoble.autopalette;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.gson.JsonObject;
+
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Holds the generated resources of the virtual pack as encoded bytes while they're being generated.
+ * Once a reload has finished, the virtual pack serves an immutable {@link ResourceSnapshot} of them instead.
+ * Images and metadata are encoded once when they're generated, and every read after that
+ * is served from the same byte array. Generated images are content-addressed by their pixels,
+ * so identical textures from different overrides are only encoded and stored once.
+ * Safe to use from multiple threads.
+ */
+public class ResourceStore
+{
+	private final PngEncoder.Mode encoderMode;	public PngEncoder.Mode getEncoderMode() { return this.encoderMode; }
+	private final Map<ResourceLocation, byte[]> resources = new ConcurrentHashMap<>();
+	// encoded pngs, keyed by the content hash of their pixels
+	private final Map<String, byte[]> images = new ConcurrentHashMap<>();
+	private final AtomicInteger encodes = new AtomicInteger();
+	private final AtomicInteger dedupes = new AtomicInteger();
+	private final AtomicInteger noOps = new AtomicInteger();
+	private final AtomicInteger imageEncodes = new AtomicInteger();
+	private final AtomicLong encodedImageBytes = new AtomicLong();
+
+	/**
+	 * @param encoderMode How to encode generated images
+	 */
+	public ResourceStore(PngEncoder.Mode encoderMode)
+	{
+		this.encoderMode = encoderMode;
+	}
+
+	/**
+	 * Encodes an image as a png with this store's encoder, unless an identical image has already been encoded for this store
+	 * @param image The image to encode
+	 * @param metrics The metrics to time hashing and encoding with
+	 * @return The png bytes, shared with every identical image in this store
+	 * @throws IOException If the image could not be encoded
+	 */
+	public byte[] encodeImage(PixelImage image, GenerationMetrics metrics) throws IOException
+	{
+		String hash;
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.DEDUPE))
+		{
+			hash = image.contentHash();
+		}
+		byte[] existingBytes = this.images.get(hash);
+		if (existingBytes != null)
+		{
+			this.dedupes.incrementAndGet();
+			return existingBytes;
+		}
+		byte[] bytes;
+		try (GenerationMetrics.Timer timer = metrics.time(GenerationMetrics.Phase.ENCODE))
+		{
+			bytes = PngEncoder.encode(image, this.encoderMode);
+		}
+		this.encodes.incrementAndGet();
+		this.imageEncodes.incrementAndGet();
+		this.encodedImageBytes.addAndGet(bytes.length);
+		// if another thread encoded the same image while we were encoding it, we use theirs so there's only one copy
+		existingBytes = this.images.putIfAbsent(hash, bytes);
+		if (existingBytes != null)
+		{
+			this.dedupes.incrementAndGet();
+			return existingBytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Records that an override didn't change any of its parent's pixels, so the parent's png was used without encoding anything
+	 */
+	public void countNoOp()
+	{
+		this.noOps.incrementAndGet();
+	}
+
+	/**
+	 * Encodes a json object as utf-8 bytes
+	 * @param json The json to encode
+	 * @return The encoded json
+	 */
+	public byte[] encodeJson(JsonObject json)
+	{
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+		this.encodes.incrementAndGet();
+		return bytes;
+	}
+
+	/**
+	 * Stores a generated texture, and its metadata if it has any
+	 * @param textureID The resource ID of the texture's png, e.g. autopalette:textures/block/dark_cobblestone.png
+	 * @param texture The texture to store
+	 */
+	public void putTexture(ResourceLocation textureID, GeneratedTexture texture)
+	{
+		this.put(textureID, texture.image());
+		// if the original texture had metadata, we'll need to provide that later
+		if (texture.metadata() != null)
+		{
+			this.put(AutopalettePack.getMetadataLocation(textureID), texture.metadata());
+		}
+	}
+
+	public void put(ResourceLocation id, byte[] bytes)
+	{
+		this.resources.put(id, bytes);
+	}
+
+	/**
+	 * @param id A resource ID, e.g. autopalette:textures/block/dark_cobblestone.png
+	 * @return Whether the resource has been stored yet
+	 */
+	public boolean contains(ResourceLocation id)
+	{
+		return this.resources.containsKey(id);
+	}
+
+	/**
+	 * @param id A resource ID, e.g. autopalette:textures/block/dark_cobblestone.png
+	 * @return The encoded bytes of that resource, or null if it hasn't been stored yet. The array must not be modified.
+	 */
+	public @Nullable byte[] get(ResourceLocation id)
+	{
+		return this.resources.get(id);
+	}
+
+	public int size()
+	{
+		return this.resources.size();
+	}
+
+	/**
+	 * @return An immutable copy of the stored resources, which shares their bytes
+	 */
+	public ResourceSnapshot snapshot()
+	{
+		return ResourceSnapshot.of(this.resources);
+	}
+
+	/**
+	 * @return How many images and jsons have been encoded for this store
+	 */
+	public int getEncodeCount()
+	{
+		return this.encodes.get();
+	}
+
+	/**
+	 * @return How many generated images were encoded for this store
+	 */
+	public int getImageEncodeCount()
+	{
+		return this.imageEncodes.get();
+	}
+
+	/**
+	 * @return The total size of the generated images encoded for this store, in bytes
+	 */
+	public long getEncodedImageBytes()
+	{
+		return this.encodedImageBytes.get();
+	}
+
+	/**
+	 * @return How many generated images were identical to an image that had already been encoded
+	 */
+	public int getDedupeCount()
+	{
+		return this.dedupes.get();
+	}
+
+	/**
+	 * @return How many overrides didn't change any of their parent's pixels
+	 */
+	public int getNoOpCount()
+	{
+		return this.noOps.get();
+	}
+
+	/**
+	 * @return The total size in bytes of all stored resources, counting resources that share bytes only once
+	 */
+	public long getBytesRetained()
+	{
+		Set<byte[]> distinctBytes = Collections.newSetFromMap(new IdentityHashMap<>());
+		long bytesRetained = 0L;
+		for (byte[] bytes : this.resources.values())
+		{
+			if (distinctBytes.add(bytes))
+			{
+				bytesRetained += bytes.length;
+			}
+		}
+		return bytesRetained;
+	}
+}
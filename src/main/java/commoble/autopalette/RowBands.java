@@ -0,0 +1,112 @@
+package commoble.autopalette;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the pixels of large images into bands of whole rows and processes the bands in parallel with fork/join.
+ * Bands of animated textures are aligned to their frames, so no frame is split between two bands.
+ * Small images are processed inline on the calling thread.
+ */
+public final class RowBands
+{
+	// a 256x256 texture, or a strip of sixteen 64x64 frames
+	public static final int DEFAULT_SPLIT_THRESHOLD = 65536;
+
+	private RowBands() {}
+
+	/**
+	 * Something that processes a range of an image's pixels, independently of every other range
+	 */
+	@FunctionalInterface
+	public static interface BandAction
+	{
+		/**
+		 * @param from The index of the first pixel to process (inclusive)
+		 * @param to The index after the last pixel to process (exclusive)
+		 */
+		public void process(int from, int to);
+	}
+
+	/**
+	 * Processes an image's pixels in bands of rows, in parallel if the image is at least as big as the split threshold
+	 * @param width The image's width in pixels
+	 * @param height The image's height in pixels
+	 * @param frameHeight The height of the image's animation frames, or 0 if it isn't animated
+	 * @param splitThreshold The fewest pixels an image must have to be split, which is also about the fewest pixels in each band.
+	 * 0 to never split.
+	 * @param action What to do with each band's pixels. May be run on several threads at once.
+	 */
+	public static void forEachBand(int width, int height, int frameHeight, int splitThreshold, BandAction action)
+	{
+		int pixelCount = width * height;
+		if (splitThreshold <= 0 || pixelCount < splitThreshold || width <= 0)
+		{
+			action.process(0, pixelCount);
+			return;
+		}
+		int bandHeight = getBandHeight(width, height, frameHeight, splitThreshold);
+		int bandCount = (height + bandHeight - 1) / bandHeight;
+		if (bandCount <= 1)
+		{
+			action.process(0, pixelCount);
+			return;
+		}
+		// runs in the worker pool if we're already in one, or the common pool otherwise
+		new BandTask(width, height, bandHeight, 0, bandCount, action).invoke();
+	}
+
+	/**
+	 * @param width The image's width in pixels
+	 * @param height The image's height in pixels
+	 * @param frameHeight The height of the image's animation frames, or 0 if it isn't animated
+	 * @param splitThreshold About the fewest pixels in each band
+	 * @return How many rows each band should have
+	 */
+	public static int getBandHeight(int width, int height, int frameHeight, int splitThreshold)
+	{
+		int rows = Math.max(1, (splitThreshold + width - 1) / width);
+		if (frameHeight > 0 && frameHeight < height)
+		{
+			// round up to whole frames
+			rows = ((rows + frameHeight - 1) / frameHeight) * frameHeight;
+		}
+		return Math.min(rows, height);
+	}
+
+	private static class BandTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int width;
+		private final int height;
+		private final int bandHeight;
+		private final int firstBand;
+		private final int endBand;
+		private final BandAction action;
+
+		private BandTask(int width, int height, int bandHeight, int firstBand, int endBand, BandAction action)
+		{
+			this.width = width;
+			this.height = height;
+			this.bandHeight = bandHeight;
+			this.firstBand = firstBand;
+			this.endBand = endBand;
+			this.action = action;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (this.endBand - this.firstBand == 1)
+			{
+				int fromRow = this.firstBand * this.bandHeight;
+				int toRow = Math.min(fromRow + this.bandHeight, this.height);
+				this.action.process(fromRow * this.width, toRow * this.width);
+				return;
+			}
+			int middleBand = (this.firstBand + this.endBand) >>> 1;
+			invokeAll(new BandTask(this.width, this.height, this.bandHeight, this.firstBand, middleBand, this.action),
+				new BandTask(this.width, this.height, this.bandHeight, middleBand, this.endBand, this.action));
+		}
+	}
+}
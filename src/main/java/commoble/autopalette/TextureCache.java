@@ -0,0 +1,384 @@
+package commoble.autopalette;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * On-disk cache of generated textures, keyed by a hash of everything that goes into generating them.
+ * Entries from older versions of the generation code are discarded automatically.
+ * Safe to read from and write to from multiple threads.
+ */
+public class TextureCache
+{
+	// bump this if the entry file format changes
+	public static final int FORMAT_VERSION = 1;
+	public static final String ENTRY_EXTENSION = ".bin";
+	public static final String TEMP_EXTENSION = ".tmp";
+	// classes whose code determines what generated textures look like, or how their pngs and metadata are encoded
+	// if any of these change, the version stamp changes and the old cache entries are discarded
+	public static final List<Class<?>> TRANSFORM_CLASSES = List.of(PaletteOverride.class, CompiledPalette.class, NearestColorTree.class, PixelOperation.class,
+		PixelOperation.Palette.class, PixelOperation.Tint.class, PixelOperation.HsvShift.class, PixelOperation.AlphaMask.class, PixelOperation.GradientMap.class,
+		OperationPipeline.class, OperationPipeline.Bound.class, PixelImage.class, IndexedImage.class,
+		PngEncoder.class, PngEncoder.Mode.class, ResourceStore.class, ParentTextureCache.class, ParentTextureCache.ParentTexture.class, AutopalettePack.class);
+	public static final String VERSION_STAMP = makeVersionStamp();
+
+	private final Path directory;
+	private final long maxBytes;
+	private final int compressionLevel;	public int getCompressionLevel() { return this.compressionLevel; }
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+	private final AtomicInteger writes = new AtomicInteger();
+	private final AtomicInteger evictions = new AtomicInteger();
+
+	/**
+	 * @param rootDirectory The directory to keep cache entries in. Each version stamp gets its own subdirectory.
+	 * @param maxBytes The maximum total size of all entries; the least recently used entries are evicted by {@link #trim} beyond this
+	 * @param compressionLevel The deflate level that generated images are encoded with before they're written to the cache,
+	 * if they weren't already encoded with NativeImage's encoder
+	 * @throws IOException If the cache directory cannot be created
+	 */
+	public TextureCache(Path rootDirectory, long maxBytes, int compressionLevel) throws IOException
+	{
+		this.directory = rootDirectory.resolve(VERSION_STAMP);
+		this.maxBytes = maxBytes;
+		this.compressionLevel = compressionLevel;
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * Creates a key from the inputs of a palette override.
+	 * Used both for disk cache entries and to check whether an override needs to be generated again on reload
+	 * @param packID The ID of the pack the parent texture was read from
+	 * @param jsonHash A hash of the autotexture json from {@link OverrideIndex#hashJson}
+	 * @param parentHash A hash of the parent texture's files from {@link #hashFiles}
+	 * @param maskHashes Hashes of the override's alpha mask textures' files from {@link #hashFiles}, in the order the override uses them
+	 * @return A key that changes if any of the inputs change
+	 */
+	public static String makeKey(String packID, String jsonHash, byte[] parentHash, List<byte[]> maskHashes)
+	{
+		MessageDigest digest = makeDigest();
+		updateField(digest, VERSION_STAMP.getBytes(StandardCharsets.UTF_8));
+		updateField(digest, packID.getBytes(StandardCharsets.UTF_8));
+		updateField(digest, jsonHash.getBytes(StandardCharsets.UTF_8));
+		updateField(digest, parentHash);
+		for (byte[] maskHash : maskHashes)
+		{
+			updateField(digest, maskHash);
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Hashes a texture's files, so every key made from the texture can use the hash instead of the files
+	 * @param image The texture's png, from its position to its limit
+	 * @param metadata The raw bytes of the texture's .mcmeta, or null if it has none
+	 * @return The hash
+	 */
+	public static byte[] hashFiles(ByteBuffer image, @Nullable byte[] metadata)
+	{
+		MessageDigest digest = makeDigest();
+		updateField(digest, image);
+		updateField(digest, metadata);
+		return digest.digest();
+	}
+
+	/**
+	 * Looks up a previously generated texture
+	 * @param key A key created by {@link #makeKey}
+	 * @return The cached texture, or empty if there is no valid entry for the key
+	 */
+	public Optional<GeneratedTexture> get(String key)
+	{
+		Path path = this.getEntryPath(key);
+		if (!Files.isRegularFile(path))
+		{
+			this.misses.incrementAndGet();
+			return Optional.empty();
+		}
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path))))
+		{
+			long fileSize = Files.size(path);
+			byte[] image = readField(input, fileSize);
+			byte[] metadata = readField(input, fileSize);
+			if (image == null)
+			{
+				throw new IOException("Cache entry is missing its image");
+			}
+			// mark the entry as recently used so it survives eviction
+			Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+			this.hits.incrementAndGet();
+			return Optional.of(new GeneratedTexture(image, metadata));
+		}
+		catch (IOException e)
+		{
+			// a corrupt entry is no worse than a missing one, we'll write a new one after generating the texture again
+			AutopalettePack.LOGGER.warn("Discarding unreadable autopalette cache entry {}: {}", path, e.getMessage());
+			this.delete(path);
+			this.misses.incrementAndGet();
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Writes a generated texture to the cache. Entries are written to a temporary file first and then moved into place,
+	 * so a crash in the middle of writing never leaves a partial entry behind.
+	 * @param key A key created by {@link #makeKey}
+	 * @param texture The texture generated from the key's inputs
+	 */
+	public void put(String key, GeneratedTexture texture)
+	{
+		Path path = this.getEntryPath(key);
+		Path tempFile = null;
+		try
+		{
+			tempFile = Files.createTempFile(this.directory, key, TEMP_EXTENSION);
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))))
+			{
+				writeField(output, texture.image());
+				writeField(output, texture.metadata());
+			}
+			try
+			{
+				Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+			this.writes.incrementAndGet();
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to write autopalette cache entry {}: {}", path, e.getMessage());
+		}
+		finally
+		{
+			if (tempFile != null)
+			{
+				this.delete(tempFile);
+			}
+		}
+	}
+
+	/**
+	 * Deletes entries from older version stamps and leftover temporary files,
+	 * then evicts the least recently used entries until the cache fits in its size limit.
+	 * Should not be called while other threads are writing to the cache.
+	 */
+	public void trim()
+	{
+		Path rootDirectory = this.directory.getParent();
+		try (Stream<Path> versionDirectories = Files.list(rootDirectory))
+		{
+			versionDirectories
+				.filter(path -> Files.isDirectory(path) && !path.equals(this.directory))
+				.forEach(this::deleteRecursively);
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to clean up old autopalette cache versions in {}: {}", rootDirectory, e.getMessage());
+		}
+
+		List<CacheFile> entries = new ArrayList<>();
+		long totalBytes = 0L;
+		try (Stream<Path> files = Files.list(this.directory))
+		{
+			for (Path path : (Iterable<Path>)files::iterator)
+			{
+				String fileName = path.getFileName().toString();
+				if (fileName.endsWith(TEMP_EXTENSION))
+				{
+					this.delete(path);
+				}
+				else if (fileName.endsWith(ENTRY_EXTENSION))
+				{
+					CacheFile entry = new CacheFile(path, Files.size(path), Files.getLastModifiedTime(path));
+					entries.add(entry);
+					totalBytes += entry.size();
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to list autopalette cache entries in {}: {}", this.directory, e.getMessage());
+			return;
+		}
+
+		if (totalBytes > this.maxBytes)
+		{
+			entries.sort(Comparator.comparing(CacheFile::lastModified));
+			for (CacheFile entry : entries)
+			{
+				if (totalBytes <= this.maxBytes)
+				{
+					break;
+				}
+				if (this.delete(entry.path()))
+				{
+					totalBytes -= entry.size();
+					this.evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public int getHits()
+	{
+		return this.hits.get();
+	}
+
+	public int getMisses()
+	{
+		return this.misses.get();
+	}
+
+	public int getWrites()
+	{
+		return this.writes.get();
+	}
+
+	public int getEvictions()
+	{
+		return this.evictions.get();
+	}
+
+	protected Path getEntryPath(String key)
+	{
+		return this.directory.resolve(key + ENTRY_EXTENSION);
+	}
+
+	protected boolean delete(Path path)
+	{
+		try
+		{
+			return Files.deleteIfExists(path);
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to delete autopalette cache file {}: {}", path, e.getMessage());
+			return false;
+		}
+	}
+
+	protected void deleteRecursively(Path directory)
+	{
+		try (Stream<Path> paths = Files.walk(directory))
+		{
+			// delete children before their parents
+			paths.sorted(Comparator.reverseOrder()).forEach(this::delete);
+		}
+		catch (IOException e)
+		{
+			AutopalettePack.LOGGER.warn("Failed to delete autopalette cache directory {}: {}", directory, e.getMessage());
+		}
+	}
+
+	private static String makeVersionStamp()
+	{
+		MessageDigest digest = makeDigest();
+		updateField(digest, Integer.toString(FORMAT_VERSION).getBytes(StandardCharsets.UTF_8));
+		for (Class<?> clazz : TRANSFORM_CLASSES)
+		{
+			// nested classes are named Outer$Inner.class, getName gives us that (with the package in front)
+			String classFile = clazz.getName().substring(clazz.getPackageName().length() + 1) + ".class";
+			try (InputStream input = clazz.getResourceAsStream(classFile))
+			{
+				updateField(digest, input == null ? null : IOUtils.toByteArray(input));
+			}
+			catch (IOException e)
+			{
+				// no stable stamp means we can't trust old entries, but a random one still works for this session
+				AutopalettePack.LOGGER.warn("Failed to read {} for autopalette cache version stamp: {}", classFile, e.getMessage());
+				updateField(digest, Long.toString(System.nanoTime()).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest()).substring(0, 16);
+	}
+
+	/**
+	 * @return A new SHA-256 digest
+	 */
+	public static MessageDigest makeDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// every java runtime is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// length-prefixing each field keeps different inputs from hashing the same by shifting bytes between fields
+	private static void updateField(MessageDigest digest, @Nullable byte[] bytes)
+	{
+		int length = bytes == null ? -1 : bytes.length;
+		digest.update(new byte[] {(byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length});
+		if (bytes != null)
+		{
+			digest.update(bytes);
+		}
+	}
+
+	private static void updateField(MessageDigest digest, ByteBuffer buffer)
+	{
+		int length = buffer.remaining();
+		digest.update(new byte[] {(byte)(length >>> 24), (byte)(length >>> 16), (byte)(length >>> 8), (byte)length});
+		// hashing a duplicate leaves the buffer's position alone for whoever reads it next
+		digest.update(buffer.duplicate());
+	}
+
+	private static void writeField(DataOutputStream output, @Nullable byte[] bytes) throws IOException
+	{
+		output.writeInt(bytes == null ? -1 : bytes.length);
+		if (bytes != null)
+		{
+			output.write(bytes);
+		}
+	}
+
+	private static @Nullable byte[] readField(DataInputStream input, long maxLength) throws IOException
+	{
+		int length = input.readInt();
+		if (length < 0)
+		{
+			return null;
+		}
+		if (length > maxLength)
+		{
+			throw new IOException("Field length " + length + " exceeds file size");
+		}
+		byte[] bytes = new byte[length];
+		input.readFully(bytes);
+		return bytes;
+	}
+
+	private record CacheFile(Path path, long size, FileTime lastModified) {}
+}
@@ -0,0 +1,132 @@
+package commoble.autopalette;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.lwjgl.opengl.GL11;
+
+import com.mojang.blaze3d.platform.GlStateManager;
+import com.mojang.blaze3d.platform.NativeImage;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.renderer.Sheets;
+import net.minecraft.client.renderer.texture.AbstractTexture;
+import net.minecraft.client.renderer.texture.MipmapGenerator;
+import net.minecraft.client.renderer.texture.SimpleTexture;
+import net.minecraft.client.renderer.texture.TextureAtlas;
+import net.minecraft.client.renderer.texture.TextureAtlasSprite;
+import net.minecraft.client.renderer.texture.TextureManager;
+import net.minecraft.resources.ResourceLocation;
+
+/**
+ * Uploads hot reloaded autotextures to the textures that are already using them, without reloading any resources.
+ * Sprites are overwritten in place in their atlases, so they must keep the same size;
+ * standalone textures are loaded again from the virtual pack.
+ * Must be used on the render thread.
+ */
+public class TextureUploader
+{
+	// the atlases that vanilla stitches from model and sheet textures, which autotextures are usually used in
+	public static final List<ResourceLocation> ATLASES = List.of(
+		TextureAtlas.LOCATION_BLOCKS,
+		TextureAtlas.LOCATION_PARTICLES,
+		Sheets.BANNER_SHEET,
+		Sheets.BED_SHEET,
+		Sheets.CHEST_SHEET,
+		Sheets.SHIELD_SHEET,
+		Sheets.SHULKER_SHEET,
+		Sheets.SIGN_SHEET);
+
+	/**
+	 * Uploads an autotexture to every atlas sprite and standalone texture that uses it
+	 * @param minecraft The minecraft instance
+	 * @param overrideID The autotexture's ID, e.g. autopalette:block/dark_cobblestone
+	 * @param image The autotexture's png
+	 * @return Whether the texture was uploaded to anything. False if nothing uses the texture yet,
+	 * or if its sprites can't be overwritten in place because they're animated or a different size, in which case resources need to be reloaded.
+	 * @throws IOException If the png couldn't be decoded or a standalone texture couldn't be loaded again
+	 */
+	public static boolean upload(Minecraft minecraft, ResourceLocation overrideID, byte[] image) throws IOException
+	{
+		TextureManager textureManager = minecraft.getTextureManager();
+		boolean uploaded = false;
+		boolean needsReload = false;
+		try (NativeImage nativeImage = NativeImage.read(new ByteArrayInputStream(image)))
+		{
+			for (ResourceLocation atlasID : ATLASES)
+			{
+				if (textureManager.getTexture(atlasID, null) instanceof TextureAtlas atlas)
+				{
+					// atlases give their missing sprite for textures they don't have
+					TextureAtlasSprite sprite = atlas.getSprite(overrideID);
+					if (sprite.getName().equals(overrideID))
+					{
+						if (uploadSprite(minecraft, atlas, sprite, nativeImage))
+						{
+							uploaded = true;
+						}
+						else
+						{
+							needsReload = true;
+						}
+					}
+				}
+			}
+		}
+		// entity textures and the like are loaded by their png's resource ID
+		AbstractTexture texture = textureManager.getTexture(AutopalettePack.makeTextureID(overrideID), null);
+		if (texture instanceof SimpleTexture simpleTexture)
+		{
+			simpleTexture.load(minecraft.getResourceManager());
+			uploaded = true;
+		}
+		return uploaded && !needsReload;
+	}
+
+	/**
+	 * Overwrites a sprite's pixels in its atlas, and the atlas's mipmaps of the sprite
+	 * @param minecraft The minecraft instance
+	 * @param atlas The atlas the sprite is in
+	 * @param sprite The sprite
+	 * @param image The sprite's new pixels, which are not modified
+	 * @return True if the sprite was overwritten, false if it's animated or the image isn't the same size as the sprite
+	 */
+	protected static boolean uploadSprite(Minecraft minecraft, TextureAtlas atlas, TextureAtlasSprite sprite, NativeImage image)
+	{
+		// the atlas only has room for the sprite's old size, and animated sprites would upload their old frames over ours on the next tick
+		if (sprite.getAnimationTicker() != null || image.getWidth() != sprite.getWidth() || image.getHeight() != sprite.getHeight())
+		{
+			return false;
+		}
+		atlas.bind();
+		int mipLevels = getMipLevels(minecraft.options.mipmapLevels().get());
+		NativeImage[] mipmaps = MipmapGenerator.generateMipLevels(image, mipLevels);
+		for (int level=0; level<mipmaps.length; level++)
+		{
+			// atlases are stitched so every sprite's position stays whole at every mip level
+			mipmaps[level].upload(level, sprite.getX() >> level, sprite.getY() >> level, false);
+			// the first level is the image itself, which belongs to the caller
+			if (mipmaps[level] != image)
+			{
+				mipmaps[level].close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param maxMipLevels The mip levels set in the video options
+	 * @return How many mip levels the bound atlas has, not counting the full size level.
+	 * Atlases may have fewer than the video options ask for, if they have sprites too small to scale down that far.
+	 */
+	protected static int getMipLevels(int maxMipLevels)
+	{
+		int levels = 0;
+		while (levels < maxMipLevels && GlStateManager._getTexLevelParameter(GL11.GL_TEXTURE_2D, levels + 1, GL11.GL_TEXTURE_WIDTH) > 0)
+		{
+			levels++;
+		}
+		return levels;
+	}
+}
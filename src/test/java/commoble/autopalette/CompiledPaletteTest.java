@@ -0,0 +1,154 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+public class CompiledPaletteTest
+{
+	// 8 keys are scanned linearly, 40 are binary searched
+	public static final int[] PALETTE_SIZES = {1, 8, 40};
+	public static final int[] TOLERANCES = {1, 12, 40};
+
+	@Test
+	public void exactMatchesBaseline()
+	{
+		Random random = new Random(5L);
+		for (int size : PALETTE_SIZES)
+		{
+			Int2IntMap map = makeMap(random, size);
+			int[] pixels = makePixels(random, map, 32 * 32);
+			CompiledPalette palette = CompiledPalette.compile(map);
+			int[] expected = baseline(map, pixels);
+			assertArrayEquals(expected, palette.transformCopy(pixels), "transformCopy with " + size + " keys");
+			int[] inPlace = pixels.clone();
+			assertTrue(palette.transform(inPlace, 0, inPlace.length));
+			assertArrayEquals(expected, inPlace, "transform with " + size + " keys");
+		}
+	}
+
+	@Test
+	public void toleranceMatchesBaseline()
+	{
+		Random random = new Random(6L);
+		for (int size : PALETTE_SIZES)
+		{
+			for (int tolerance : TOLERANCES)
+			{
+				Int2IntMap map = makeMap(random, size);
+				// nudge some pixels off their keys, so they're only replaced if they're within the tolerance
+				int[] pixels = makePixels(random, map, 32 * 32);
+				for (int i=0; i<pixels.length; i += 3)
+				{
+					pixels[i] ^= random.nextInt(16) << (8 * random.nextInt(4));
+				}
+				CompiledPalette palette = CompiledPalette.compile(map, tolerance);
+				int[] expected = baseline(map, tolerance, pixels);
+				int[] copy = palette.transformCopy(pixels);
+				assertArrayEquals(expected, copy == null ? pixels : copy, "transformCopy with " + size + " keys and tolerance " + tolerance);
+				int[] inPlace = pixels.clone();
+				palette.transform(inPlace, 0, inPlace.length);
+				assertArrayEquals(expected, inPlace, "transform with " + size + " keys and tolerance " + tolerance);
+			}
+		}
+	}
+
+	@Test
+	public void unchangedPixelsAreNotCopied()
+	{
+		Int2IntMap map = new Int2IntOpenHashMap();
+		map.put(0xFF0000FF, 0xFF00FF00);
+		int[] pixels = {0xFFFF0000, 0x00000000, 0xFFFF0000};
+		assertNull(CompiledPalette.compile(map).transformCopy(pixels));
+		assertNull(CompiledPalette.compile(map, 1).transformCopy(pixels));
+	}
+
+	@Test
+	public void rangeOutsideTransformIsUntouched()
+	{
+		Int2IntMap map = new Int2IntOpenHashMap();
+		map.put(1, 2);
+		int[] pixels = {1, 1, 1, 1};
+		CompiledPalette.compile(map).transform(pixels, 1, 3);
+		assertArrayEquals(new int[] {1, 2, 2, 1}, pixels);
+	}
+
+	// how palettes were applied before they were compiled, one map lookup per pixel
+	protected static int[] baseline(Int2IntMap map, int[] pixels)
+	{
+		int[] result = pixels.clone();
+		for (int i=0; i<result.length; i++)
+		{
+			result[i] = map.getOrDefault(result[i], result[i]);
+		}
+		return result;
+	}
+
+	// exact matches first, then the nearest key within the tolerance by comparing against every key
+	protected static int[] baseline(Int2IntMap map, int tolerance, int[] pixels)
+	{
+		int[] result = pixels.clone();
+		for (int i=0; i<result.length; i++)
+		{
+			int color = result[i];
+			if (map.containsKey(color))
+			{
+				result[i] = map.get(color);
+				continue;
+			}
+			int bestDistance = tolerance * tolerance;
+			int bestValue = color;
+			for (Int2IntMap.Entry entry : map.int2IntEntrySet())
+			{
+				int distance = NearestColorTree.distanceSquared(color, entry.getIntKey());
+				if (distance <= bestDistance)
+				{
+					bestDistance = distance;
+					bestValue = entry.getIntValue();
+				}
+			}
+			result[i] = bestValue;
+		}
+		return result;
+	}
+
+	// keys are spread far enough apart that no pixel within the tolerances is equally near two of them
+	protected static Int2IntMap makeMap(Random random, int size)
+	{
+		Int2IntMap map = new Int2IntOpenHashMap();
+		while (map.size() < size)
+		{
+			int key = random.nextInt() & 0xC0C0C0C0 | 0x20202020;
+			map.put(key, random.nextInt());
+		}
+		return map;
+	}
+
+	// a mix of keys, transparent pixels, and colors the palette doesn't have, in runs like real textures
+	protected static int[] makePixels(Random random, Int2IntMap map, int count)
+	{
+		int[] keys = map.keySet().stream().mapToInt(Integer::intValue).toArray();
+		int[] pixels = new int[count];
+		int i = 0;
+		while (i < count)
+		{
+			int choice = random.nextInt(4);
+			int color = choice == 0 ? 0
+				: choice == 1 ? random.nextInt() & 0xC0C0C0C0
+				: keys[random.nextInt(keys.length)];
+			int run = 1 + random.nextInt(6);
+			for (int j=0; j<run && i<count; j++)
+			{
+				pixels[i++] = color;
+			}
+		}
+		return pixels;
+	}
+}
@@ -0,0 +1,113 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class IndexedImageTest
+{
+	public static final int WIDTH = 16;
+	public static final int HEIGHT = 48;
+	// a few opaque colors, and two kinds of transparent pixel
+	public static final int[] PARENT_COLORS = {0xFF3A3A3A, 0xFF5C5C5C, 0xFF7F7F7F, 0xFFA0A0A0, 0x80204060, 0x00000000, 0x00FFFFFF};
+
+	@Test
+	public void indexingKeepsEveryPixel()
+	{
+		PixelImage parent = makeParent(new Random(14L));
+		IndexedImage indexed = IndexedImage.of(parent);
+		assertEquals(PARENT_COLORS.length, indexed.colors().length);
+		for (int i=0; i<parent.pixels().length; i++)
+		{
+			assertEquals(parent.pixels()[i], indexed.colors()[indexed.indices()[i]]);
+		}
+	}
+
+	@Test
+	public void batchedRecolorMatchesEachOverride()
+	{
+		PixelImage parent = makeParent(new Random(15L));
+		List<CompiledPalette> palettes = makePalettes();
+		PixelImage[] batched = IndexedImage.of(parent).recolor(palettes);
+		assertEquals(palettes.size(), batched.length);
+		for (int i=0; i<palettes.size(); i++)
+		{
+			// what each override did on its own before overrides were batched
+			PixelImage single = palettes.get(i).isEmpty() ? null : toImage(parent, palettes.get(i).transformCopy(parent.pixels()));
+			assertSameImage(single, batched[i], "palette " + i);
+		}
+	}
+
+	@Test
+	public void batchedPipelinesMatchEachOverride()
+	{
+		PixelImage parent = makeParent(new Random(16L));
+		List<CompiledPalette> palettes = makePalettes();
+		List<OperationPipeline.Bound> pipelines = new ArrayList<>();
+		for (CompiledPalette palette : palettes)
+		{
+			pipelines.add(OperationPipeline.compile(palette, List.of()).bind(List.of(), WIDTH, HEIGHT));
+		}
+		PixelImage[] batched = IndexedImage.of(parent).transform(pipelines, 0, 0);
+		for (int i=0; i<palettes.size(); i++)
+		{
+			PixelImage single = palettes.get(i).isEmpty() ? null : toImage(parent, palettes.get(i).transformCopy(parent.pixels()));
+			assertSameImage(single, batched[i], "pipeline " + i);
+		}
+	}
+
+	// several overrides of the same parent: some share keys, one maps two colors to the same color,
+	// one only touches transparent pixels, one changes nothing, and one is empty
+	protected static List<CompiledPalette> makePalettes()
+	{
+		return List.of(
+			CompiledPalette.of(new int[] {0xFF3A3A3A, 0xFF7F7F7F}, new int[] {0xFF102030, 0xFF405060}, 0),
+			CompiledPalette.of(new int[] {0xFF3A3A3A, 0xFF5C5C5C}, new int[] {0xFF0000FF, 0xFF0000FF}, 0),
+			CompiledPalette.of(new int[] {0x00000000}, new int[] {0xFFFFFFFF}, 0),
+			CompiledPalette.of(new int[] {0x12345678}, new int[] {0xFF000000}, 0),
+			CompiledPalette.of(new int[] {0xFF3A3A3A, 0xFF5C5C5C, 0xFF7F7F7F, 0xFFA0A0A0}, new int[] {0xFF3A3A3A, 0xFF5C5C5C, 0xFF7F7F7F, 0xFF000000}, 0),
+			CompiledPalette.of(new int[0], new int[0], 0));
+	}
+
+	// runs of repeated colors, like real textures
+	protected static PixelImage makeParent(Random random)
+	{
+		int[] pixels = new int[WIDTH * HEIGHT];
+		int i = 0;
+		while (i < pixels.length)
+		{
+			int color = PARENT_COLORS[random.nextInt(PARENT_COLORS.length)];
+			int run = 1 + random.nextInt(8);
+			for (int j=0; j<run && i<pixels.length; j++)
+			{
+				pixels[i++] = color;
+			}
+		}
+		return new PixelImage(WIDTH, HEIGHT, pixels);
+	}
+
+	protected static PixelImage toImage(PixelImage parent, int[] pixels)
+	{
+		return pixels == null ? null : new PixelImage(parent.width(), parent.height(), pixels);
+	}
+
+	protected static void assertSameImage(PixelImage expected, PixelImage actual, String description)
+	{
+		if (expected == null)
+		{
+			assertNull(actual, description + " shouldn't have changed anything");
+			return;
+		}
+		assertTrue(actual != null, description + " should have changed something");
+		assertEquals(expected.width(), actual.width(), description);
+		assertEquals(expected.height(), actual.height(), description);
+		assertArrayEquals(expected.pixels(), actual.pixels(), description);
+	}
+}
@@ -0,0 +1,98 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class NearestColorTreeTest
+{
+	public static final int[] PALETTE_SIZES = {1, 2, 3, 7, 8, 9, 40, 255};
+	public static final int[] MAX_DISTANCES = {0, 1, 12, 40, 200, CompiledPalette.MAX_TOLERANCE};
+
+	@Test
+	public void randomColorsMatchBruteForce()
+	{
+		Random random = new Random(23L);
+		for (int size : PALETTE_SIZES)
+		{
+			int[] colors = new int[size];
+			for (int i=0; i<size; i++)
+			{
+				colors[i] = random.nextInt();
+			}
+			assertMatchesBruteForce(random, colors, 0xFFFFFFFF);
+		}
+	}
+
+	@Test
+	public void tiesMatchBruteForce()
+	{
+		Random random = new Random(24L);
+		for (int size : PALETTE_SIZES)
+		{
+			// colors on a coarse grid, searched from points halfway between them, so most searches have several equally near colors
+			// some colors are in the palette more than once, too
+			int[] colors = new int[size];
+			for (int i=0; i<size; i++)
+			{
+				colors[i] = i > 0 && random.nextInt(8) == 0
+					? colors[random.nextInt(i)]
+					: random.nextInt() & 0xC0C0C0C0;
+			}
+			assertMatchesBruteForce(random, colors, 0xE0E0E0E0);
+		}
+	}
+
+	@Test
+	public void maxToleranceReachesEveryColor()
+	{
+		// the furthest two colors can be apart is opaque white from transparent black
+		assertEquals(CompiledPalette.MAX_TOLERANCE * CompiledPalette.MAX_TOLERANCE, NearestColorTree.distanceSquared(0xFFFFFFFF, 0x00000000));
+		NearestColorTree tree = NearestColorTree.of(new int[] {0xFFFFFFFF});
+		assertEquals(0, tree.findNearest(0x00000000, CompiledPalette.MAX_TOLERANCE));
+		assertEquals(-1, tree.findNearest(0x00000000, CompiledPalette.MAX_TOLERANCE - 1));
+	}
+
+	// searches from random colors masked to the given bits, and from the palette's own colors
+	protected static void assertMatchesBruteForce(Random random, int[] colors, int queryMask)
+	{
+		NearestColorTree tree = NearestColorTree.of(colors);
+		for (int q=0; q<500; q++)
+		{
+			int query = q % 5 == 0
+				? colors[random.nextInt(colors.length)]
+				: random.nextInt() & queryMask;
+			for (int maxDistance : MAX_DISTANCES)
+			{
+				String description = String.format("%08X within %s of %s colors", query, maxDistance, colors.length);
+				int bestDistance = bruteForceDistance(colors, query);
+				int nearest = tree.findNearest(query, maxDistance);
+				if (bestDistance > maxDistance * maxDistance)
+				{
+					assertEquals(-1, nearest, description);
+				}
+				else
+				{
+					// any of several equally near colors may be found, but it has to be one of the nearest
+					assertNotEquals(-1, nearest, description);
+					assertTrue(nearest < colors.length, description);
+					assertEquals(bestDistance, NearestColorTree.distanceSquared(query, colors[nearest]), description);
+				}
+			}
+		}
+	}
+
+	protected static int bruteForceDistance(int[] colors, int query)
+	{
+		int bestDistance = Integer.MAX_VALUE;
+		for (int color : colors)
+		{
+			bestDistance = Math.min(bestDistance, NearestColorTree.distanceSquared(query, color));
+		}
+		return bestDistance;
+	}
+}
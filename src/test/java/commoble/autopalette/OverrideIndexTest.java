@@ -0,0 +1,162 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.minecraft.resources.ResourceLocation;
+
+public class OverrideIndexTest
+{
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void overridesSurviveRoundTrip() throws IOException
+	{
+		Map<String, PaletteOverride> overrides = makeOverrides();
+		Map<String, PaletteOverride> read = OverrideIndex.read(ByteBuffer.wrap(OverrideIndex.write(overrides)));
+		assertSameOverrides(overrides, read);
+	}
+
+	@Test
+	public void savedIndexIsLoaded()
+	{
+		Path file = this.directory.resolve("overrides.bin");
+		Map<String, PaletteOverride> overrides = makeOverrides();
+		OverrideIndex index = OverrideIndex.load(file);
+		overrides.forEach(index::put);
+		index.save();
+		assertTrue(Files.isRegularFile(file));
+
+		OverrideIndex loaded = OverrideIndex.load(file);
+		for (Map.Entry<String, PaletteOverride> entry : overrides.entrySet())
+		{
+			PaletteOverride override = loaded.get(entry.getKey());
+			assertNotNull(override, entry.getKey());
+			assertSameOverride(entry.getValue(), override);
+		}
+		assertEquals(overrides.size(), loaded.getHits());
+		assertEquals(0, loaded.getMisses());
+	}
+
+	@Test
+	public void wrongMagicIsRejected() throws IOException
+	{
+		byte[] bytes = OverrideIndex.write(makeOverrides());
+		ByteBuffer.wrap(bytes).putInt(0, OverrideIndex.MAGIC + 1);
+		assertThrows(IOException.class, () -> OverrideIndex.read(ByteBuffer.wrap(bytes)));
+
+		// a file that can't be read is ignored, and the jsons get parsed again
+		Path file = this.directory.resolve("overrides.bin");
+		Files.write(file, bytes);
+		assertEquals(Map.of(), OverrideIndex.read(file));
+	}
+
+	@Test
+	public void wrongVersionIsIgnored() throws IOException
+	{
+		byte[] bytes = OverrideIndex.write(makeOverrides());
+		ByteBuffer.wrap(bytes).putInt(4, OverrideIndex.FORMAT_VERSION + 1);
+		assertEquals(Map.of(), OverrideIndex.read(ByteBuffer.wrap(bytes)));
+
+		// the version stamp comes right after the format version, as a short length and then its bytes
+		byte[] stampBytes = OverrideIndex.write(makeOverrides());
+		stampBytes[10] ^= 1;
+		assertEquals(Map.of(), OverrideIndex.read(ByteBuffer.wrap(stampBytes)));
+	}
+
+	@Test
+	public void missingFileIsEmpty()
+	{
+		assertEquals(Map.of(), OverrideIndex.read(this.directory.resolve("missing.bin")));
+	}
+
+	// one override with each kind of operation, plus a plain palette override and one with no palette at all
+	protected static Map<String, PaletteOverride> makeOverrides()
+	{
+		ResourceLocation parent = new ResourceLocation("minecraft", "block/stone");
+		CompiledPalette palette = CompiledPalette.of(new int[] {0xFF3A3A3A, 0xFF7F7F7F}, new int[] {0xFF102030, 0xFF405060}, 0);
+		CompiledPalette tolerancePalette = CompiledPalette.of(new int[] {0xFF000000, 0xFFFFFFFF}, new int[] {0xFF0000FF, 0xFFFF0000}, 24);
+		Map<String, PaletteOverride> overrides = new HashMap<>();
+		overrides.put(hash("plain"), new PaletteOverride(List.of(PaletteOverride.HIGHEST_SELECTED_PACK), false, parent, palette, List.of()));
+		overrides.put(hash("operations"), new PaletteOverride(List.of("mod_resources", "file/some_pack.zip"), true, new ResourceLocation("somemod", "item/thing"), tolerancePalette, List.of(
+			new PixelOperation.Palette(palette),
+			new PixelOperation.Tint(0xFF80C0FF),
+			new PixelOperation.HsvShift(-45.5F, 0.25F, -0.125F),
+			new PixelOperation.AlphaMask(new ResourceLocation("minecraft", "block/glass")),
+			new PixelOperation.GradientMap(new int[] {0xFF000000, 0x80FF8000, 0xFFFFFFFF}))));
+		overrides.put(hash("unicode"), new PaletteOverride(List.of("file/p\u00E4ck \u2603"), false, parent, CompiledPalette.of(new int[0], new int[0], 0), List.of(
+			new PixelOperation.GradientMap(new int[] {0xFF123456}))));
+		return overrides;
+	}
+
+	protected static String hash(String json)
+	{
+		return OverrideIndex.hashJson(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	protected static void assertSameOverrides(Map<String, PaletteOverride> expected, Map<String, PaletteOverride> actual)
+	{
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<String, PaletteOverride> entry : expected.entrySet())
+		{
+			assertSameOverride(entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	// overrides and compiled palettes don't override equals, so their fields are compared instead
+	protected static void assertSameOverride(PaletteOverride expected, PaletteOverride actual)
+	{
+		assertEquals(expected.getParentPacks(), actual.getParentPacks());
+		assertEquals(expected.getRequirePack(), actual.getRequirePack());
+		assertEquals(expected.getParentTextureID(), actual.getParentTextureID());
+		assertSamePalette(expected.getCompiledPalette(), actual.getCompiledPalette());
+		List<PixelOperation> expectedOperations = expected.getOperations();
+		List<PixelOperation> actualOperations = actual.getOperations();
+		assertEquals(expectedOperations.size(), actualOperations.size());
+		for (int i=0; i<expectedOperations.size(); i++)
+		{
+			PixelOperation expectedOperation = expectedOperations.get(i);
+			PixelOperation actualOperation = actualOperations.get(i);
+			if (expectedOperation instanceof PixelOperation.Palette expectedPalette && actualOperation instanceof PixelOperation.Palette actualPalette)
+			{
+				assertSamePalette(expectedPalette.palette(), actualPalette.palette());
+			}
+			else
+			{
+				assertEquals(expectedOperation, actualOperation);
+			}
+		}
+	}
+
+	protected static void assertSamePalette(CompiledPalette expected, CompiledPalette actual)
+	{
+		assertEquals(expected.getTolerance(), actual.getTolerance());
+		assertEquals(expected.size(), actual.size());
+		int[] expectedEntries = new int[expected.size() * 2];
+		int[] actualEntries = new int[actual.size() * 2];
+		for (int i=0; i<expected.size(); i++)
+		{
+			expectedEntries[i * 2] = expected.getKey(i);
+			expectedEntries[i * 2 + 1] = expected.getValue(i);
+			actualEntries[i * 2] = actual.getKey(i);
+			actualEntries[i * 2 + 1] = actual.getValue(i);
+		}
+		assertArrayEquals(expectedEntries, actualEntries);
+	}
+}
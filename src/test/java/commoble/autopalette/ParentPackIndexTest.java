@@ -0,0 +1,154 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.PackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.ResourcePackFileNotFoundException;
+import net.minecraft.server.packs.metadata.MetadataSectionSerializer;
+import net.minecraft.server.packs.repository.Pack;
+import net.minecraft.server.packs.repository.PackCompatibility;
+import net.minecraft.server.packs.repository.PackSource;
+
+public class ParentPackIndexTest
+{
+	public static final ResourceLocation PARENT = new ResourceLocation("minecraft", "block/cobblestone");
+
+	private final ResourceLocation parentFile = AutopalettePack.makeTextureID(PARENT);
+	private final Pack sourcePack = makePack("vanilla", new TexturePack(this.parentFile));
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void highestSelectedPackSkipsVirtualPack() throws IOException
+	{
+		assertSame(this.sourcePack, this.findParentPack(List.of(PaletteOverride.HIGHEST_SELECTED_PACK)));
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void explicitVirtualPackIsRejected() throws IOException
+	{
+		assertNull(this.findParentPack(List.of(AutopalettePack.PACK_ID)));
+	}
+
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	public void explicitVirtualPackFallsBackToNextPack() throws IOException
+	{
+		assertSame(this.sourcePack, this.findParentPack(List.of(AutopalettePack.PACK_ID, this.sourcePack.getId())));
+	}
+
+	protected @Nullable Pack findParentPack(List<String> packIDs) throws IOException
+	{
+		// the virtual pack is selected at the top, so it would be listed first if it weren't left out
+		Pack virtualPack = makePack(AutopalettePack.PACK_ID, new UnlistableVirtualPack());
+		Map<String, Pack> selectedPacks = new LinkedHashMap<>();
+		selectedPacks.put(this.sourcePack.getId(), this.sourcePack);
+		selectedPacks.put(virtualPack.getId(), virtualPack);
+		GenerationContext context = new GenerationContext(selectedPacks, Map.of(), new ResourceStore(PngEncoder.Mode.VANILLA), null, Map.of(), OverrideIndex.inMemory(),
+			new GenerationMetrics(0, null), new MemoryBudget(0L), 0, null);
+		PaletteOverride override = new PaletteOverride(packIDs, false, PARENT, new Int2IntOpenHashMap(), 0, List.of());
+		try
+		{
+			return AutopalettePack.findParentPack(new ResourceLocation("autopalette", "test"), override, this.parentFile, context);
+		}
+		finally
+		{
+			context.getPacks().close();
+		}
+	}
+
+	protected static Pack makePack(String id, PackResources resources)
+	{
+		return new Pack(id, false, () -> resources, Component.literal(id), Component.literal(id),
+			PackCompatibility.COMPATIBLE, Pack.Position.TOP, false, PackSource.DEFAULT, false);
+	}
+
+	// listing the virtual pack's textures during generation waits on that same generation, so it must never be listed
+	protected static class UnlistableVirtualPack extends AutopalettePack
+	{
+		@Override
+		public Collection<ResourceLocation> getResources(PackType packType, String namespace, String id, Predicate<ResourceLocation> filter)
+		{
+			throw new AssertionError("Virtual pack was listed while looking for a parent texture");
+		}
+
+		@Override
+		public boolean hasResource(PackType type, ResourceLocation id)
+		{
+			throw new AssertionError("Virtual pack was searched while looking for a parent texture");
+		}
+	}
+
+	// a pack with a single texture in it, which is never read
+	protected static record TexturePack(ResourceLocation textureFile) implements PackResources
+	{
+		@Override
+		public InputStream getRootResource(String fileName) throws IOException
+		{
+			throw new ResourcePackFileNotFoundException(null, fileName);
+		}
+
+		@Override
+		public InputStream getResource(PackType type, ResourceLocation id) throws IOException
+		{
+			throw new ResourcePackFileNotFoundException(null, id.toString());
+		}
+
+		@Override
+		public Collection<ResourceLocation> getResources(PackType type, String namespace, String path, Predicate<ResourceLocation> filter)
+		{
+			return namespace.equals(this.textureFile.getNamespace()) && this.textureFile.getPath().startsWith(path + "/") && filter.test(this.textureFile)
+				? List.of(this.textureFile)
+				: List.of();
+		}
+
+		@Override
+		public boolean hasResource(PackType type, ResourceLocation id)
+		{
+			return id.equals(this.textureFile);
+		}
+
+		@Override
+		public Set<String> getNamespaces(PackType type)
+		{
+			return Set.of(this.textureFile.getNamespace());
+		}
+
+		@Override
+		public <T> T getMetadataSection(MetadataSectionSerializer<T> serializer)
+		{
+			return null;
+		}
+
+		@Override
+		public String getName()
+		{
+			return "Test Textures";
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
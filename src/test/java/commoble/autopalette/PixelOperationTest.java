@@ -0,0 +1,232 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import commoble.autopalette.PixelOperation.AlphaMask;
+import commoble.autopalette.PixelOperation.ColorOperation;
+import commoble.autopalette.PixelOperation.GradientMap;
+import commoble.autopalette.PixelOperation.HsvShift;
+import commoble.autopalette.PixelOperation.Tint;
+
+import net.minecraft.resources.ResourceLocation;
+
+public class PixelOperationTest
+{
+	// colors are AABBGGRR
+	public static final int RED = 0xFF0000FF;
+	public static final int YELLOW = 0xFF00FFFF;
+	public static final int GREEN = 0xFF00FF00;
+	public static final int CYAN = 0xFFFFFF00;
+	public static final int BLUE = 0xFFFF0000;
+	public static final int MAGENTA = 0xFFFF00FF;
+	public static final int WHITE = 0xFFFFFFFF;
+	public static final int BLACK = 0xFF000000;
+	public static final int GREY = 0xFF808080;
+	// the hue wheel in 60 degree steps
+	public static final int[] HUES = {RED, YELLOW, GREEN, CYAN, BLUE, MAGENTA};
+	public static final ResourceLocation MASK = new ResourceLocation("minecraft", "block/glass");
+
+	@Test
+	public void tintMultipliesChannels()
+	{
+		Tint tint = new Tint(0x80C08040);
+		assertEquals(0x80C08040, tint.apply(WHITE));
+		assertEquals(0x80000000, tint.apply(BLACK));
+		// 128 * 128 / 255 rounds to 64
+		assertEquals(0x40604020, tint.apply(0x80808080));
+		assertEquals(RED, new Tint(WHITE).apply(RED));
+	}
+
+	@Test
+	public void hsvShiftLandsOnSectorEdges()
+	{
+		// every 60 degree step lands exactly on the edge between two sectors
+		for (int start=0; start<HUES.length; start++)
+		{
+			for (int step=-6; step<=12; step++)
+			{
+				int expected = HUES[Math.floorMod(start + step, HUES.length)];
+				assertEquals(expected, new HsvShift(step * 60F, 0F, 0F).apply(HUES[start]),
+					String.format("%08X shifted by %s degrees", HUES[start], step * 60));
+			}
+		}
+	}
+
+	@Test
+	public void hsvShiftGoldenValues()
+	{
+		// halfway between two sectors
+		assertEquals(0xFF0080FF, new HsvShift(30F, 0F, 0F).apply(RED));
+		assertEquals(0xFF8000FF, new HsvShift(-30F, 0F, 0F).apply(RED));
+		// a hue just below 0 wraps to just below 6, which would be a seventh sector without clamping
+		assertEquals(RED, new HsvShift(-0.00001F, 0F, 0F).apply(RED));
+		// a color whose hue is negative before wrapping, r=255 g=0 b=128
+		int rose = 0xFF8000FF;
+		assertEquals(rose, new HsvShift(0F, 0F, 0F).apply(rose));
+		// greys have no hue to shift
+		assertEquals(GREY, new HsvShift(123F, 0F, 0F).apply(GREY));
+		// saturation and value are clamped, alpha is kept
+		assertEquals(WHITE, new HsvShift(0F, -1F, 0F).apply(RED));
+		assertEquals(0x80000000, new HsvShift(0F, 0F, -1F).apply(0x800000FF));
+		assertEquals(0x8000FF00, new HsvShift(120F, 0F, 0F).apply(0x800000FF));
+		assertEquals(0xFF0000FF, new HsvShift(0F, 1F, 1F).apply(0xFF404080));
+	}
+
+	@Test
+	public void unshiftedHsvKeepsColors()
+	{
+		Random random = new Random(22L);
+		HsvShift shift = new HsvShift(0F, 0F, 0F);
+		for (int i=0; i<10000; i++)
+		{
+			int color = random.nextInt();
+			assertEquals(color, shift.apply(color), String.format("%08X", color));
+		}
+	}
+
+	@Test
+	public void gradientMapGoldenValues()
+	{
+		GradientMap twoColors = new GradientMap(new int[] {BLACK, WHITE});
+		assertEquals(BLACK, twoColors.apply(BLACK));
+		assertEquals(WHITE, twoColors.apply(WHITE));
+		assertEquals(GREY, twoColors.apply(GREY));
+		// the result's alpha is the color's alpha times the gradient's
+		assertEquals(0x80FFFFFF, twoColors.apply(0x80FFFFFF));
+
+		GradientMap threeColors = new GradientMap(new int[] {BLACK, 0x80FF8000, WHITE});
+		assertEquals(BLACK, threeColors.apply(BLACK));
+		// white picks the last color exactly, without reading past the end of the gradient
+		assertEquals(WHITE, threeColors.apply(WHITE));
+		// luma 128 is one step past the middle color
+		assertEquals(0x80FF8001, threeColors.apply(GREY));
+		// pure red has a luma of 76, part way from black to the middle color
+		assertEquals(0xB3984C00, threeColors.apply(RED));
+
+		GradientMap oneColor = new GradientMap(new int[] {0xFF123456});
+		assertEquals(0xFF123456, oneColor.apply(WHITE));
+		assertEquals(0x00123456, oneColor.apply(0x00000000));
+	}
+
+	@Test
+	public void alphaMaskMultipliesAlpha()
+	{
+		assertEquals(0x80112233, AlphaMask.apply(0xFF112233, 0x80FFFFFF));
+		assertEquals(0x00112233, AlphaMask.apply(0xFF112233, 0x00FFFFFF));
+		assertEquals(0x40112233, AlphaMask.apply(0x80112233, 0x80000000));
+	}
+
+	@Test
+	public void shortMasksRepeatDownTheImage()
+	{
+		int width = 4;
+		int maskHeight = 2;
+		int height = maskHeight * 3;
+		int[] maskPixels = new int[width * maskHeight];
+		for (int i=0; i<maskPixels.length; i++)
+		{
+			maskPixels[i] = (i * 32) << 24;
+		}
+		int[] pixels = new int[width * height];
+		for (int i=0; i<pixels.length; i++)
+		{
+			pixels[i] = i % 2 == 0 ? WHITE : 0x80FF0000;
+		}
+		OperationPipeline pipeline = OperationPipeline.compile(CompiledPalette.of(new int[0], new int[0], 0), List.of(new AlphaMask(MASK)));
+		PixelImage result = IndexedImage.of(new PixelImage(width, height, pixels))
+			.transform(List.of(pipeline.bind(List.of(new PixelImage(width, maskHeight, maskPixels)), width, height)), 0, 0)[0];
+		assertNotNull(result);
+		for (int i=0; i<pixels.length; i++)
+		{
+			int maskAlpha = (i % maskPixels.length) * 32;
+			int expected = (PixelOperation.multiply(pixels[i] >>> 24, maskAlpha) << 24) | (pixels[i] & 0xFFFFFF);
+			assertEquals(expected, result.pixels()[i], "pixel " + i);
+		}
+
+		// the image's height has to be a whole number of masks
+		PixelImage badMask = new PixelImage(width, 4, new int[width * 4]);
+		assertThrows(IllegalArgumentException.class, () -> pipeline.bind(List.of(badMask), width, height));
+	}
+
+	@Test
+	public void colorOperationsAreFused()
+	{
+		CompiledPalette palette = CompiledPalette.of(new int[] {GREY}, new int[] {RED}, 0);
+		List<PixelOperation> operations = List.of(new Tint(0xFFC0C0C0), new HsvShift(90F, -0.25F, 0.1F), new GradientMap(new int[] {BLUE, YELLOW, WHITE}));
+		OperationPipeline pipeline = OperationPipeline.compile(palette, operations);
+		assertFalse(pipeline.hasPixelOperations());
+		assertTrue(pipeline.getMaskTextures().isEmpty());
+		int[] colors = {GREY, RED, BLACK, 0x00000000, 0x80123456};
+		int[] expected = colors.clone();
+		for (int i=0; i<expected.length; i++)
+		{
+			expected[i] = palette.apply(expected[i]);
+			for (PixelOperation operation : operations)
+			{
+				expected[i] = ((ColorOperation)operation).apply(expected[i]);
+			}
+		}
+		assertArrayEquals(expected, pipeline.mapColors(colors));
+	}
+
+	@Test
+	public void pixelOperationsStartAtFirstMask()
+	{
+		Random random = new Random(23L);
+		int width = 8;
+		int height = 16;
+		CompiledPalette palette = CompiledPalette.of(new int[] {GREY}, new int[] {RED}, 0);
+		Tint tint = new Tint(0xFF80FFFF);
+		AlphaMask mask = new AlphaMask(MASK);
+		HsvShift shift = new HsvShift(200F, 0F, 0F);
+		OperationPipeline pipeline = OperationPipeline.compile(palette, List.of(tint, mask, shift));
+		assertTrue(pipeline.hasPixelOperations());
+		assertEquals(List.of(MASK), pipeline.getMaskTextures());
+
+		int[] choices = {GREY, RED, BLACK, WHITE, 0x00000000, 0x80123456};
+		int[] pixels = new int[width * height];
+		int[] maskPixels = new int[width * height / 2];
+		for (int i=0; i<pixels.length; i++)
+		{
+			pixels[i] = choices[random.nextInt(choices.length)];
+		}
+		for (int i=0; i<maskPixels.length; i++)
+		{
+			maskPixels[i] = random.nextInt();
+		}
+		PixelImage result = IndexedImage.of(new PixelImage(width, height, pixels))
+			.transform(List.of(pipeline.bind(List.of(new PixelImage(width, height / 2, maskPixels)), width, height)), 0, 0)[0];
+		assertNotNull(result);
+		for (int i=0; i<pixels.length; i++)
+		{
+			// each operation applied in order, one pixel at a time
+			int color = palette.apply(pixels[i]);
+			color = tint.apply(color);
+			color = AlphaMask.apply(color, maskPixels[i % maskPixels.length]);
+			color = shift.apply(color);
+			assertEquals(color, result.pixels()[i], "pixel " + i);
+		}
+	}
+
+	@Test
+	public void emptyPipelineChangesNothing()
+	{
+		CompiledPalette empty = CompiledPalette.of(new int[0], new int[0], 0);
+		assertSame(OperationPipeline.EMPTY, OperationPipeline.compile(empty, List.of()));
+		assertNull(OperationPipeline.EMPTY.mapColors(new int[] {RED, GREEN}));
+		// a pipeline whose operations happen to change nothing doesn't copy anything either
+		assertNull(OperationPipeline.compile(empty, List.of(new Tint(WHITE))).mapColors(new int[] {RED, GREEN}));
+	}
+}
@@ -0,0 +1,154 @@
+package commoble.autopalette;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import net.minecraft.resources.ResourceLocation;
+
+public class RowBandsTest
+{
+	public static final int[] COLORS = {0xFF3A3A3A, 0xFF5C5C5C, 0xFF7F7F7F, 0xFFA0A0A0, 0x80204060, 0x00000000};
+	public static final ResourceLocation PARENT = new ResourceLocation("minecraft", "block/stone");
+	public static final ResourceLocation MASK = new ResourceLocation("minecraft", "block/glass");
+
+	@Test
+	public void smallImagesAreNotSplit()
+	{
+		List<int[]> bands = getBands(64, 64, 0, RowBands.DEFAULT_SPLIT_THRESHOLD);
+		assertEquals(1, bands.size());
+		assertArrayEquals(new int[] {0, 64 * 64}, bands.get(0));
+	}
+
+	@Test
+	public void bandsCoverEveryPixelOnce()
+	{
+		// {width, height, frameHeight, splitThreshold}
+		int[][] cases = {
+			{512, 256, 0, RowBands.DEFAULT_SPLIT_THRESHOLD},
+			{24, 24 * 600, 24, RowBands.DEFAULT_SPLIT_THRESHOLD},
+			{7, 1000, 0, 100},
+			{7, 1000, 40, 100},
+			{16, 16 * 3, 16, 1}};
+		for (int[] c : cases)
+		{
+			int width = c[0];
+			int height = c[1];
+			int frameHeight = c[2];
+			String description = String.format("%sx%s image with %s tall frames", width, height, frameHeight);
+			List<int[]> bands = getBands(width, height, frameHeight, c[3]);
+			assertTrue(bands.size() > 1, description + " should be split");
+			int next = 0;
+			for (int[] band : bands)
+			{
+				assertEquals(next, band[0], description);
+				assertTrue(band[1] > band[0], description);
+				assertEquals(0, band[0] % width, description + " bands should start at a row");
+				if (frameHeight > 0)
+				{
+					assertEquals(0, band[0] % (width * frameHeight), description + " bands should start at a frame");
+				}
+				next = band[1];
+			}
+			assertEquals(width * height, next, description);
+		}
+	}
+
+	@Test
+	public void bandedRecolorMatchesSingleThreaded()
+	{
+		Random random = new Random(15L);
+		// below the threshold, above it, and an animated strip above it whose bands are rounded to frames
+		assertBandedMatches(random, 64, 64, 0);
+		assertBandedMatches(random, 512, 256, 0);
+		assertBandedMatches(random, 24, 24 * 600, 24);
+	}
+
+	protected static void assertBandedMatches(Random random, int width, int height, int frameHeight)
+	{
+		String description = String.format("%sx%s image with %s tall frames", width, height, frameHeight);
+		PixelImage image = makeImage(random, width, height);
+		IndexedImage indexed = IndexedImage.of(image);
+		List<CompiledPalette> palettes = List.of(
+			CompiledPalette.of(new int[] {0xFF3A3A3A, 0xFF7F7F7F}, new int[] {0xFF102030, 0xFF405060}, 0),
+			CompiledPalette.of(new int[] {0x00000000}, new int[] {0xFFFFFFFF}, 0),
+			CompiledPalette.of(new int[] {0x12345678}, new int[] {0xFF000000}, 0));
+
+		PixelImage[] single = indexed.recolor(palettes, frameHeight, 0);
+		PixelImage[] banded = indexed.recolor(palettes, frameHeight, RowBands.DEFAULT_SPLIT_THRESHOLD);
+		assertSameImages(single, banded, description + " recolor");
+
+		// a mask that repeats once per frame, or four times down an unanimated image
+		int maskHeight = frameHeight > 0 ? frameHeight : height / 4;
+		PixelImage mask = makeImage(random, width, maskHeight);
+		List<OperationPipeline.Bound> pipelines = new ArrayList<>();
+		for (CompiledPalette palette : palettes)
+		{
+			pipelines.add(OperationPipeline.compile(palette, List.of()).bind(List.of(), width, height));
+			pipelines.add(OperationPipeline.compile(palette, List.of(new PixelOperation.AlphaMask(MASK), new PixelOperation.Tint(0xFF80C0FF)))
+				.bind(List.of(mask), width, height));
+		}
+		assertSameImages(indexed.transform(pipelines, frameHeight, 0), indexed.transform(pipelines, frameHeight, RowBands.DEFAULT_SPLIT_THRESHOLD), description + " transform");
+
+		for (CompiledPalette palette : palettes)
+		{
+			PaletteOverride override = new PaletteOverride(List.of(), false, PARENT, palette, List.of());
+			PixelImage expected = override.transformImage(image);
+			PixelImage actual = override.transformImage(image, frameHeight, RowBands.DEFAULT_SPLIT_THRESHOLD);
+			assertEquals(expected == image, actual == image, description + " override should only copy the image if it changes");
+			assertArrayEquals(expected.pixels(), actual.pixels(), description + " override");
+		}
+	}
+
+	protected static List<int[]> getBands(int width, int height, int frameHeight, int splitThreshold)
+	{
+		List<int[]> bands = Collections.synchronizedList(new ArrayList<>());
+		RowBands.forEachBand(width, height, frameHeight, splitThreshold, (from, to) -> bands.add(new int[] {from, to}));
+		List<int[]> sorted = new ArrayList<>(bands);
+		sorted.sort((a, b) -> Integer.compare(a[0], b[0]));
+		return sorted;
+	}
+
+	// runs of repeated colors, like real textures
+	protected static PixelImage makeImage(Random random, int width, int height)
+	{
+		int[] pixels = new int[width * height];
+		int i = 0;
+		while (i < pixels.length)
+		{
+			int color = COLORS[random.nextInt(COLORS.length)];
+			int run = 1 + random.nextInt(8);
+			for (int j=0; j<run && i<pixels.length; j++)
+			{
+				pixels[i++] = color;
+			}
+		}
+		return new PixelImage(width, height, pixels);
+	}
+
+	protected static void assertSameImages(PixelImage[] expected, PixelImage[] actual, String description)
+	{
+		assertEquals(expected.length, actual.length, description);
+		for (int i=0; i<expected.length; i++)
+		{
+			if (expected[i] == null)
+			{
+				assertNull(actual[i], description + " output " + i);
+			}
+			else
+			{
+				assertNotNull(actual[i], description + " output " + i);
+				assertArrayEquals(expected[i].pixels(), actual[i].pixels(), description + " output " + i);
+			}
+		}
+	}
+}